@@ -1,13 +1,48 @@
 (ns build
-  (:require [clojure.tools.build.api :as b]))
+  (:require [clojure.string :as str]
+            [clojure.tools.build.api :as b]))
 
 (def default-opts
   {:basis (b/create-basis {})
    :src-dirs ["src"]
-   :class-dir "target"})
+   :class-dir "target"
+   :javac-opts ["--add-modules" "jdk.incubator.vector"]})
 
 (defn javac [opts]
   (b/delete {:path "target"})
   (b/delete {:path "BenchmarkList"})
   (b/delete {:path "CompilerHints"})
   (b/javac (merge default-opts opts)))
+
+(def value-classes
+  "Classes of src/raytracer that javac-valhalla compiles as value classes."
+  ["Vec3" "Ray" "HitRecord" "Scatter"])
+
+(defn- add-value-modifier
+  "Rewrite the declaration of class c in file f to a value class."
+  [f c]
+  (let [src (slurp f)
+        decl (str "public class " c " {")
+        value (str/replace src decl (str "public value class " c " {"))]
+    (when (= src value)
+      (throw (ex-info (str "No \"" decl "\" in " f) {:file f})))
+    (spit f value)))
+
+(defn javac-valhalla
+  "Compile the ray tracer into target-valhalla/classes with value-classes
+  as value classes. Their sources are generated from src by adding the
+  value modifier, so there is no second copy to keep in sync. Needs a
+  Valhalla early-access JDK, and the classes need
+  -XX:+EnablePrimitiveClasses at run time. The JMH benchmarks are left
+  out. The default javac build is unaffected and keeps working on a stock
+  JDK."
+  [opts]
+  (b/delete {:path "target-valhalla"})
+  (b/copy-dir {:src-dirs ["src/raytracer"] :target-dir "target-valhalla/src/raytracer"})
+  (doseq [c value-classes]
+    (add-value-modifier (str "target-valhalla/src/raytracer/" c ".java") c))
+  (b/javac (merge default-opts
+                  {:src-dirs ["target-valhalla/src"]
+                   :class-dir "target-valhalla/classes"
+                   :javac-opts ["-XDenablePrimitiveClasses" "--add-modules" "jdk.incubator.vector"]}
+                  opts)))
@@ -1,6 +1,6 @@
 #!/bin/bash
 rm -rf target
 mkdir target
-javac -d target -XDenablePrimitiveClasses src/raytracer/*.java
+javac -d target -XDenablePrimitiveClasses --add-modules jdk.incubator.vector src/raytracer/*.java
 OUT_FILE="${3:-out.png}"
-time java -cp target -XX:+EnablePrimitiveClasses raytracer.Render $1 $2 $OUT_FILE
+time java -cp target -XX:+EnablePrimitiveClasses --add-modules jdk.incubator.vector raytracer.Render $1 $2 $OUT_FILE $4 $5
@@ -1,21 +1,100 @@
 package bench;
 
 import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.*;
+import org.openjdk.jmh.runner.options.*;
+import java.awt.image.BufferedImage;
 import java.util.*;
 import java.util.concurrent.*;
-import clojure.lang.*;
+import raytracer.*;
 
-@BenchmarkMode(Mode.AverageTime)
+/**
+ * End-to-end render throughput over image width, samples per pixel, scene
+ * size ("random" or a Scene.buildLargeWorld sphere count) and thread count.
+ * The scene, its BVH, the image and the pool are set up per trial, so the
+ * timed method only traces, and nothing is written to disk. Reports renders
+ * per second and, as an @AuxCounters rate, rays per second (path segments).
+ * Every render draws the same streams from seed 1 and traces the same rays,
+ * so they are counted once per trial, by a render with RenderStats on
+ * (Scene.raysTraced), and the timed renders count nothing. Run through main
+ * for the whole matrix, once plain and once with the gc profiler:
+ *
+ *   java -cp ... bench.Bench [regexp] [jmh options, e.g. -p threads=1,4]
+ *
+ * The full matrix takes hours; narrow it with -p.
+ */
+@BenchmarkMode(Mode.Throughput)
 @OutputTimeUnit(TimeUnit.SECONDS)
-@Warmup(iterations = 1, time = 5, timeUnit = TimeUnit.SECONDS)
-@Measurement(iterations = 1, time = 5, timeUnit = TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
 @State(Scope.Benchmark)
-@Fork(value = 1)
+@Fork(value = 3, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
 public class Bench {
 
+    @Param({"200", "400", "800"})
+    int width;
+
+    @Param({"1", "4", "16"})
+    int spp;
+
+    @Param({"random", "10000", "100000"})
+    String scene;
+
+    @Param({"1", "2", "4", "8"})
+    int threads;
+
+    Scene s;
+    Sphere[] world;
+    Camera camera;
+    Render render;
+    ForkJoinPool pool;
+    long raysPerRender;
+
+    /** Rays traced, reported per second like the primary result. */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Rays {
+        public long rays;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            rays = 0;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        s = new Scene();
+        world = scene.equals("random") ? s.buildRandomWorld() : s.buildLargeWorld(Integer.parseInt(scene));
+        s.prepare(world);
+        int height = (int)(width / (3./2.));
+        camera = Scene.camera(width, height);
+        render = new Render(new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB));
+        pool = new ForkJoinPool(threads);
+        s.collectStats(true);
+        s.paintParallel(render, camera, world, spp, 16, pool, 1);
+        s.collectStats(false);
+        raysPerRender = s.raysTraced();
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
     @Benchmark
-    public int render() {
-        raytracer.Render.render(400, 10, "out2.png");
-        return 1;
+    public Render render(Rays counter) {
+        s.paintParallel(render, camera, world, spp, 16, pool, 1);
+        counter.rays += raysPerRender;
+        return render;
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        boolean regexp = args.length > 0 && !args[0].startsWith("-");
+        String include = regexp ? args[0] : "bench\\.Bench\\.";
+        Options cli = new CommandLineOptions(regexp ? Arrays.copyOfRange(args, 1, args.length) : args);
+        new Runner(new OptionsBuilder().parent(cli).include(include).build()).run();
+        new Runner(new OptionsBuilder().parent(cli).include(include).addProfiler(GCProfiler.class).build()).run();
     }
 }
@@ -0,0 +1,52 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import java.util.*;
+import java.util.concurrent.*;
+import raytracer.*;
+
+/**
+ * Scene.hitAll for camera rays against Scene.buildLargeWorld scenes of
+ * increasing size, with each acceleration structure. Run through
+ * bench.Micro's main for allocation per ray.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class HitAll {
+
+    static final int RAYS = 1024;
+
+    @Param({"10", "100", "1000", "10000", "100000"})
+    int spheres;
+
+    @Param({"linear", "soa", "bvh"})
+    String accel;
+
+    Scene scene;
+    Sphere[] world;
+    Ray[] rays;
+
+    @Setup
+    public void setup() {
+        System.setProperty("raytracer.accel", accel);
+        scene = new Scene();
+        world = scene.buildLargeWorld(spheres);
+        scene.prepare(world);
+        Camera camera = Scene.camera(400, 266);
+        Random rnd = new Random(42);
+        rays = new Ray[RAYS];
+        for (int i = 0; i < RAYS; i++)
+            rays[i] = camera.getRay(rnd.nextDouble(), rnd.nextDouble());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RAYS)
+    public void hitAll(Blackhole bh) {
+        for (Ray r : rays) bh.consume(scene.hitAll(r, world));
+    }
+}
@@ -0,0 +1,61 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import java.util.*;
+import java.util.concurrent.*;
+import raytracer.*;
+
+/** Closest-hit throughput for one ray against the default random world. */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class Intersect {
+
+    static final int RAYS = 1024;
+
+    Sphere[] world;
+    SphereSoA scalar, simd;
+    Ray[] rays;
+
+    @Setup
+    public void setup() {
+        world = new Scene().buildRandomWorld();
+        scalar = new SphereSoA(world, false);
+        simd = new SphereSoA(world, true);
+        Camera camera = Scene.camera(400, 266);
+        Random rnd = new Random(42);
+        rays = new Ray[RAYS];
+        for (int i = 0; i < RAYS; i++)
+            rays[i] = camera.getRay(rnd.nextDouble(), rnd.nextDouble());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RAYS)
+    public void spheres(Blackhole bh) {
+        for (Ray r : rays) {
+            double t = Double.MAX_VALUE;
+            Sphere closest = null;
+            for (Sphere s : world) {
+                HitRecord h = s.hit(r, t);
+                if (!h.isMiss()) { t = h.t(); closest = s; }
+            }
+            bh.consume(closest);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RAYS)
+    public void soaScalar(Blackhole bh) {
+        for (Ray r : rays) bh.consume(scalar.closest(r));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RAYS)
+    public void soaSimd(Blackhole bh) {
+        for (Ray r : rays) bh.consume(simd.closest(r));
+    }
+}
@@ -0,0 +1,55 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.*;
+import raytracer.*;
+
+/**
+ * Object-per-operation tracing kernel vs the allocation-free FlatKernel, the
+ * breadth-first Wavefront kernel and the single-precision FloatKernel on the
+ * same scene and seed. The scene, its BVH and the image are set up per
+ * trial and the tiles are traced on one worker from seed 1, so the timed
+ * method only traces. Run with "profiler" "gc" to compare allocation per
+ * render.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 5, timeUnit = TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1)
+public class Kernel {
+
+    @Param({"object", "flat", "wavefront", "float"})
+    String kernel;
+
+    Scene s;
+    Sphere[] world;
+    Camera camera;
+    Render render;
+    ForkJoinPool pool;
+
+    @Setup
+    public void setup() {
+        System.setProperty("raytracer.kernel", kernel);
+        s = new Scene();
+        s.collectStats(false);
+        world = s.buildRandomWorld();
+        s.prepare(world);
+        camera = Scene.camera(200, 133);
+        render = new Render(new BufferedImage(200, 133, BufferedImage.TYPE_INT_ARGB));
+        pool = new ForkJoinPool(1);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public Render render() {
+        s.paintParallel(render, camera, world, 5, 16, pool, 1);
+        return render;
+    }
+}
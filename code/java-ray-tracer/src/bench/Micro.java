@@ -0,0 +1,112 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.*;
+import org.openjdk.jmh.runner.options.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.*;
+import raytracer.*;
+
+/**
+ * Per-operation cost of the object kernel's building blocks, without any
+ * image I/O in the timed code. Run through main, which adds the gc profiler
+ * so allocation per operation is reported next to the time:
+ *
+ *   java -cp ... bench.Micro [regexp]
+ *
+ * or as "bench.Micro" "-prof" "gc" with org.openjdk.jmh.Main.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Fork(value = 1)
+public class Micro {
+
+    // Non-final so the JIT can't fold them into constants.
+    Sphere sphere;
+    Ray hitRay, missRay;
+    Sphere lambertian, metal, dielectric;
+    HitRecord lambertianHit, metalHit, dielectricHit;
+    Camera camera;
+    double s, t;
+    Vec3 a, b, c, d;
+    Render render;
+    Vec3 color;
+    int pixel;
+
+    @Setup
+    public void setup() {
+        sphere = new Sphere(new Vec3(0, 0, 0), 1, new Material.Lambertian(new Vec3(.5, .5, .5)));
+        hitRay = new Ray(new Vec3(0, 0, 5), new Vec3(.05, -.02, -1));
+        missRay = new Ray(new Vec3(0, 0, 5), new Vec3(.5, .4, -1));
+        if (sphere.hit(hitRay, Double.MAX_VALUE).isMiss() || !sphere.hit(missRay, Double.MAX_VALUE).isMiss())
+            throw new IllegalStateException("Bad hit/miss rays");
+
+        lambertian = new Sphere(new Vec3(0, 0, 0), 1, new Material.Lambertian(new Vec3(.8, .3, .2)));
+        metal = new Sphere(new Vec3(0, 0, 0), 1, new Material.Metal(new Vec3(.7, .6, .5), .3));
+        dielectric = new Sphere(new Vec3(0, 0, 0), 1, new Material.Dielectric(1.5));
+        lambertianHit = lambertian.hit(hitRay, Double.MAX_VALUE);
+        metalHit = metal.hit(hitRay, Double.MAX_VALUE);
+        dielectricHit = dielectric.hit(hitRay, Double.MAX_VALUE);
+
+        camera = Scene.camera(400, 266);
+        s = .3; t = .6;
+        a = new Vec3(1, 2, 3); b = new Vec3(-.5, .25, 4); c = new Vec3(3, -1, .5); d = new Vec3(0, 1, 0);
+        render = new Render(new BufferedImage(256, 256, BufferedImage.TYPE_INT_ARGB));
+        color = new Vec3(3.2, 1.7, .4);
+    }
+
+    @Benchmark
+    public void sphereHit(Blackhole bh) {
+        bh.consume(sphere.hit(hitRay, Double.MAX_VALUE));
+    }
+
+    @Benchmark
+    public void sphereMiss(Blackhole bh) {
+        bh.consume(sphere.hit(missRay, Double.MAX_VALUE));
+    }
+
+    @Benchmark
+    public void scatterLambertian(Blackhole bh) {
+        bh.consume(((Material.Lambertian)lambertianHit.material()).scatter(hitRay, lambertianHit));
+    }
+
+    @Benchmark
+    public void scatterMetal(Blackhole bh) {
+        bh.consume(((Material.Metal)metalHit.material()).scatter(hitRay, metalHit));
+    }
+
+    @Benchmark
+    public void scatterDielectric(Blackhole bh) {
+        bh.consume(((Material.Dielectric)dielectricHit.material()).scatter(hitRay, dielectricHit));
+    }
+
+    @Benchmark
+    public void getRay(Blackhole bh) {
+        bh.consume(camera.getRay(s, t));
+    }
+
+    /** The kind of chain rayColor and Camera build per bounce. */
+    @Benchmark
+    public void vec3Chain(Blackhole bh) {
+        bh.consume(a.add(b.scale(s)).sub(c).cross(d).normalize().dot(a));
+    }
+
+    @Benchmark
+    public void putPixel() {
+        int p = pixel++ & 0xFFFF;
+        render.putPixel(p & 255, p >>> 8, color, 10);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+            .include(args.length > 0 ? args[0] : "bench\\.(Micro|HitAll)\\.")
+            .addProfiler(GCProfiler.class)
+            .build();
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,52 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import java.util.*;
+import java.util.concurrent.*;
+import raytracer.*;
+
+/**
+ * SIMD closest-hit scan in double (SphereSoA) and float (FloatScene) over
+ * scenes of increasing size. Once the columns outgrow the caches the scan is
+ * bound by memory bandwidth, where float moves half the bytes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class Precision {
+
+    static final int RAYS = 64;
+
+    @Param({"1000", "100000", "1000000"})
+    int spheres;
+
+    @Param({"double", "float"})
+    String precision;
+
+    SphereSoA soa;
+    FloatScene floats;
+    Ray[] rays;
+
+    @Setup
+    public void setup() {
+        Sphere[] world = new Scene().buildLargeWorld(spheres);
+        if (precision.equals("float")) floats = new FloatScene(world);
+        else soa = new SphereSoA(world, true);
+        Camera camera = Scene.camera(400, 266);
+        Random rnd = new Random(42);
+        rays = new Ray[RAYS];
+        for (int i = 0; i < RAYS; i++)
+            rays[i] = camera.getRay(rnd.nextDouble(), rnd.nextDouble());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RAYS)
+    public void closest(Blackhole bh) {
+        if (floats != null) for (Ray r : rays) bh.consume(floats.closest(r));
+        else for (Ray r : rays) bh.consume(soa.closest(r));
+    }
+}
@@ -0,0 +1,66 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import java.util.concurrent.*;
+import java.util.random.RandomGenerator;
+import raytracer.*;
+
+/**
+ * Per-scatter cost of the rejection loops vs the closed-form samplers of
+ * raytracer.Directions: Lambertian and fuzzy Metal scatter, and a camera
+ * ray with its lens sample, each called with the variant chosen by the
+ * directions parameter. raytracer.DirectionCheck shows that both draw the
+ * same distributions. Run through bench.Micro's main for allocation
+ * per operation:
+ *
+ *   java -cp ... bench.Micro "bench\.Scattering\."
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Fork(value = 2)
+public class Scattering {
+
+    @Param({"rejection", "closed"})
+    String directions;
+
+    Ray ray;
+    HitRecord lambertianHit, metalHit;
+    Material.Lambertian lambertian;
+    Material.Metal metal;
+    Camera camera;
+    double s, t;
+    RandomGenerator rng;
+    boolean closed;
+
+    @Setup
+    public void setup() {
+        rng = Rng.SEED;
+        closed = directions.equals("closed");
+        ray = new Ray(new Vec3(0, 0, 5), new Vec3(.05, -.02, -1));
+        lambertian = new Material.Lambertian(new Vec3(.8, .3, .2));
+        metal = new Material.Metal(new Vec3(.7, .6, .5), .3);
+        lambertianHit = new Sphere(new Vec3(0, 0, 0), 1, lambertian).hit(ray, Double.MAX_VALUE);
+        metalHit = new Sphere(new Vec3(0, 0, 0), 1, metal).hit(ray, Double.MAX_VALUE);
+        camera = Scene.camera(400, 266);
+        s = .3; t = .6;
+    }
+
+    @Benchmark
+    public void lambertian(Blackhole bh) {
+        bh.consume(lambertian.scatter(ray, lambertianHit, rng, closed));
+    }
+
+    @Benchmark
+    public void metal(Blackhole bh) {
+        bh.consume(metal.scatter(ray, metalHit, rng, closed));
+    }
+
+    @Benchmark
+    public void cameraRay(Blackhole bh) {
+        bh.consume(camera.getRay(rng, s, t, closed));
+    }
+}
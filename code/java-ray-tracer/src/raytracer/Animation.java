@@ -0,0 +1,93 @@
+package raytracer;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Renders a sequence of frames along a CameraPath. The world and its
+ * acceleration structure are built once, and frames go through a two-stage
+ * pipeline: the render pool traces frame N+1 while a single encoder thread
+ * writes frame N as PNG. At most MAX_PENDING frames wait for the encoder, so
+ * memory stays bounded if encoding is slower than rendering.
+ *
+ * Frame f uses Rng.streamSeed(seed, f), so every frame is reproducible on
+ * its own and noise doesn't stick to the screen.
+ */
+public class Animation {
+
+    static final int MAX_PENDING = 2;
+
+    final Scene scene;
+    final CameraPath path;
+    final int imageW, imageH, samplesPerPixel, tileSize;
+    final long seed;
+
+    // Totals after render(), in nanoseconds.
+    long renderNanos, encodeNanos, waitNanos, totalNanos;
+
+    Animation(Scene scene, CameraPath path, int imageW, int imageH, int samplesPerPixel, int tileSize, long seed) {
+        this.scene = scene;
+        this.path = path;
+        this.imageW = imageW;
+        this.imageH = imageH;
+        this.samplesPerPixel = samplesPerPixel;
+        this.tileSize = tileSize;
+        this.seed = seed;
+    }
+
+    /** out-0000.png, out-0001.png, ... for out.png. */
+    static String frameFile(String out, int frame) {
+        int dot = out.lastIndexOf('.');
+        String base = dot > 0 ? out.substring(0, dot) : out;
+        return String.format("%s-%04d.png", base, frame);
+    }
+
+    void render(int frames, int threads, String out) {
+        long start = System.nanoTime();
+        Sphere[] world = scene.buildWorld();
+        ForkJoinPool pool = ResourceMeter.pool(threads);
+        ExecutorService encoder = ResourceMeter.singleThread();
+        ArrayDeque<Future<Long>> pending = new ArrayDeque<>();
+        try {
+            for (int f = 0; f < frames; f++) {
+                Camera camera = path.at(path.frameTime(f, frames), imageW, imageH);
+                BufferedImage img = new BufferedImage(imageW, imageH, BufferedImage.TYPE_INT_ARGB);
+                long t0 = System.nanoTime();
+                scene.paintParallel(new Render(img), camera, world, samplesPerPixel, tileSize, pool,
+                                    Rng.streamSeed(seed, f));
+                long t1 = System.nanoTime();
+                renderNanos += t1 - t0;
+                if (pending.size() >= MAX_PENDING) encodeNanos += pending.removeFirst().get();
+                waitNanos += System.nanoTime() - t1;
+                File file = new File(frameFile(out, f));
+                pending.add(encoder.submit(() -> {
+                            long e0 = System.nanoTime();
+                            ImageIO.write(img, "png", file);
+                            return System.nanoTime() - e0;
+                        }));
+            }
+            long t1 = System.nanoTime();
+            while (!pending.isEmpty()) encodeNanos += pending.removeFirst().get();
+            waitNanos += System.nanoTime() - t1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdown();
+            encoder.shutdown();
+        }
+        totalNanos = System.nanoTime() - start;
+    }
+
+    void printStats(int frames) {
+        System.out.println(String.format("Frames: %d in %.2f s, %.1f frames/min", frames, totalNanos / 1e9,
+                                         frames * 60e9 / totalNanos));
+        System.out.println(String.format("Render: %.2f s, encode: %.2f s, waiting for encoder: %.2f s",
+                                         renderNanos / 1e9, encodeNanos / 1e9, waitNanos / 1e9));
+    }
+}
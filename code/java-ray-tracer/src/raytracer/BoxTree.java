@@ -0,0 +1,230 @@
+package raytracer;
+
+import java.util.Arrays;
+
+/**
+ * Flattened BVH over items known only by their bounding boxes, laid out like
+ * Bvh: node n has its box at bounds[6n..6n+5] and either items
+ * [first[n], first[n]+count[n]) or children first[n] and first[n]+1 when
+ * count[n] == 0. build returns the items in tree order, and subclasses store
+ * their items in that order, so leaves need no index array.
+ */
+abstract class BoxTree implements Hittable {
+
+    static final int BINS = 16;
+    static final int MAX_LEAF = 2;
+
+    double[] bounds;
+    int[] first;
+    int[] count;
+    int nodeCount;
+
+    // Scratch data used only while building.
+    private double[] boxes;
+    private int[] idx;
+
+    /** Test item i (in tree order); HitRecord.MISS if it isn't hit before tMax. */
+    abstract HitRecord hitItem(int i, Ray r, double tMax);
+
+    /** Build over n items with boxes at boxes[6i..6i+5]; returns the item order of the leaves. */
+    int[] build(double[] boxes, int n) {
+        this.boxes = boxes;
+        idx = new int[n];
+        for (int i = 0; i < n; i++) idx[i] = i;
+        int maxNodes = Math.max(1, 2 * n - 1);
+        bounds = new double[6 * maxNodes];
+        first = new int[maxNodes];
+        count = new int[maxNodes];
+        nodeCount = 1;
+        build(0, 0, n, 0);
+        if (nodeCount < maxNodes) {
+            bounds = Arrays.copyOf(bounds, 6 * nodeCount);
+            first = Arrays.copyOf(first, nodeCount);
+            count = Arrays.copyOf(count, nodeCount);
+        }
+        int[] order = idx;
+        this.boxes = null;
+        idx = null;
+        return order;
+    }
+
+    private double centroid(int p, int axis) {
+        return .5 * (boxes[6*p + axis] + boxes[6*p + 3 + axis]);
+    }
+
+    private void build(int node, int lo, int hi, int depth) {
+        int b = 6 * node;
+        resetBox(bounds, b);
+        double[] cmin = { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY };
+        double[] cmax = { Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+        for (int i = lo; i < hi; i++) {
+            int p = idx[i];
+            mergeBox(bounds, b, boxes, 6 * p);
+            for (int axis = 0; axis < 3; axis++) {
+                double c = centroid(p, axis);
+                cmin[axis] = Math.min(cmin[axis], c);
+                cmax[axis] = Math.max(cmax[axis], c);
+            }
+        }
+
+        int n = hi - lo;
+        if (n <= MAX_LEAF || depth >= Bvh.MAX_DEPTH) {
+            first[node] = lo;
+            count[node] = n;
+            return;
+        }
+
+        // Binned SAH, as in Bvh.
+        int bestAxis = -1, bestSplit = -1;
+        double bestCost = n > 4 * MAX_LEAF ? Double.POSITIVE_INFINITY : (n - 1) * area(bounds, b);
+        double[] binBounds = new double[6 * BINS];
+        int[] binCount = new int[BINS];
+        double[] rightArea = new double[BINS];
+        double[] acc = new double[6];
+        for (int axis = 0; axis < 3; axis++) {
+            double extent = cmax[axis] - cmin[axis];
+            if (extent <= 0) continue;
+            Arrays.fill(binCount, 0);
+            for (int k = 0; k < BINS; k++) resetBox(binBounds, 6 * k);
+            double scale = BINS / extent;
+            for (int i = lo; i < hi; i++) {
+                int p = idx[i];
+                int k = Math.min(BINS - 1, (int)((centroid(p, axis) - cmin[axis]) * scale));
+                binCount[k]++;
+                mergeBox(binBounds, 6 * k, boxes, 6 * p);
+            }
+            resetBox(acc, 0);
+            for (int k = BINS - 1; k > 0; k--) {
+                mergeBox(acc, 0, binBounds, 6 * k);
+                rightArea[k] = area(acc, 0);
+            }
+            resetBox(acc, 0);
+            int leftCount = 0;
+            for (int k = 0; k < BINS - 1; k++) {
+                mergeBox(acc, 0, binBounds, 6 * k);
+                leftCount += binCount[k];
+                int rightCount = n - leftCount;
+                if (leftCount == 0 || rightCount == 0) continue;
+                double cost = leftCount * area(acc, 0) + rightCount * rightArea[k+1];
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    bestAxis = axis;
+                    bestSplit = k;
+                }
+            }
+        }
+
+        int mid = lo;
+        if (bestAxis < 0) {
+            if (n <= 4 * MAX_LEAF) {
+                first[node] = lo;
+                count[node] = n;
+                return;
+            }
+            // All centroids coincide: split the range in half.
+            mid = (lo + hi) >>> 1;
+        } else {
+            double scale = BINS / (cmax[bestAxis] - cmin[bestAxis]);
+            for (int i = lo; i < hi; i++) {
+                int p = idx[i];
+                int k = Math.min(BINS - 1, (int)((centroid(p, bestAxis) - cmin[bestAxis]) * scale));
+                if (k <= bestSplit) {
+                    idx[i] = idx[mid];
+                    idx[mid++] = p;
+                }
+            }
+        }
+
+        int left = nodeCount;
+        nodeCount += 2;
+        first[node] = left;
+        count[node] = 0;
+        build(left, lo, mid, depth + 1);
+        build(left + 1, mid, hi, depth + 1);
+    }
+
+    static void resetBox(double[] box, int b) {
+        box[b] = box[b+1] = box[b+2] = Double.POSITIVE_INFINITY;
+        box[b+3] = box[b+4] = box[b+5] = Double.NEGATIVE_INFINITY;
+    }
+
+    static void mergeBox(double[] box, int b, double[] other, int o) {
+        box[b]   = Math.min(box[b],   other[o]);
+        box[b+1] = Math.min(box[b+1], other[o+1]);
+        box[b+2] = Math.min(box[b+2], other[o+2]);
+        box[b+3] = Math.max(box[b+3], other[o+3]);
+        box[b+4] = Math.max(box[b+4], other[o+4]);
+        box[b+5] = Math.max(box[b+5], other[o+5]);
+    }
+
+    private static double area(double[] box, int b) {
+        double dx = box[b+3] - box[b], dy = box[b+4] - box[b+1], dz = box[b+5] - box[b+2];
+        if (dx < 0) return 0;
+        return dx*dy + dy*dz + dz*dx;
+    }
+
+    public double[] box() {
+        return Arrays.copyOf(bounds, 6);
+    }
+
+    public HitRecord hit(Ray r, double tMax) {
+        double ox = r.origin.x, oy = r.origin.y, oz = r.origin.z;
+        double ix = 1 / r.direction.x, iy = 1 / r.direction.y, iz = 1 / r.direction.z;
+        if (enter(0, ox, oy, oz, ix, iy, iz, tMax) == Double.POSITIVE_INFINITY) return HitRecord.MISS;
+        // hitItem may traverse a nested tree; try/finally keeps the levels
+        // straight if it throws.
+        Bvh.Stacks stacks = Bvh.Stacks.LOCAL.get();
+        int[] stack = stacks.take();
+        try {
+            return traverse(r, stack, ox, oy, oz, ix, iy, iz, tMax);
+        } finally {
+            stacks.release();
+        }
+    }
+
+    private HitRecord traverse(Ray r, int[] stack, double ox, double oy, double oz,
+                               double ix, double iy, double iz, double best) {
+        HitRecord hit = HitRecord.MISS;
+        int sp = 0;
+        stack[sp++] = 0;
+        while (sp > 0) {
+            int node = stack[--sp];
+            int n = count[node];
+            if (n > 0) {
+                for (int i = first[node], end = i + n; i < end; i++) {
+                    HitRecord h = hitItem(i, r, best);
+                    if (!h.miss) {
+                        hit = h;
+                        best = h.t;
+                    }
+                }
+            } else {
+                int left = first[node], right = left + 1;
+                double tl = enter(left, ox, oy, oz, ix, iy, iz, best);
+                double tr = enter(right, ox, oy, oz, ix, iy, iz, best);
+                if (tl <= tr) {
+                    if (tr != Double.POSITIVE_INFINITY) stack[sp++] = right;
+                    if (tl != Double.POSITIVE_INFINITY) stack[sp++] = left;
+                } else {
+                    if (tl != Double.POSITIVE_INFINITY) stack[sp++] = left;
+                    stack[sp++] = right;
+                }
+            }
+        }
+        return hit;
+    }
+
+    /** Entry distance of the ray into node's box, or +Inf if it misses before tMax. */
+    private double enter(int node, double ox, double oy, double oz,
+                         double ix, double iy, double iz, double tMax) {
+        int b = 6 * node;
+        double t0 = (bounds[b]   - ox) * ix, t1 = (bounds[b+3] - ox) * ix;
+        double tmin = Math.min(t0, t1), tmax = Math.max(t0, t1);
+        t0 = (bounds[b+1] - oy) * iy; t1 = (bounds[b+4] - oy) * iy;
+        tmin = Math.max(tmin, Math.min(t0, t1)); tmax = Math.min(tmax, Math.max(t0, t1));
+        t0 = (bounds[b+2] - oz) * iz; t1 = (bounds[b+5] - oz) * iz;
+        tmin = Math.max(tmin, Math.min(t0, t1)); tmax = Math.min(tmax, Math.max(t0, t1));
+        tmin = Math.max(tmin, 0);
+        return (tmin <= tmax && tmin <= tMax) ? tmin : Double.POSITIVE_INFINITY;
+    }
+}
@@ -0,0 +1,323 @@
+package raytracer;
+
+import java.util.Arrays;
+
+/**
+ * Bounding volume hierarchy over a sphere array. Built once per scene with
+ * binned SAH and stored flattened: node n has its AABB at bounds[6n..6n+5], and
+ * either a range of spheres [first[n], first[n]+count[n]) when it is a leaf or
+ * children first[n] and first[n]+1 when count[n] == 0.
+ */
+public class Bvh {
+
+    static final int BINS = 16;
+    static final int MAX_LEAF = 4;
+    static final int MAX_DEPTH = 64;
+
+    /**
+     * Traversal stacks of one thread, reused across rays so the object
+     * kernel allocates none per segment. A BoxTree item can be an Instance
+     * of another BoxTree, whose hit runs inside the outer traversal, so each
+     * level of nesting takes its own stack.
+     */
+    static final class Stacks {
+        static final ThreadLocal<Stacks> LOCAL = ThreadLocal.withInitial(Stacks::new);
+
+        int[][] stacks = new int[4][];
+        int level;
+
+        int[] take() {
+            if (level == stacks.length) stacks = Arrays.copyOf(stacks, 2 * level);
+            int[] s = stacks[level];
+            if (s == null) s = stacks[level] = new int[MAX_DEPTH + 2];
+            level++;
+            return s;
+        }
+
+        void release() { level--; }
+    }
+
+    // Spheres in BVH order. Null for a BVH loaded from a SceneFile until the
+    // object kernel needs them.
+    Sphere[] spheres;
+    // The same spheres, in BVH order, as flat arrays for FlatKernel.
+    final SphereSoA soa;
+    double[] bounds;
+    int[] first;
+    int[] count;
+    int nodeCount;
+
+    // Scratch data used only while building.
+    private double[] cx, cy, cz;
+    private int[] idx;
+
+    Bvh(Sphere[] world) {
+        int n = world.length;
+        cx = new double[n]; cy = new double[n]; cz = new double[n];
+        idx = new int[n];
+        for (int i = 0; i < n; i++) {
+            Vec3 c = world[i].center;
+            cx[i] = c.x; cy[i] = c.y; cz[i] = c.z;
+            idx[i] = i;
+        }
+        int maxNodes = Math.max(1, 2 * n - 1);
+        bounds = new double[6 * maxNodes];
+        first = new int[maxNodes];
+        count = new int[maxNodes];
+        nodeCount = 1;
+        build(world, 0, 0, n, 0);
+
+        spheres = new Sphere[n];
+        for (int i = 0; i < n; i++)
+            spheres[i] = world[idx[i]];
+        cx = cy = cz = null;
+        idx = null;
+        soa = new SphereSoA(spheres, false);
+    }
+
+    /** Wrap a flattened BVH over soa, which must already be in BVH order. */
+    Bvh(SphereSoA soa, double[] bounds, int[] first, int[] count) {
+        this.soa = soa;
+        this.bounds = bounds;
+        this.first = first;
+        this.count = count;
+        this.nodeCount = first.length;
+    }
+
+    private void build(Sphere[] world, int node, int lo, int hi, int depth) {
+        int b = 6 * node;
+        bounds[b] = bounds[b+1] = bounds[b+2] = Double.POSITIVE_INFINITY;
+        bounds[b+3] = bounds[b+4] = bounds[b+5] = Double.NEGATIVE_INFINITY;
+        double[] cmin = { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY };
+        double[] cmax = { Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+        for (int i = lo; i < hi; i++) {
+            int p = idx[i];
+            double r = world[p].radius;
+            bounds[b]   = Math.min(bounds[b],   cx[p] - r);
+            bounds[b+1] = Math.min(bounds[b+1], cy[p] - r);
+            bounds[b+2] = Math.min(bounds[b+2], cz[p] - r);
+            bounds[b+3] = Math.max(bounds[b+3], cx[p] + r);
+            bounds[b+4] = Math.max(bounds[b+4], cy[p] + r);
+            bounds[b+5] = Math.max(bounds[b+5], cz[p] + r);
+            cmin[0] = Math.min(cmin[0], cx[p]); cmax[0] = Math.max(cmax[0], cx[p]);
+            cmin[1] = Math.min(cmin[1], cy[p]); cmax[1] = Math.max(cmax[1], cy[p]);
+            cmin[2] = Math.min(cmin[2], cz[p]); cmax[2] = Math.max(cmax[2], cz[p]);
+        }
+
+        int n = hi - lo;
+        if (n <= MAX_LEAF || depth >= MAX_DEPTH) {
+            makeLeaf(node, lo, n);
+            return;
+        }
+
+        // Binned SAH: for each axis, drop centroids into BINS buckets and
+        // evaluate every bucket boundary as a split plane.
+        int bestAxis = -1, bestSplit = -1;
+        double bestCost = leafCost(n, area(bounds, b));
+        double[] binBounds = new double[6 * BINS];
+        int[] binCount = new int[BINS];
+        double[] rightArea = new double[BINS];
+        for (int axis = 0; axis < 3; axis++) {
+            double extent = cmax[axis] - cmin[axis];
+            if (extent <= 0) continue;
+            double[] c = centroids(axis);
+            java.util.Arrays.fill(binCount, 0);
+            for (int k = 0; k < BINS; k++) resetBox(binBounds, 6 * k);
+            double scale = BINS / extent;
+            for (int i = lo; i < hi; i++) {
+                int p = idx[i];
+                int k = Math.min(BINS - 1, (int)((c[p] - cmin[axis]) * scale));
+                binCount[k]++;
+                growBox(binBounds, 6 * k, world[p]);
+            }
+            double[] acc = new double[6];
+            resetBox(acc, 0);
+            for (int k = BINS - 1; k > 0; k--) {
+                mergeBox(acc, binBounds, 6 * k);
+                rightArea[k] = area(acc, 0);
+            }
+            resetBox(acc, 0);
+            int leftCount = 0;
+            for (int k = 0; k < BINS - 1; k++) {
+                mergeBox(acc, binBounds, 6 * k);
+                leftCount += binCount[k];
+                int rightCount = n - leftCount;
+                if (leftCount == 0 || rightCount == 0) continue;
+                double cost = leftCount * area(acc, 0) + rightCount * rightArea[k+1];
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    bestAxis = axis;
+                    bestSplit = k;
+                }
+            }
+        }
+
+        if (bestAxis < 0) {
+            makeLeaf(node, lo, n);
+            return;
+        }
+
+        double[] c = centroids(bestAxis);
+        double scale = BINS / (cmax[bestAxis] - cmin[bestAxis]);
+        int mid = lo;
+        for (int i = lo; i < hi; i++) {
+            int p = idx[i];
+            int k = Math.min(BINS - 1, (int)((c[p] - cmin[bestAxis]) * scale));
+            if (k <= bestSplit) {
+                idx[i] = idx[mid];
+                idx[mid++] = p;
+            }
+        }
+
+        int left = nodeCount;
+        nodeCount += 2;
+        first[node] = left;
+        count[node] = 0;
+        build(world, left, lo, mid, depth + 1);
+        build(world, left + 1, mid, hi, depth + 1);
+    }
+
+    /**
+     * Cost of keeping n spheres in a leaf, in the units of the split cost
+     * (area times sphere count), minus one traversal step. Large nodes are
+     * always split if any valid split exists.
+     */
+    private static double leafCost(int n, double area) {
+        return n > 4 * MAX_LEAF ? Double.POSITIVE_INFINITY : (n - 1) * area;
+    }
+
+    private void makeLeaf(int node, int lo, int n) {
+        first[node] = lo;
+        count[node] = n;
+    }
+
+    private double[] centroids(int axis) {
+        return axis == 0 ? cx : axis == 1 ? cy : cz;
+    }
+
+    private static void resetBox(double[] box, int b) {
+        box[b] = box[b+1] = box[b+2] = Double.POSITIVE_INFINITY;
+        box[b+3] = box[b+4] = box[b+5] = Double.NEGATIVE_INFINITY;
+    }
+
+    private static void growBox(double[] box, int b, Sphere s) {
+        double r = s.radius;
+        Vec3 c = s.center;
+        box[b]   = Math.min(box[b],   c.x - r);
+        box[b+1] = Math.min(box[b+1], c.y - r);
+        box[b+2] = Math.min(box[b+2], c.z - r);
+        box[b+3] = Math.max(box[b+3], c.x + r);
+        box[b+4] = Math.max(box[b+4], c.y + r);
+        box[b+5] = Math.max(box[b+5], c.z + r);
+    }
+
+    private static void mergeBox(double[] box, double[] other, int b) {
+        if (other[b] > other[b+3]) return; // empty
+        box[0] = Math.min(box[0], other[b]);
+        box[1] = Math.min(box[1], other[b+1]);
+        box[2] = Math.min(box[2], other[b+2]);
+        box[3] = Math.max(box[3], other[b+3]);
+        box[4] = Math.max(box[4], other[b+4]);
+        box[5] = Math.max(box[5], other[b+5]);
+    }
+
+    private static double area(double[] box, int b) {
+        double dx = box[b+3] - box[b], dy = box[b+4] - box[b+1], dz = box[b+5] - box[b+2];
+        if (dx < 0) return 0;
+        return dx*dy + dy*dz + dz*dx;
+    }
+
+    /** Entry distance of the ray into node's box, or +Inf if it misses before tMax. */
+    private double enter(int node, double ox, double oy, double oz,
+                         double ix, double iy, double iz, double tMax) {
+        int b = 6 * node;
+        double t0 = (bounds[b]   - ox) * ix, t1 = (bounds[b+3] - ox) * ix;
+        double tmin = Math.min(t0, t1), tmax = Math.max(t0, t1);
+        t0 = (bounds[b+1] - oy) * iy; t1 = (bounds[b+4] - oy) * iy;
+        tmin = Math.max(tmin, Math.min(t0, t1)); tmax = Math.min(tmax, Math.max(t0, t1));
+        t0 = (bounds[b+2] - oz) * iz; t1 = (bounds[b+5] - oz) * iz;
+        tmin = Math.max(tmin, Math.min(t0, t1)); tmax = Math.min(tmax, Math.max(t0, t1));
+        tmin = Math.max(tmin, 0);
+        return (tmin <= tmax && tmin <= tMax) ? tmin : Double.POSITIVE_INFINITY;
+    }
+
+    /** Closest hit; sphere tests are added to c unless it is null. */
+    HitRecord hit(Ray r, RenderStats.Counters c) {
+        HitRecord hit = HitRecord.MISS;
+        if (spheres.length == 0) return hit;
+        double ox = r.origin.x, oy = r.origin.y, oz = r.origin.z;
+        double ix = 1 / r.direction.x, iy = 1 / r.direction.y, iz = 1 / r.direction.z;
+        if (enter(0, ox, oy, oz, ix, iy, iz, hit.t) == Double.POSITIVE_INFINITY) return hit;
+        Stacks stacks = Stacks.LOCAL.get();
+        int[] stack = stacks.take();
+        int sp = 0;
+        stack[sp++] = 0;
+        while (sp > 0) {
+            int node = stack[--sp];
+            int n = count[node];
+            if (n > 0) {
+                if (c != null) c.sphereTests += n;
+                for (int i = first[node], end = i + n; i < end; i++) {
+                    HitRecord h = spheres[i].hit(r, hit.t);
+                    if (!h.miss) hit = h;
+                }
+            } else {
+                int left = first[node], right = left + 1;
+                double tl = enter(left, ox, oy, oz, ix, iy, iz, hit.t);
+                double tr = enter(right, ox, oy, oz, ix, iy, iz, hit.t);
+                // Push the farther child first so the nearer one is visited
+                // first and shrinks hit.t for the other.
+                if (tl <= tr) {
+                    if (tr != Double.POSITIVE_INFINITY) stack[sp++] = right;
+                    if (tl != Double.POSITIVE_INFINITY) stack[sp++] = left;
+                } else {
+                    if (tl != Double.POSITIVE_INFINITY) stack[sp++] = left;
+                    stack[sp++] = right;
+                }
+            }
+        }
+        stacks.release();
+        return hit;
+    }
+
+    /**
+     * Allocation-free variant of hit: returns the index into soa of the
+     * closest sphere, or -1. Visits nodes and spheres in the same order as
+     * hit, so it finds the same sphere.
+     */
+    int closest(double ox, double oy, double oz, double dx, double dy, double dz, int[] stack,
+                RenderStats.Counters c) {
+        double best = HitRecord.MISS.t;
+        int bestIdx = -1;
+        if (soa.size == 0) return bestIdx;
+        double ix = 1 / dx, iy = 1 / dy, iz = 1 / dz;
+        double a = dx*dx + dy*dy + dz*dz;
+        int sp = 0;
+        if (enter(0, ox, oy, oz, ix, iy, iz, best) == Double.POSITIVE_INFINITY) return bestIdx;
+        stack[sp++] = 0;
+        while (sp > 0) {
+            int node = stack[--sp];
+            int n = count[node];
+            if (n > 0) {
+                if (c != null) c.sphereTests += n;
+                int i = soa.closestScalar(first[node], first[node] + n, ox, oy, oz, dx, dy, dz, best, bestIdx);
+                if (i != bestIdx) {
+                    bestIdx = i;
+                    best = soa.root(i, ox, oy, oz, dx, dy, dz, a);
+                }
+            } else {
+                int left = first[node], right = left + 1;
+                double tl = enter(left, ox, oy, oz, ix, iy, iz, best);
+                double tr = enter(right, ox, oy, oz, ix, iy, iz, best);
+                if (tl <= tr) {
+                    if (tr != Double.POSITIVE_INFINITY) stack[sp++] = right;
+                    if (tl != Double.POSITIVE_INFINITY) stack[sp++] = left;
+                } else {
+                    if (tl != Double.POSITIVE_INFINITY) stack[sp++] = left;
+                    stack[sp++] = right;
+                }
+            }
+        }
+        return bestIdx;
+    }
+}
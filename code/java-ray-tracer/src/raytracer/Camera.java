@@ -1,5 +1,8 @@
 package raytracer;
 
+import java.io.*;
+import java.util.random.RandomGenerator;
+
 public class Camera {
 
     final Vec3 origin;
@@ -34,8 +37,53 @@ public class Camera {
         this.lensRadius = aperture / 2;
     }
 
-    Ray getRay(double s, double t) {
-        Vec3 rd = Vec3.randomInUnitDisk().scale(lensRadius);
+    private Camera(Vec3 origin, Vec3 horizontal, Vec3 vertical, Vec3 lowerLeftCorner,
+                   Vec3 w, Vec3 u, Vec3 v, double lensRadius) {
+        this.origin = origin;
+        this.horizontal = horizontal;
+        this.vertical = vertical;
+        this.lowerLeftCorner = lowerLeftCorner;
+        this.w = w;
+        this.u = u;
+        this.v = v;
+        this.lensRadius = lensRadius;
+    }
+
+    /** Write the derived basis, so read gives back a bit-identical camera. */
+    void write(DataOutput out) throws IOException {
+        for (Vec3 a : new Vec3[] { origin, horizontal, vertical, lowerLeftCorner, w, u, v }) {
+            out.writeDouble(a.x);
+            out.writeDouble(a.y);
+            out.writeDouble(a.z);
+        }
+        out.writeDouble(lensRadius);
+    }
+
+    static Camera read(DataInput in) throws IOException {
+        Vec3[] a = new Vec3[7];
+        for (int i = 0; i < a.length; i++)
+            a[i] = new Vec3(in.readDouble(), in.readDouble(), in.readDouble());
+        return new Camera(a[0], a[1], a[2], a[3], a[4], a[5], a[6], in.readDouble());
+    }
+
+    public Ray getRay(double s, double t) {
+        return getRay(Rng.current(), s, t);
+    }
+
+    /** Ray through (s, t) from a lens point drawn from rng. */
+    Ray getRay(RandomGenerator rng, double s, double t) {
+        return getRay(rng, s, t, Directions.closedForm);
+    }
+
+    /** getRay with the lens point drawn in closed form if closed, else by rejection; see Directions. */
+    public Ray getRay(RandomGenerator rng, double s, double t, boolean closed) {
+        Vec3 p = Directions.inUnitDisk(rng, closed);
+        return getRay(s, t, p.x, p.y);
+    }
+
+    /** Ray through (s, t) from point (lensX, lensY) of the unit disk on the lens. */
+    Ray getRay(double s, double t, double lensX, double lensY) {
+        Vec3 rd = new Vec3(lensX, lensY, 0).scale(lensRadius);
         Vec3 offset = u.scale(rd.x).add(v.scale(rd.y));
         // Vec3 offset = Vec3.ZERO;
         Vec3 dir = lowerLeftCorner
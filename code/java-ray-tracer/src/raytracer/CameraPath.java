@@ -0,0 +1,117 @@
+package raytracer;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Camera keyframes over time. Positions (look-from and look-at) follow a
+ * Catmull-Rom spline through the keyframes, so the camera moves smoothly
+ * through them; field of view, aperture and focus distance are interpolated
+ * linearly.
+ *
+ * Text format, one keyframe per line in increasing time, '#' starts a comment:
+ *
+ *   time  fromX fromY fromZ  atX atY atZ  [vfov [aperture [focusDistance]]]
+ *
+ * Omitted values take Scene's defaults.
+ */
+public class CameraPath {
+
+    static final class Keyframe {
+        final double time;
+        final Vec3 from, at;
+        final double vfov, aperture, focus;
+
+        Keyframe(double time, Vec3 from, Vec3 at, double vfov, double aperture, double focus) {
+            this.time = time;
+            this.from = from;
+            this.at = at;
+            this.vfov = vfov;
+            this.aperture = aperture;
+            this.focus = focus;
+        }
+    }
+
+    final List<Keyframe> keys;
+
+    CameraPath(List<Keyframe> keys) {
+        if (keys.isEmpty()) throw new IllegalArgumentException("Camera path has no keyframes");
+        for (int k = 1; k < keys.size(); k++)
+            if (!(keys.get(k).time > keys.get(k-1).time))
+                throw new IllegalArgumentException("Keyframe times must increase");
+        this.keys = List.copyOf(keys);
+    }
+
+    static CameraPath parse(Path file) throws IOException {
+        List<Keyframe> keys = new ArrayList<>();
+        for (String line : Files.readAllLines(file)) {
+            int hash = line.indexOf('#');
+            if (hash >= 0) line = line.substring(0, hash);
+            line = line.trim();
+            if (line.isEmpty()) continue;
+            String[] f = line.split("\\s+");
+            if (f.length < 7) throw new IOException("Expected time, look-from and look-at: " + line);
+            double[] v = new double[f.length];
+            for (int i = 0; i < f.length; i++) v[i] = Double.parseDouble(f[i]);
+            keys.add(new Keyframe(v[0], new Vec3(v[1], v[2], v[3]), new Vec3(v[4], v[5], v[6]),
+                                  f.length > 7 ? v[7] : Scene.VFOV,
+                                  f.length > 8 ? v[8] : Scene.APERTURE,
+                                  f.length > 9 ? v[9] : Scene.FOCUS_DISTANCE));
+        }
+        return new CameraPath(keys);
+    }
+
+    /** One turn around the y axis from Scene's default viewpoint, in keyframes times 0..1. */
+    static CameraPath orbit(int keyframes) {
+        Vec3 from = Scene.LOOK_FROM;
+        double radius = Math.hypot(from.x, from.z), start = Math.atan2(from.z, from.x);
+        List<Keyframe> keys = new ArrayList<>();
+        for (int k = 0; k <= keyframes; k++) {
+            double a = start + 2 * Math.PI * k / keyframes;
+            keys.add(new Keyframe((double)k / keyframes, new Vec3(radius * Math.cos(a), from.y, radius * Math.sin(a)),
+                                  Scene.LOOK_AT, Scene.VFOV, Scene.APERTURE, Scene.FOCUS_DISTANCE));
+        }
+        return new CameraPath(keys);
+    }
+
+    double start() { return keys.get(0).time; }
+
+    double end() { return keys.get(keys.size() - 1).time; }
+
+    /** Time of frame f of n, spread evenly from the first keyframe to the last. */
+    double frameTime(int f, int n) {
+        return n <= 1 ? start() : start() + (end() - start()) * f / (n - 1);
+    }
+
+    Camera at(double time, int imageW, int imageH) {
+        int last = keys.size() - 1;
+        int k = 0;
+        while (k < last - 1 && time > keys.get(k + 1).time) k++;
+        if (last == 0) {
+            Keyframe key = keys.get(0);
+            return Scene.camera(imageW, imageH, key.from, key.at, key.vfov, key.aperture, key.focus);
+        }
+        Keyframe k0 = keys.get(Math.max(k - 1, 0)), k1 = keys.get(k), k2 = keys.get(k + 1),
+                 k3 = keys.get(Math.min(k + 2, last));
+        double u = Math.min(1, Math.max(0, (time - k1.time) / (k2.time - k1.time)));
+        Vec3 from = catmullRom(k0.from, k1.from, k2.from, k3.from, u);
+        Vec3 at = catmullRom(k0.at, k1.at, k2.at, k3.at, u);
+        return Scene.camera(imageW, imageH, from, at,
+                            lerp(k1.vfov, k2.vfov, u), lerp(k1.aperture, k2.aperture, u), lerp(k1.focus, k2.focus, u));
+    }
+
+    static double lerp(double a, double b, double u) {
+        return a + (b - a) * u;
+    }
+
+    /** Uniform Catmull-Rom segment from p1 (u = 0) to p2 (u = 1). */
+    static Vec3 catmullRom(Vec3 p0, Vec3 p1, Vec3 p2, Vec3 p3, double u) {
+        double u2 = u * u, u3 = u2 * u;
+        double a = -.5 * u3 + u2 - .5 * u;
+        double b = 1.5 * u3 - 2.5 * u2 + 1;
+        double c = -1.5 * u3 + 2 * u2 + .5 * u;
+        double d = .5 * u3 - .5 * u2;
+        return p0.scale(a).add(p1.scale(b)).add(p2.scale(c)).add(p3.scale(d));
+    }
+}
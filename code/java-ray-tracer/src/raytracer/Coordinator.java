@@ -0,0 +1,200 @@
+package raytracer;
+
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+/**
+ * Distributed render: hands out the tiles of one image to Worker processes
+ * over TCP and assembles the result. Each worker connection keeps up to
+ * WINDOW tiles in flight, so it never waits for the network between tiles.
+ *
+ * Tiles held by a connection that drops, or that stays silent for
+ * raytracer.tileTimeoutSeconds, go back to the queue. Once the queue is
+ * empty, an idle connection takes a copy of the tile that has been in flight
+ * longest elsewhere, so one slow worker can't hold up the end of the render;
+ * whichever copy finishes first is used. Tiles are deterministic, so copies
+ * are identical and the image matches a single-process Render with the same
+ * seed and tile size pixel for pixel.
+ *
+ *   java -cp target raytracer.Coordinator [width] [spp] [out] [port] [tileSize]
+ */
+public class Coordinator {
+
+    static final int DEFAULT_PORT = 7878;
+    static final int WINDOW = 2;
+
+    final BufferedImage img;
+    final List<Tile> tiles;
+    final TileJob[] jobs;
+
+    // All below guarded by this.
+    private final ArrayDeque<Integer> queue = new ArrayDeque<>();
+    private final boolean[] done;
+    // Connections currently rendering each tile, and when it was last issued.
+    private final int[] holders;
+    private final long[] issued;
+    private int remaining;
+    int reissued, stolen;
+
+    Coordinator(Scene scene, BufferedImage img, int samplesPerPixel, int tileSize, long seed) {
+        this.img = img;
+        int imageW = img.getWidth(), imageH = img.getHeight();
+        Camera camera = Scene.camera(imageW, imageH);
+        String sceneId = Scene.sceneId();
+        tiles = Tile.split(imageW, imageH, tileSize);
+        jobs = new TileJob[tiles.size()];
+        for (int t = 0; t < jobs.length; t++) {
+            jobs[t] = new TileJob(sceneId, scene.kernel, scene.sampler, scene.maxBounces, scene.rouletteDepth,
+                                  seed, t, tiles.get(t), imageW, imageH, samplesPerPixel, camera);
+            queue.add(t);
+        }
+        done = new boolean[jobs.length];
+        holders = new int[jobs.length];
+        issued = new long[jobs.length];
+        remaining = jobs.length;
+    }
+
+    /**
+     * Next tile for a connection, or -1. Connections with tiles in flight
+     * only take queued tiles and never block; an idle one waits for work and
+     * may steal. Returns -1 to an idle connection once the image is done.
+     */
+    synchronized int next(boolean idle) throws InterruptedException {
+        while (remaining > 0) {
+            while (!queue.isEmpty()) {
+                int t = queue.poll();
+                if (!done[t]) return issue(t);
+            }
+            if (!idle) return -1;
+            int oldest = -1;
+            for (int t = 0; t < jobs.length; t++)
+                if (!done[t] && holders[t] == 1 && (oldest < 0 || issued[t] < issued[oldest])) oldest = t;
+            if (oldest >= 0) {
+                stolen++;
+                return issue(oldest);
+            }
+            wait();
+        }
+        return -1;
+    }
+
+    private int issue(int t) {
+        holders[t]++;
+        issued[t] = System.nanoTime();
+        return t;
+    }
+
+    synchronized void complete(int t, int[] argb) {
+        holders[t]--;
+        if (done[t]) return;
+        Tile tile = tiles.get(t);
+        int imageH = img.getHeight(), tw = tile.width();
+        for (int j = tile.y0; j < tile.y1; j++)
+            for (int i = tile.x0; i < tile.x1; i++)
+                img.setRGB(i, imageH-j-1, argb[(j - tile.y0) * tw + (i - tile.x0)]);
+        done[t] = true;
+        remaining--;
+        notifyAll();
+    }
+
+    /** Give back the tiles of a connection that failed. */
+    synchronized void lost(Collection<Integer> inFlight) {
+        for (int t : inFlight) {
+            holders[t]--;
+            if (!done[t] && holders[t] == 0) {
+                queue.addFirst(t);
+                reissued++;
+            }
+        }
+        notifyAll();
+    }
+
+    synchronized void await() throws InterruptedException {
+        while (remaining > 0) wait();
+    }
+
+    /** Feed one worker connection until the image is done or the connection fails. */
+    void serve(Socket socket, int timeoutMillis) {
+        ArrayDeque<Integer> inFlight = new ArrayDeque<>();
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(timeoutMillis);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            while (true) {
+                int t;
+                while (inFlight.size() < WINDOW && (t = next(inFlight.isEmpty())) >= 0) {
+                    jobs[t].write(out);
+                    inFlight.add(t);
+                }
+                if (inFlight.isEmpty()) break;
+                out.flush();
+                int index = in.readInt();
+                int[] argb = new int[in.readInt()];
+                for (int p = 0; p < argb.length; p++) argb[p] = in.readInt();
+                if (!inFlight.remove(index)) throw new IOException("Unexpected tile " + index);
+                complete(index, argb);
+            }
+            out.writeInt(TileJob.STOP);
+            out.flush();
+        } catch (IOException e) {
+            System.err.println(String.format("Lost worker %s with %d tiles: %s",
+                                             socket.getRemoteSocketAddress(), inFlight.size(), e));
+            lost(inFlight);
+        } catch (InterruptedException e) {
+            lost(inFlight);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Accept workers on port until every tile is done, then give idle
+     * connections a moment to tell their workers to stop.
+     */
+    void run(int port, int timeoutMillis) throws IOException, InterruptedException {
+        List<Thread> handlers = Collections.synchronizedList(new ArrayList<>());
+        try (ServerSocket server = new ServerSocket(port)) {
+            Thread acceptor = new Thread(() -> {
+                    while (true) {
+                        try {
+                            Socket socket = server.accept();
+                            Thread handler = new Thread(() -> serve(socket, timeoutMillis),
+                                                        "coordinator-" + socket.getRemoteSocketAddress());
+                            handler.setDaemon(true);
+                            handlers.add(handler);
+                            handler.start();
+                        } catch (IOException e) {
+                            return; // server closed
+                        }
+                    }
+                }, "coordinator-accept");
+            acceptor.setDaemon(true);
+            acceptor.start();
+            await();
+        }
+        long deadline = System.currentTimeMillis() + 1000;
+        for (Thread handler : handlers.toArray(new Thread[0]))
+            handler.join(Math.max(1, deadline - System.currentTimeMillis()));
+    }
+
+    public static void main(String[] args) throws Exception {
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : 1200;
+        int samples = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        String out = args.length > 2 ? args[2] : "out.png";
+        int port = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_PORT;
+        int tileSize = args.length > 4 ? Integer.parseInt(args[4]) : 16;
+        int timeoutMillis = 1000 * Integer.getInteger("raytracer.tileTimeoutSeconds", 120);
+        System.out.println(String.format("coordinator: imageWidth=%d samplesPerPixel=%d file=%s port=%d tileSize=%d",
+                                         width, samples, out, port, tileSize));
+        double aspectRatio = 3./2.;
+        var img = new BufferedImage(width, (int)(width / aspectRatio), BufferedImage.TYPE_INT_ARGB);
+        Coordinator c = new Coordinator(new Scene(), img, samples, tileSize, Rng.DEFAULT_SEED);
+        long start = System.currentTimeMillis();
+        c.run(port, timeoutMillis);
+        System.out.println(String.format("Elapsed: %,d ms", System.currentTimeMillis() - start));
+        System.out.println(String.format("Tiles: %d, re-issued: %d, stolen: %d", c.jobs.length, c.reissued, c.stolen));
+        Render.write(img, out);
+    }
+}
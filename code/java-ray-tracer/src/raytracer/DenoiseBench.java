@@ -0,0 +1,62 @@
+package raytracer;
+
+import java.io.*;
+
+/**
+ * Denoised low-spp renders against raw renders at increasing spp: time and
+ * PSNR (8-bit output) of each against a high-spp reference, and the raw spp
+ * whose PSNR the denoised image matches. With an output prefix, writes the
+ * reference and the denoised images.
+ *
+ *   java -cp target raytracer.DenoiseBench [width] [referenceSpp] [threads] [kernel] [prefix]
+ */
+public class DenoiseBench {
+
+    static final int[] DENOISED = { 1, 2, 4, 8 };
+    static final int[] RAW = { 4, 8, 16, 32, 64, 128 };
+
+    static Framebuffer render(String kernel, int width, int spp, int threads, boolean denoise, double[] seconds) {
+        Scene scene = new Scene();
+        scene.kernel = kernel;
+        Framebuffer fb = new Framebuffer(width, (int)(width / (3./2.)));
+        if (denoise) scene.features = new Features(fb.width, fb.height);
+        Rng.reset();
+        long start = System.nanoTime();
+        scene.paintProgressive(fb, spp, spp, 16, threads, Rng.DEFAULT_SEED + 1, f -> {});
+        seconds[0] = (System.nanoTime() - start) / 1e9;
+        if (!denoise) return fb;
+        start = System.nanoTime();
+        Framebuffer out = Denoiser.denoise(fb, scene.features, threads);
+        seconds[1] = (System.nanoTime() - start) / 1e9;
+        return out;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        int refSpp = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        String kernel = args.length > 3 ? args[3] : "flat";
+        String prefix = args.length > 4 ? args[4] : null;
+        double[] seconds = new double[2];
+
+        var ref = render(kernel, width, refSpp, threads, false, seconds).resolve();
+        System.out.printf("reference %d spp %.2f s%n", refSpp, seconds[0]);
+        render(kernel, width, 4, threads, true, seconds); // warm-up
+        if (prefix != null) Render.write(ref, prefix + "-ref.png");
+
+        double[] rawPsnr = new double[RAW.length];
+        for (int k = 0; k < RAW.length; k++) {
+            rawPsnr[k] = PrecisionBench.psnr(render(kernel, width, RAW[k], threads, false, seconds).resolve(), ref);
+            System.out.printf("raw       %4d spp %6.2f s             PSNR %.2f dB%n", RAW[k], seconds[0], rawPsnr[k]);
+        }
+        for (int spp : DENOISED) {
+            var img = render(kernel, width, spp, threads, true, seconds).resolve();
+            double psnr = PrecisionBench.psnr(img, ref);
+            int matched = 0;
+            for (int k = 0; k < RAW.length; k++) if (rawPsnr[k] <= psnr) matched = RAW[k];
+            System.out.printf("denoised  %4d spp %6.2f s + %.3f s    PSNR %.2f dB  %s%n", spp, seconds[0], seconds[1], psnr,
+                              matched > 0 ? "(at least raw " + matched + " spp)" : "");
+            if (prefix != null) Render.write(img, prefix + "-" + spp + "spp.png");
+        }
+    }
+}
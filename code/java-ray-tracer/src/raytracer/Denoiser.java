@@ -0,0 +1,217 @@
+package raytracer;
+
+import java.util.concurrent.*;
+import java.util.stream.IntStream;
+
+/**
+ * Edge-avoiding a-trous wavelet filter (Dammertz et al. 2010) with the
+ * variance-guided luminance weight of SVGF (Schied et al. 2017), for
+ * renders with few samples per pixel, guided by the render's Features.
+ *
+ * Each pass blurs with a 5x5 B3-spline kernel whose taps are spaced 1, 2,
+ * 4, ... pixels apart, and weights every tap by how much its normal, depth
+ * and albedo differ from the centre pixel, so the blur stops at object
+ * edges and colour boundaries. Depth differences are measured against the
+ * centre pixel's depth gradient, so grazing surfaces like the ground don't
+ * read as edges. Luminance differences are measured against the centre
+ * pixel's standard deviation, estimated from its samples and carried through
+ * the passes: noise gets averaged, while shadows and highlights that stand
+ * out from it are kept. Pixels that see only the sky are noise-free and
+ * left alone. Rows of each pass are filtered in parallel.
+ */
+final class Denoiser {
+
+    static final double[] KERNEL = { 1/16., 1/4., 3/8., 1/4., 1/16. };
+    // 1 / distance of the taps from the centre, in steps.
+    static final double[][] INVERSE_DISTANCE = new double[5][5];
+    static {
+        for (int dy = -2; dy <= 2; dy++)
+            for (int dx = -2; dx <= 2; dx++)
+                INVERSE_DISTANCE[dy + 2][dx + 2] = 1 / Math.sqrt(Math.max(1, dx*dx + dy*dy));
+    }
+
+    // PSNR against a reference peaks at 2-3 passes on the random scene; more
+    // passes smooth the ground further but wash out contact shadows.
+    int passes = Integer.getInteger("raytracer.denoisePasses", 3);
+    // Edge-stopping parameters: larger values blur more across differences.
+    // Normals are weighted by their cosine to the power 16.
+    double sigmaLuminance = 8;
+    double sigmaDepth = 3;
+    double sigmaAlbedo = .3;
+
+    final int width, height;
+    final double[] albedo, normal, depth, gradient, variance;
+
+    /** Normalized feature buffers; fb supplies the sample means for the variance. */
+    Denoiser(Framebuffer fb, Features f) {
+        width = f.width;
+        height = f.height;
+        int n = width * height;
+        albedo = new double[3 * n];
+        normal = new double[3 * n];
+        depth = new double[n];
+        gradient = new double[n];
+        variance = new double[n];
+        for (int y = 0; y < height; y++)
+            for (int x = 0; x < width; x++) {
+                int p = y * width + x, q = Features.SIZE * p;
+                double samples = Math.max(1, f.data[q + Features.SAMPLES]);
+                for (int k = 0; k < 3; k++) albedo[3*p + k] = f.data[q + Features.ALBEDO + k] / samples;
+                double nx = f.data[q + Features.NORMAL], ny = f.data[q + Features.NORMAL + 1],
+                    nz = f.data[q + Features.NORMAL + 2];
+                double len = Math.sqrt(nx*nx + ny*ny + nz*nz);
+                if (len > 0) {
+                    normal[3*p] = nx / len; normal[3*p + 1] = ny / len; normal[3*p + 2] = nz / len;
+                }
+                depth[p] = f.data[q + Features.DEPTH] / samples;
+                double mean = Features.luminance(fb.rgb[3*p], fb.rgb[3*p + 1], fb.rgb[3*p + 2]) / Math.max(1, fb.samplesAt(x, y));
+                // Variance of the pixel's mean.
+                variance[p] = Math.max(0, f.data[q + Features.MOMENT] / samples - mean * mean) / samples;
+                gradient[p] = mean;
+            }
+        for (int y = 0; y < height; y++)
+            for (int x = 0; x < width; x++) {
+                int p = y * width + x;
+                // One sample says nothing about its variance: use that of the
+                // 3x3 neighbourhood's means instead (gradient holds them here).
+                if (f.data[Features.SIZE * p + Features.SAMPLES] < 2) variance[p] = neighbourVariance(gradient, x, y);
+            }
+        for (int y = 0; y < height; y++)
+            for (int x = 0; x < width; x++) {
+                int p = y * width + x;
+                double gx = x + 1 < width ? Math.abs(depth[p + 1] - depth[p]) : x > 0 ? Math.abs(depth[p] - depth[p - 1]) : 0;
+                double gy = y + 1 < height ? Math.abs(depth[p + width] - depth[p])
+                    : y > 0 ? Math.abs(depth[p] - depth[p - width]) : 0;
+                gradient[p] = Math.max(gx, gy);
+            }
+    }
+
+    /** Denoised copy of fb (one sample per pixel holding the filtered mean), computed on threads threads. */
+    static Framebuffer denoise(Framebuffer fb, Features features, int threads) {
+        if (fb.rows != fb.height || features.width != fb.width || features.height != fb.height)
+            throw new IllegalArgumentException("Features and framebuffer sizes differ");
+        ForkJoinPool pool = ResourceMeter.pool(threads);
+        try {
+            return new Denoiser(fb, features).denoise(fb, pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    Framebuffer denoise(Framebuffer fb, ForkJoinPool pool) {
+        int n = width * height;
+        double[] color = new double[3 * n];
+        for (int y = 0; y < height; y++)
+            for (int x = 0; x < width; x++) {
+                int p = y * width + x;
+                double scale = 1. / Math.max(1, fb.samplesAt(x, y));
+                for (int k = 0; k < 3; k++) color[3*p + k] = fb.rgb[3*p + k] * scale;
+            }
+        double[] var = variance;
+        double[] nextColor = new double[3 * n], nextVar = new double[n], lum = new double[n];
+        for (int pass = 0; pass < passes; pass++) {
+            double[] in = color, inVar = var, out = nextColor, outVar = nextVar;
+            for (int p = 0; p < n; p++) lum[p] = Features.luminance(in[3*p], in[3*p + 1], in[3*p + 2]);
+            int step = 1 << pass;
+            run(pool, () -> IntStream.range(0, height).parallel()
+                .forEach(y -> filterRow(in, lum, inVar, out, outVar, y, step)));
+            nextColor = color; nextVar = pass == 0 ? new double[n] : var;
+            color = out; var = outVar;
+        }
+        Framebuffer result = new Framebuffer(width, height);
+        System.arraycopy(color, 0, result.rgb, 0, 3 * n);
+        result.samples = 1;
+        result.passes = 1;
+        return result;
+    }
+
+    static void run(ForkJoinPool pool, Runnable job) {
+        try {
+            pool.submit(job).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /** One pass over row y: filtered colour to out, and the variance of the filtered value to outVar. */
+    void filterRow(double[] in, double[] lum, double[] inVar, double[] out, double[] outVar, int y, int step) {
+        double albedoScale = 1 / (sigmaAlbedo * sigmaAlbedo);
+        for (int x = 0; x < width; x++) {
+            int p = y * width + x;
+            double nx = normal[3*p], ny = normal[3*p + 1], nz = normal[3*p + 2];
+            if (nx == 0 && ny == 0 && nz == 0) {
+                System.arraycopy(in, 3*p, out, 3*p, 3);
+                outVar[p] = inVar[p];
+                continue;
+            }
+            double l = lum[p];
+            double lScale = 1 / (sigmaLuminance * Math.sqrt(blurredVariance(inVar, x, y)) + 1e-10);
+            double z = depth[p];
+            double zScale = 1 / ((sigmaDepth * gradient[p] + 1e-6) * step);
+            double sr = 0, sg = 0, sb = 0, sw = 0, sv = 0;
+            for (int dy = -2; dy <= 2; dy++) {
+                int qy = y + dy * step;
+                if (qy < 0 || qy >= height) continue;
+                for (int dx = -2; dx <= 2; dx++) {
+                    int qx = x + dx * step;
+                    if (qx < 0 || qx >= width) continue;
+                    int q = qy * width + qx;
+                    double w = KERNEL[dx + 2] * KERNEL[dy + 2];
+                    if (q != p) {
+                        double cos = nx * normal[3*q] + ny * normal[3*q + 1] + nz * normal[3*q + 2];
+                        if (cos <= 0) continue;
+                        cos *= cos; cos *= cos; cos *= cos; cos *= cos;
+                        double e = Math.abs(depth[q] - z) * zScale * INVERSE_DISTANCE[dy + 2][dx + 2];
+                        double ar = albedo[3*q] - albedo[3*p], ag = albedo[3*q + 1] - albedo[3*p + 1],
+                            ab = albedo[3*q + 2] - albedo[3*p + 2];
+                        e += (ar*ar + ag*ag + ab*ab) * albedoScale;
+                        e += Math.abs(lum[q] - l) * lScale;
+                        w *= cos * Math.exp(-e);
+                    }
+                    sr += w * in[3*q];
+                    sg += w * in[3*q + 1];
+                    sb += w * in[3*q + 2];
+                    sv += w * w * inVar[q];
+                    sw += w;
+                }
+            }
+            out[3*p] = sr / sw;
+            out[3*p + 1] = sg / sw;
+            out[3*p + 2] = sb / sw;
+            outVar[p] = sv / (sw * sw);
+        }
+    }
+
+    double neighbourVariance(double[] mean, int x, int y) {
+        double s = 0, s2 = 0;
+        int n = 0;
+        for (int qy = Math.max(0, y - 1); qy <= Math.min(height - 1, y + 1); qy++)
+            for (int qx = Math.max(0, x - 1); qx <= Math.min(width - 1, x + 1); qx++) {
+                double m = mean[qy * width + qx];
+                s += m;
+                s2 += m * m;
+                n++;
+            }
+        return Math.max(0, s2 / n - (s / n) * (s / n));
+    }
+
+    /** 3x3 Gaussian of the variance around (x, y), which is too noisy to use per pixel. */
+    double blurredVariance(double[] var, int x, int y) {
+        double s = 0, w = 0;
+        for (int dy = -1; dy <= 1; dy++) {
+            int qy = y + dy;
+            if (qy < 0 || qy >= height) continue;
+            for (int dx = -1; dx <= 1; dx++) {
+                int qx = x + dx;
+                if (qx < 0 || qx >= width) continue;
+                double k = (dx == 0 ? .5 : .25) * (dy == 0 ? .5 : .25);
+                s += k * var[qy * width + qx];
+                w += k;
+            }
+        }
+        return s / w;
+    }
+}
@@ -0,0 +1,85 @@
+package raytracer;
+
+import java.util.random.*;
+
+/**
+ * Checks that the closed-form samplers in Directions draw from the same
+ * distributions as the rejection loops they replace. Each sampler's output
+ * is binned on a 16x16 grid of coordinates that are uniform under the
+ * target distribution, and a chi-square statistic is computed against that:
+ * - unit vectors (randomUnitVector, Metal fuzz): z and azimuth
+ * - Lambertian directions (normal + unit vector): cos^2 of the angle to the
+ *   normal, and azimuth
+ * - lens points (Camera.getRay): r^2 and angle
+ * With 255 degrees of freedom, the statistic stays below 325 (p = 0.001)
+ * for a correct sampler. Also reports the random numbers drawn per sample.
+ *
+ *   java -cp target raytracer.DirectionCheck [samples]
+ */
+public class DirectionCheck {
+
+    static final int BINS = 16;
+    static final double CRITICAL = 325;
+
+    /** Counts the numbers drawn from a generator. */
+    static final class Counting implements RandomGenerator {
+        final RandomGenerator g = RandomGeneratorFactory.of("Xoroshiro128PlusPlus").create(42);
+        long draws;
+
+        public long nextLong() {
+            draws++;
+            return g.nextLong();
+        }
+    }
+
+    interface Sample {
+        /** Two coordinates in [0, 1), uniform under the target distribution. */
+        void draw(RandomGenerator rng, boolean closed, double[] uv);
+    }
+
+    static int bin(double x) {
+        return Math.min(BINS - 1, Math.max(0, (int)(x * BINS)));
+    }
+
+    static double azimuth(double x, double y) {
+        return (Math.atan2(y, x) + Math.PI) / (2 * Math.PI);
+    }
+
+    static void check(String name, boolean closed, int n, Sample sample) {
+        Counting rng = new Counting();
+        long[] count = new long[BINS * BINS];
+        double[] uv = new double[2];
+        for (int i = 0; i < n; i++) {
+            sample.draw(rng, closed, uv);
+            count[bin(uv[0]) * BINS + bin(uv[1])]++;
+        }
+        double expected = (double)n / count.length, chi2 = 0;
+        for (long c : count) chi2 += (c - expected) * (c - expected) / expected;
+        System.out.println(String.format("%-11s %-9s chi2 %7.1f  %-4s  %.3f numbers/sample", name,
+                                         closed ? "closed" : "rejection", chi2, chi2 < CRITICAL ? "ok" : "FAIL",
+                                         (double)rng.draws / n));
+    }
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 4_000_000;
+        Vec3 normal = new Vec3(0, 0, 1);
+        System.out.println(String.format("%,d samples, %d bins, critical chi2 %.0f", n, BINS * BINS, CRITICAL));
+        for (boolean closed : new boolean[] { false, true }) {
+            check("unitVector", closed, n, (rng, c, uv) -> {
+                    Vec3 d = Directions.unitVector(rng, c);
+                    uv[0] = (d.z + 1) / 2;
+                    uv[1] = azimuth(d.x, d.y);
+                });
+            check("lambertian", closed, n, (rng, c, uv) -> {
+                    Vec3 d = normal.add(Directions.unitVector(rng, c)).normalize();
+                    uv[0] = d.z * d.z;
+                    uv[1] = azimuth(d.x, d.y);
+                });
+            check("lens", closed, n, (rng, c, uv) -> {
+                    Vec3 p = Directions.inUnitDisk(rng, c);
+                    uv[0] = p.x * p.x + p.y * p.y;
+                    uv[1] = azimuth(p.x, p.y);
+                });
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package raytracer;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * Closed-form replacements for the rejection loops behind
+ * Vec3.randomInUnitSphere and randomInUnitDisk. Each takes exactly two
+ * uniform numbers, allocates nothing per try, and has no loop.
+ *
+ * unitVector is uniform on the sphere (Archimedes: z uniform in [-1, 1],
+ * azimuth uniform), the distribution of a normalized randomInUnitSphere.
+ * Metal fuzz uses it as is. Lambertian adds it to the normal, and that
+ * sum is cosine-distributed about the normal: it samples the Lambertian
+ * hemisphere without building a frame around the normal. inUnitDisk is
+ * Shirley and Chiu's concentric mapping of the square onto the lens disk.
+ * Its one choice between the two halves of the square is a select, which
+ * the JIT can compile to a conditional move.
+ *
+ * The loops stay the default, so existing images and checkpoints reproduce
+ * exactly. -Draytracer.directions=closed switches every kernel over. The
+ * choice is fixed at startup, so the JIT folds it away; DirectionCheck and
+ * bench.Scattering compare the two by passing it explicitly.
+ */
+public final class Directions {
+
+    public static final boolean closedForm = System.getProperty("raytracer.directions", "rejection").equals("closed");
+
+    private Directions() {}
+
+    /** Unit vector uniform on the sphere, in closed form if closed, else by rejection. */
+    public static Vec3 unitVector(RandomGenerator rng, boolean closed) {
+        return closed ? unitVector(rng.nextDouble(), rng.nextDouble()) : Vec3.randomInUnitSphere(rng).normalize();
+    }
+
+    /** Point uniform in the unit disk, in closed form if closed, else by rejection. */
+    public static Vec3 inUnitDisk(RandomGenerator rng, boolean closed) {
+        return closed ? inUnitDisk(rng.nextDouble(), rng.nextDouble()) : Vec3.randomInUnitDisk(rng);
+    }
+
+    /** Unit vector uniform on the sphere, from u1, u2 uniform in [0, 1). */
+    static Vec3 unitVector(double u1, double u2) {
+        double z = 1 - 2 * u1;
+        double r = Math.sqrt(Math.max(0, 1 - z * z));
+        double phi = 2 * Math.PI * u2;
+        return new Vec3(r * Math.cos(phi), r * Math.sin(phi), z);
+    }
+
+    /** Point uniform in the unit disk (z = 0), from u1, u2 uniform in [0, 1). */
+    static Vec3 inUnitDisk(double u1, double u2) {
+        double a = 2 * u1 - 1, b = 2 * u2 - 1;
+        boolean wide = a * a > b * b;
+        double r = wide ? a : b;
+        // Not wide and b == 0 means a == 0 too: the centre, at any angle.
+        double phi = wide ? (Math.PI / 4) * (b / a) : Math.PI / 2 - (Math.PI / 4) * (a / (b != 0 ? b : 1));
+        return new Vec3(r * Math.cos(phi), r * Math.sin(phi), 0);
+    }
+}
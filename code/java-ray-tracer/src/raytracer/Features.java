@@ -0,0 +1,68 @@
+package raytracer;
+
+import java.util.Arrays;
+
+/**
+ * Auxiliary buffers for Denoiser, summed over each pixel's samples like the
+ * radiance in a Framebuffer: albedo, normal and distance from the camera at
+ * the first surface a camera path meets that isn't a mirror. Through
+ * mirrors the path keeps going, so a reflection is described by what it
+ * shows, tinted by the mirror, instead of by a smooth sphere. Glass picks
+ * reflection or refraction at random, which would make what lies behind it
+ * as noisy as the image, so it is recorded as a surface. Paths that
+ * escape record the sky colour as albedo, a zero normal and SKY_DEPTH.
+ * MOMENT sums the squared luminance of the samples, for their variance.
+ *
+ * The kernels record a pixel's samples into a SIZE-element array that
+ * add() then moves into the buffers; pixels are written by one tile each.
+ */
+final class Features {
+
+    static final int ALBEDO = 0, NORMAL = 3, DEPTH = 6, SAMPLES = 7, MOMENT = 8, SIZE = 9;
+    static final double SKY_DEPTH = 1e4;
+    // Metals smoother than this count as mirrors.
+    static final double MIRROR_FUZZ = .1;
+
+    final int width, height;
+    final double[] data;
+
+    Features(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.data = new double[SIZE * width * height];
+    }
+
+    /** Add the per-pixel sums in f to pixel (x, y), image coordinates, and clear f. */
+    void add(int x, int y, double[] f) {
+        int p = SIZE * (y * width + x);
+        for (int k = 0; k < SIZE; k++) data[p + k] += f[k];
+        Arrays.fill(f, 0);
+    }
+
+    static boolean mirror(Material m) {
+        return m instanceof Material.Metal metal && metal.fuzz < MIRROR_FUZZ;
+    }
+
+    /** Record a surface: albedo times the throughput so far, shading normal and path length. */
+    static void surface(double[] f, double ar, double ag, double ab,
+                        double nx, double ny, double nz, double distance) {
+        f[ALBEDO] += ar; f[ALBEDO + 1] += ag; f[ALBEDO + 2] += ab;
+        f[NORMAL] += nx; f[NORMAL + 1] += ny; f[NORMAL + 2] += nz;
+        f[DEPTH] += distance;
+    }
+
+    static void sky(double[] f, double r, double g, double b) {
+        f[ALBEDO] += r; f[ALBEDO + 1] += g; f[ALBEDO + 2] += b;
+        f[DEPTH] += SKY_DEPTH;
+    }
+
+    static double luminance(double r, double g, double b) {
+        return 0.2126 * r + 0.7152 * g + 0.0722 * b;
+    }
+
+    /** Record the radiance of a finished sample; only paths that reach the sky carry any. */
+    static void radiance(double[] f, double r, double g, double b) {
+        double l = luminance(r, g, b);
+        f[MOMENT] += l * l;
+    }
+}
@@ -0,0 +1,297 @@
+package raytracer;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * Path tracer that keeps the ray, hit and throughput in primitive fields
+ * instead of allocating Vec3/Ray/HitRecord/Scatter objects per bounce. Every
+ * operation mirrors Scene.rayColor, Sphere.hit, Camera.getRay and
+ * Material.scatter in the same order and draws random numbers in the same
+ * sequence, so images are identical to the object path.
+ *
+ * Not thread-safe: each rendering thread uses its own instance.
+ */
+public class FlatKernel implements PixelKernel {
+
+    static final int LAMBERTIAN = 0, METAL = 1, DIELECTRIC = 2;
+
+    final Camera camera;
+    final SphereSoA spheres;
+    final Bvh bvh;
+    final Scene scene;
+    final int maxBounces;
+    final int rouletteDepth;
+
+    // Material table, indexed by SphereSoA.material.
+    final int[] kind;
+    final double[] albedoR, albedoG, albedoB, param;
+
+    final int[] stack = new int[Bvh.MAX_DEPTH + 2];
+
+    // Current ray.
+    double ox, oy, oz, dx, dy, dz;
+    // Current hit.
+    double px, py, pz, nx, ny, nz;
+    boolean frontFace;
+    // Index into spheres and ray parameter of the current hit.
+    int hitSphere;
+    double hitT;
+    // Last unitVector.
+    double qx, qy, qz;
+    // Radiance of the last sample.
+    double r, g, b;
+    // Path statistics, added to counters by flushStats.
+    long paths, segments;
+    // Counters of the current tile when RenderStats is on, else null.
+    final RenderStats.Counters counters;
+    // Camera samples and random numbers, or null for Scene.sampler "random".
+    final Sampler sampler;
+    // Features of the current pixel when the scene collects them, else null.
+    final double[] feature;
+    // Where the current tile's rays go, for IncrementalRender, else null.
+    IncrementalRender.Footprint footprint;
+
+    FlatKernel(Scene scene, Camera camera, Sphere[] world) {
+        this.camera = camera;
+        this.bvh = scene.bvh;
+        this.spheres = bvh != null ? bvh.soa : scene.soa != null ? scene.soa : new SphereSoA(world);
+        this.scene = scene;
+        this.maxBounces = scene.maxBounces;
+        this.rouletteDepth = scene.rouletteDepth;
+        this.counters = RenderStats.current();
+        this.sampler = scene.newSampler();
+        this.feature = scene.features != null ? new double[Features.SIZE] : null;
+
+        kind = spheres.kind;
+        albedoR = spheres.albedoR; albedoG = spheres.albedoG; albedoB = spheres.albedoB;
+        param = spheres.param;
+    }
+
+    void samplePixel(int i, int j, int imageW, int imageH, int samplesPerPixel) {
+        samplePixel(i, j, imageW, imageH, samplesPerPixel, 0);
+    }
+
+    public double r() { return r; }
+
+    public double g() { return g; }
+
+    public double b() { return b; }
+
+    public double[] feature() { return feature; }
+
+    /** Same as Scene.samplePixel; the sum is left in r, g, b. */
+    public void samplePixel(int i, int j, int imageW, int imageH, int samplesPerPixel, int first) {
+        if (sampler != null) {
+            double[] p = sampler.pixel(i, j, first, samplesPerPixel);
+            double sr = 0, sg = 0, sb = 0;
+            for (int s = 0; s < samplesPerPixel; s++) {
+                double u = ((double)i + p[4*s]) / (imageW - 1);
+                double v = ((double)j + p[4*s+1]) / (imageH - 1);
+                lensRay(p[4*s+2], p[4*s+3], u, v);
+                rayColor(sampler.rng);
+                sr = sr + r; sg = sg + g; sb = sb + b;
+            }
+            r = sr; g = sg; b = sb;
+            return;
+        }
+        RandomGenerator rng = Rng.current();
+        double sr = 0, sg = 0, sb = 0;
+        for (int s = 0; s < samplesPerPixel; s++) {
+            double u = ((double)i + rng.nextDouble()) / (imageW - 1);
+            double v = ((double)j + rng.nextDouble()) / (imageH - 1);
+            getRay(rng, u, v);
+            rayColor(rng);
+            sr = sr + r; sg = sg + g; sb = sb + b;
+        }
+        r = sr; g = sg; b = sb;
+    }
+
+    void getRay(RandomGenerator rng, double s, double t) {
+        double rx, ry;
+        if (Directions.closedForm) {
+            // Directions.inUnitDisk.
+            double a = 2 * rng.nextDouble() - 1, b = 2 * rng.nextDouble() - 1;
+            boolean wide = a * a > b * b;
+            double r = wide ? a : b;
+            double phi = wide ? (Math.PI / 4) * (b / a) : Math.PI / 2 - (Math.PI / 4) * (a / (b != 0 ? b : 1));
+            lensRay(r * Math.cos(phi), r * Math.sin(phi), s, t);
+            return;
+        }
+        do {
+            rx = -1 + (2 * rng.nextDouble());
+            ry = -1 + (2 * rng.nextDouble());
+        } while (!(rx*rx + ry*ry + 0. < 1));
+        lensRay(rx, ry, s, t);
+    }
+
+    /** Camera ray through (s, t) from point (rx, ry) of the unit disk on the lens. */
+    void lensRay(double rx, double ry, double s, double t) {
+        Camera c = camera;
+        rx = rx * c.lensRadius;
+        ry = ry * c.lensRadius;
+        double offX = c.u.x * rx + c.v.x * ry;
+        double offY = c.u.y * rx + c.v.y * ry;
+        double offZ = c.u.z * rx + c.v.z * ry;
+        dx = c.lowerLeftCorner.x + c.horizontal.x * s + c.vertical.x * t - c.origin.x - offX;
+        dy = c.lowerLeftCorner.y + c.horizontal.y * s + c.vertical.y * t - c.origin.y - offY;
+        dz = c.lowerLeftCorner.z + c.horizontal.z * s + c.vertical.z * t - c.origin.z - offZ;
+        ox = c.origin.x + offX;
+        oy = c.origin.y + offY;
+        oz = c.origin.z + offZ;
+    }
+
+    /** Trace the current ray; radiance is left in r, g, b. */
+    void rayColor(RandomGenerator rng) {
+        RenderStats.Counters c = counters;
+        double ar = 1, ag = 1, ab = 1;
+        int bounces = maxBounces;
+        int depth = 0;
+        paths++;
+        double[] f = feature;
+        if (f != null) f[Features.SAMPLES]++;
+        double distance = 0;
+        while (bounces >= 0) {
+            int m = hit();
+            if (footprint != null) footprint.segment(this, m >= 0);
+            segments++;
+            depth++;
+            if (m < 0) {
+                double len = Math.sqrt(dx*dx + dy*dy + dz*dz);
+                double t = .5 * (dy / len + 1.);
+                r = (1 * (1-t) + .5 * t) * ar;
+                g = (1 * (1-t) + .7 * t) * ag;
+                b = (1 * (1-t) + 1. * t) * ab;
+                if (c != null) { c.escaped++; c.depth[depth]++; }
+                if (f != null) Features.sky(f, r, g, b);
+                if (feature != null) Features.radiance(feature, r, g, b);
+                return;
+            }
+            if (f != null) {
+                distance += Math.sqrt((px-ox)*(px-ox) + (py-oy)*(py-oy) + (pz-oz)*(pz-oz));
+                if (!(kind[m] == METAL && param[m] < Features.MIRROR_FUZZ)) {
+                    Features.surface(f, ar * albedoR[m], ag * albedoG[m], ab * albedoB[m], nx, ny, nz, distance);
+                    f = null;
+                }
+            }
+            boolean scattered;
+            switch (kind[m]) {
+            case LAMBERTIAN: scattered = scatterLambertian(rng); break;
+            case METAL: scattered = scatterMetal(rng, param[m]); break;
+            default: scattered = scatterDielectric(rng, param[m]);
+            }
+            if (!scattered) {
+                if (c != null) c.absorbed++;
+                break;
+            }
+            ar = ar * albedoR[m]; ag = ag * albedoG[m]; ab = ab * albedoB[m];
+            bounces--;
+            if (rouletteDepth >= 0 && maxBounces - bounces >= rouletteDepth) {
+                double p = Scene.survival(ar, ag, ab);
+                if (p < 1) {
+                    if (rng.nextDouble() >= p) {
+                        if (c != null) c.roulette++;
+                        break;
+                    }
+                    ar = ar * (1 / p); ag = ag * (1 / p); ab = ab * (1 / p);
+                }
+            }
+            if (bounces < 0 && c != null) c.bounceLimit++;
+        }
+        if (c != null) c.depth[depth]++;
+        r = g = b = 0;
+    }
+
+    public void flushStats() {
+        if (counters != null) {
+            counters.paths += paths;
+            counters.rays += segments;
+            if (bvh == null) counters.sphereTests += segments * spheres.size;
+        }
+        paths = segments = 0;
+    }
+
+    /** Intersect the current ray; fills the hit fields and returns the material, or -1. */
+    int hit() {
+        SphereSoA s = spheres;
+        int i = bvh != null
+            ? bvh.closest(ox, oy, oz, dx, dy, dz, stack, counters)
+            : s.kernel.closest(s, ox, oy, oz, dx, dy, dz, HitRecord.MISS.t);
+        if (i < 0) return -1;
+        double root = s.root(i, ox, oy, oz, dx, dy, dz, dx*dx + dy*dy + dz*dz);
+        double rad = s.radius[i];
+        hitSphere = i;
+        hitT = root;
+        px = ox + dx * root; py = oy + dy * root; pz = oz + dz * root;
+        double onx = (px - s.cx[i]) / rad, ony = (py - s.cy[i]) / rad, onz = (pz - s.cz[i]) / rad;
+        frontFace = dx * onx + dy * ony + dz * onz < 0;
+        if (frontFace) { nx = onx; ny = ony; nz = onz; }
+        else { nx = -onx; ny = -ony; nz = -onz; }
+        return s.material[i];
+    }
+
+    boolean scatterLambertian(RandomGenerator rng) {
+        unitVector(rng);
+        double sx = nx + qx, sy = ny + qy, sz = nz + qz;
+        double e = 0.0000008;
+        if (Math.abs(sx) < e && Math.abs(sy) < e && Math.abs(sz) < e) {
+            sx = nx; sy = ny; sz = nz;
+        }
+        ox = px; oy = py; oz = pz;
+        dx = sx; dy = sy; dz = sz;
+        return true;
+    }
+
+    boolean scatterMetal(RandomGenerator rng, double fuzz) {
+        double len = Math.sqrt(dx*dx + dy*dy + dz*dz);
+        double ux = dx / len, uy = dy / len, uz = dz / len;
+        double d = ux * nx + uy * ny + uz * nz;
+        double rx = ux - nx * 2 * d, ry = uy - ny * 2 * d, rz = uz - nz * 2 * d;
+        if (rx * nx + ry * ny + rz * nz < 0) return false;
+        unitVector(rng);
+        ox = px; oy = py; oz = pz;
+        dx = rx + qx * fuzz;
+        dy = ry + qy * fuzz;
+        dz = rz + qz * fuzz;
+        return true;
+    }
+
+    /** Unit vector uniform on the sphere into qx, qy, qz: Vec3.randomUnitVector. */
+    void unitVector(RandomGenerator rng) {
+        if (Directions.closedForm) {
+            double z = 1 - 2 * rng.nextDouble();
+            double r = Math.sqrt(Math.max(0, 1 - z * z));
+            double phi = 2 * Math.PI * rng.nextDouble();
+            qx = r * Math.cos(phi); qy = r * Math.sin(phi); qz = z;
+            return;
+        }
+        double x, y, z;
+        do {
+            x = -1 + (2 * rng.nextDouble());
+            y = -1 + (2 * rng.nextDouble());
+            z = -1 + (2 * rng.nextDouble());
+        } while (!(x*x + y*y + z*z < 1));
+        double len = Math.sqrt(x*x + y*y + z*z);
+        qx = x / len; qy = y / len; qz = z / len;
+    }
+
+    boolean scatterDielectric(RandomGenerator rng, double refractionIndex) {
+        double ratio = frontFace ? 1/refractionIndex : refractionIndex;
+        double len = Math.sqrt(dx*dx + dy*dy + dz*dz);
+        double ux = dx / len, uy = dy / len, uz = dz / len;
+        double cos = Math.min(-ux * nx + -uy * ny + -uz * nz, 1.0);
+        double sin = Math.sqrt(1.0 - cos * cos);
+        boolean cantRefract = ratio * sin > 1.0;
+        ox = px; oy = py; oz = pz;
+        if (cantRefract || Material.Dielectric.reflectance(cos, ratio) > rng.nextDouble()) {
+            double d = ux * nx + uy * ny + uz * nz;
+            dx = ux - nx * 2 * d; dy = uy - ny * 2 * d; dz = uz - nz * 2 * d;
+        } else {
+            double perpX = (ux + nx * cos) * ratio;
+            double perpY = (uy + ny * cos) * ratio;
+            double perpZ = (uz + nz * cos) * ratio;
+            double k = -Math.sqrt(Math.abs(1 - (perpX*perpX + perpY*perpY + perpZ*perpZ)));
+            dx = perpX + nx * k; dy = perpY + ny * k; dz = perpZ + nz * k;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,292 @@
+package raytracer;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * FlatKernel in single precision, for previews: ray, hit and throughput are
+ * float and the geometry comes from the scene's FloatScene. Random numbers
+ * are drawn in the same sequence as FlatKernel (as doubles rounded to
+ * float), so the two images share their noise and differ only where
+ * precision changes a path. Per-pixel sums stay double, as float sums of
+ * many samples would drop low bits.
+ *
+ * Not thread-safe: each rendering thread uses its own instance.
+ */
+public class FloatKernel implements PixelKernel {
+
+    // Scatter directions shorter than this are replaced by the normal; the
+    // double path's 8e-7 is only a few float ulps of a unit vector.
+    static final float NEAR_ZERO = 1e-5f;
+
+    final Camera camera;
+    final FloatScene scene;
+    final Scene owner;
+    final int maxBounces;
+    final int rouletteDepth;
+    final int[] stack = new int[Bvh.MAX_DEPTH + 2];
+
+    // Camera in float.
+    final float originX, originY, originZ, lowerX, lowerY, lowerZ;
+    final float horizX, horizY, horizZ, vertX, vertY, vertZ;
+    final float uX, uY, uZ, vX, vY, vZ, lensRadius;
+
+    // Current ray.
+    float ox, oy, oz, dx, dy, dz;
+    // Current hit.
+    float px, py, pz, nx, ny, nz;
+    boolean frontFace;
+    // Last unitVector.
+    float qx, qy, qz;
+    // Radiance of the last path.
+    float cr, cg, cb;
+    // Sum of the last samplePixel.
+    double r, g, b;
+    long paths, segments;
+    final RenderStats.Counters counters;
+    final Sampler sampler;
+    final double[] feature;
+
+    FloatKernel(Scene owner, Camera camera, Sphere[] world) {
+        this.camera = camera;
+        this.owner = owner;
+        this.scene = owner.floatScene(world);
+        this.maxBounces = owner.maxBounces;
+        this.rouletteDepth = owner.rouletteDepth;
+        this.counters = RenderStats.current();
+        this.sampler = owner.newSampler();
+        this.feature = owner.features != null ? new double[Features.SIZE] : null;
+
+        originX = (float)camera.origin.x; originY = (float)camera.origin.y; originZ = (float)camera.origin.z;
+        lowerX = (float)camera.lowerLeftCorner.x; lowerY = (float)camera.lowerLeftCorner.y;
+        lowerZ = (float)camera.lowerLeftCorner.z;
+        horizX = (float)camera.horizontal.x; horizY = (float)camera.horizontal.y; horizZ = (float)camera.horizontal.z;
+        vertX = (float)camera.vertical.x; vertY = (float)camera.vertical.y; vertZ = (float)camera.vertical.z;
+        uX = (float)camera.u.x; uY = (float)camera.u.y; uZ = (float)camera.u.z;
+        vX = (float)camera.v.x; vY = (float)camera.v.y; vZ = (float)camera.v.z;
+        lensRadius = (float)camera.lensRadius;
+    }
+
+    public double r() { return r; }
+
+    public double g() { return g; }
+
+    public double b() { return b; }
+
+    public double[] feature() { return feature; }
+
+    static float next(RandomGenerator rng) {
+        return (float)rng.nextDouble();
+    }
+
+    public void samplePixel(int i, int j, int imageW, int imageH, int samplesPerPixel, int first) {
+        double sr = 0, sg = 0, sb = 0;
+        if (sampler != null) {
+            double[] p = sampler.pixel(i, j, first, samplesPerPixel);
+            for (int s = 0; s < samplesPerPixel; s++) {
+                float u = (float)(((double)i + p[4*s]) / (imageW - 1));
+                float v = (float)(((double)j + p[4*s+1]) / (imageH - 1));
+                lensRay((float)p[4*s+2], (float)p[4*s+3], u, v);
+                rayColor(sampler.rng);
+                sr += cr; sg += cg; sb += cb;
+            }
+        } else {
+            RandomGenerator rng = Rng.current();
+            for (int s = 0; s < samplesPerPixel; s++) {
+                float u = (float)(((double)i + rng.nextDouble()) / (imageW - 1));
+                float v = (float)(((double)j + rng.nextDouble()) / (imageH - 1));
+                float rx, ry;
+                if (Directions.closedForm) {
+                    // Directions.inUnitDisk.
+                    float a = 2 * next(rng) - 1, b = 2 * next(rng) - 1;
+                    boolean wide = a * a > b * b;
+                    float r = wide ? a : b;
+                    float phi = wide ? (float)(Math.PI / 4) * (b / a)
+                        : (float)(Math.PI / 2) - (float)(Math.PI / 4) * (a / (b != 0 ? b : 1));
+                    rx = r * (float)Math.cos(phi);
+                    ry = r * (float)Math.sin(phi);
+                } else {
+                    do {
+                        rx = -1 + (2 * next(rng));
+                        ry = -1 + (2 * next(rng));
+                    } while (!(rx*rx + ry*ry < 1));
+                }
+                lensRay(rx, ry, u, v);
+                rayColor(rng);
+                sr += cr; sg += cg; sb += cb;
+            }
+        }
+        r = sr; g = sg; b = sb;
+    }
+
+    void lensRay(float rx, float ry, float s, float t) {
+        rx = rx * lensRadius;
+        ry = ry * lensRadius;
+        float offX = uX * rx + vX * ry;
+        float offY = uY * rx + vY * ry;
+        float offZ = uZ * rx + vZ * ry;
+        dx = lowerX + horizX * s + vertX * t - originX - offX;
+        dy = lowerY + horizY * s + vertY * t - originY - offY;
+        dz = lowerZ + horizZ * s + vertZ * t - originZ - offZ;
+        ox = originX + offX;
+        oy = originY + offY;
+        oz = originZ + offZ;
+    }
+
+    /** Trace the current ray; radiance is left in cr, cg, cb. */
+    void rayColor(RandomGenerator rng) {
+        RenderStats.Counters c = counters;
+        FloatScene s = scene;
+        float ar = 1, ag = 1, ab = 1;
+        int bounces = maxBounces;
+        int depth = 0;
+        paths++;
+        double[] f = feature;
+        if (f != null) f[Features.SAMPLES]++;
+        float distance = 0;
+        while (bounces >= 0) {
+            int m = hit();
+            segments++;
+            depth++;
+            if (m < 0) {
+                float len = (float)Math.sqrt(dx*dx + dy*dy + dz*dz);
+                float t = .5f * (dy / len + 1f);
+                cr = ((1-t) + .5f * t) * ar;
+                cg = ((1-t) + .7f * t) * ag;
+                cb = ((1-t) + 1f * t) * ab;
+                if (c != null) { c.escaped++; c.depth[depth]++; }
+                if (f != null) Features.sky(f, cr, cg, cb);
+                if (feature != null) Features.radiance(feature, cr, cg, cb);
+                return;
+            }
+            if (f != null) {
+                distance += (float)Math.sqrt((px-ox)*(px-ox) + (py-oy)*(py-oy) + (pz-oz)*(pz-oz));
+                if (!(s.kind[m] == FlatKernel.METAL && s.param[m] < Features.MIRROR_FUZZ)) {
+                    Features.surface(f, ar * s.albedoR[m], ag * s.albedoG[m], ab * s.albedoB[m], nx, ny, nz, distance);
+                    f = null;
+                }
+            }
+            boolean scattered;
+            switch (s.kind[m]) {
+            case FlatKernel.LAMBERTIAN: scattered = scatterLambertian(rng); break;
+            case FlatKernel.METAL: scattered = scatterMetal(rng, s.param[m]); break;
+            default: scattered = scatterDielectric(rng, s.param[m]);
+            }
+            if (!scattered) {
+                if (c != null) c.absorbed++;
+                break;
+            }
+            ar = ar * s.albedoR[m]; ag = ag * s.albedoG[m]; ab = ab * s.albedoB[m];
+            bounces--;
+            if (rouletteDepth >= 0 && maxBounces - bounces >= rouletteDepth) {
+                float p = Math.min(1, Math.max(ar, Math.max(ag, ab)));
+                if (p < 1) {
+                    if (next(rng) >= p) {
+                        if (c != null) c.roulette++;
+                        break;
+                    }
+                    ar = ar * (1 / p); ag = ag * (1 / p); ab = ab * (1 / p);
+                }
+            }
+            if (bounces < 0 && c != null) c.bounceLimit++;
+        }
+        if (c != null) c.depth[depth]++;
+        cr = cg = cb = 0;
+    }
+
+    public void flushStats() {
+        if (counters != null) {
+            counters.paths += paths;
+            counters.rays += segments;
+            if (scene.bounds == null) counters.sphereTests += segments * scene.size;
+        }
+        paths = segments = 0;
+    }
+
+    /** Intersect the current ray; fills the hit fields and returns the material, or -1. */
+    int hit() {
+        FloatScene s = scene;
+        int i = s.closest(ox, oy, oz, dx, dy, dz, stack, counters);
+        if (i < 0) return -1;
+        float root = s.root(i, ox, oy, oz, dx, dy, dz, dx*dx + dy*dy + dz*dz);
+        float rad = s.radius[i];
+        px = ox + dx * root; py = oy + dy * root; pz = oz + dz * root;
+        float onx = (px - s.cx[i]) / rad, ony = (py - s.cy[i]) / rad, onz = (pz - s.cz[i]) / rad;
+        frontFace = dx * onx + dy * ony + dz * onz < 0;
+        if (frontFace) { nx = onx; ny = ony; nz = onz; }
+        else { nx = -onx; ny = -ony; nz = -onz; }
+        return s.material[i];
+    }
+
+    boolean scatterLambertian(RandomGenerator rng) {
+        unitVector(rng);
+        float sx = nx + qx, sy = ny + qy, sz = nz + qz;
+        if (Math.abs(sx) < NEAR_ZERO && Math.abs(sy) < NEAR_ZERO && Math.abs(sz) < NEAR_ZERO) {
+            sx = nx; sy = ny; sz = nz;
+        }
+        ox = px; oy = py; oz = pz;
+        dx = sx; dy = sy; dz = sz;
+        return true;
+    }
+
+    boolean scatterMetal(RandomGenerator rng, float fuzz) {
+        float len = (float)Math.sqrt(dx*dx + dy*dy + dz*dz);
+        float ux = dx / len, uy = dy / len, uz = dz / len;
+        float d = ux * nx + uy * ny + uz * nz;
+        float rx = ux - nx * 2 * d, ry = uy - ny * 2 * d, rz = uz - nz * 2 * d;
+        if (rx * nx + ry * ny + rz * nz < 0) return false;
+        unitVector(rng);
+        ox = px; oy = py; oz = pz;
+        dx = rx + qx * fuzz;
+        dy = ry + qy * fuzz;
+        dz = rz + qz * fuzz;
+        return true;
+    }
+
+    /** Unit vector uniform on the sphere into qx, qy, qz: FlatKernel.unitVector in float. */
+    void unitVector(RandomGenerator rng) {
+        if (Directions.closedForm) {
+            float z = 1 - 2 * next(rng);
+            float r = (float)Math.sqrt(Math.max(0, 1 - z * z));
+            float phi = (float)(2 * Math.PI) * next(rng);
+            qx = r * (float)Math.cos(phi); qy = r * (float)Math.sin(phi); qz = z;
+            return;
+        }
+        float x, y, z;
+        do {
+            x = -1 + (2 * next(rng));
+            y = -1 + (2 * next(rng));
+            z = -1 + (2 * next(rng));
+        } while (!(x*x + y*y + z*z < 1));
+        float len = (float)Math.sqrt(x*x + y*y + z*z);
+        qx = x / len; qy = y / len; qz = z / len;
+    }
+
+    boolean scatterDielectric(RandomGenerator rng, float refractionIndex) {
+        float ratio = frontFace ? 1/refractionIndex : refractionIndex;
+        float len = (float)Math.sqrt(dx*dx + dy*dy + dz*dz);
+        float ux = dx / len, uy = dy / len, uz = dz / len;
+        float cos = Math.min(-ux * nx + -uy * ny + -uz * nz, 1f);
+        float sin = (float)Math.sqrt(1f - cos * cos);
+        boolean cantRefract = ratio * sin > 1f;
+        ox = px; oy = py; oz = pz;
+        if (cantRefract || reflectance(cos, ratio) > next(rng)) {
+            float d = ux * nx + uy * ny + uz * nz;
+            dx = ux - nx * 2 * d; dy = uy - ny * 2 * d; dz = uz - nz * 2 * d;
+        } else {
+            float perpX = (ux + nx * cos) * ratio;
+            float perpY = (uy + ny * cos) * ratio;
+            float perpZ = (uz + nz * cos) * ratio;
+            float k = -(float)Math.sqrt(Math.abs(1 - (perpX*perpX + perpY*perpY + perpZ*perpZ)));
+            dx = perpX + nx * k; dy = perpY + ny * k; dz = perpZ + nz * k;
+        }
+        return true;
+    }
+
+    /** Schlick's approximation, as Material.Dielectric.reflectance. */
+    static float reflectance(float cosine, float index) {
+        float r0 = (1 - index) / (1 + index);
+        r0 = r0 * r0;
+        float m = 1 - cosine;
+        return r0 + (1 - r0) * (m * m * m * m * m);
+    }
+}
@@ -0,0 +1,178 @@
+package raytracer;
+
+/**
+ * Single-precision copy of a scene's geometry for FloatKernel: the columns of
+ * a SphereSoA and, if there is one, the Bvh over them, as float[]. Half the
+ * bytes of the double data per sphere and node, and twice the lanes per
+ * vector in the SIMD scan.
+ *
+ * Float changes two things besides rounding. The sphere test computes the
+ * discriminant from the ray's closest approach to the center instead of
+ * half_b^2 - a*c, which cancels catastrophically in float for large or
+ * distant spheres (the ground sphere has radius 1000). Box bounds are rounded
+ * outward and the slab test widened by a few ulps, so rounding never drops a
+ * node the double BVH would visit.
+ */
+public final class FloatScene {
+
+    static final float T_MIN = (float)SphereSoA.T_MIN;
+    // Relative widening of the slab test's far distance, 2 * gamma(3) in
+    // PBRT's terms.
+    static final float SLAB = 1 + 2 * (3 * 0x1.0p-24f) / (1 - 3 * 0x1.0p-24f);
+
+    interface Kernel {
+        /** Index of the closest sphere hit in [T_MIN, tMax], or -1. */
+        int closest(FloatScene s, float ox, float oy, float oz, float dx, float dy, float dz, float tMax);
+    }
+
+    static final Kernel SCALAR = FloatScene::closestScalar;
+    static final Kernel SIMD = loadSimd();
+
+    final int size;
+    final float[] cx, cy, cz, radius, radius2;
+    final int[] material;
+    final Kernel kernel;
+
+    final int[] kind;
+    final float[] albedoR, albedoG, albedoB, param;
+
+    // BVH over the spheres in the same order, or null for a scan.
+    final float[] bounds;
+    final int[] first, count;
+
+    FloatScene(SphereSoA soa, Bvh bvh) {
+        size = soa.size;
+        cx = floats(soa.cx); cy = floats(soa.cy); cz = floats(soa.cz);
+        radius = floats(soa.radius);
+        radius2 = new float[size];
+        for (int i = 0; i < size; i++) radius2[i] = radius[i] * radius[i];
+        material = soa.material;
+        kind = soa.kind;
+        albedoR = floats(soa.albedoR); albedoG = floats(soa.albedoG); albedoB = floats(soa.albedoB);
+        param = floats(soa.param);
+        kernel = (soa.isSimd() && SIMD != null) ? SIMD : SCALAR;
+        if (bvh != null) {
+            int nodes = bvh.nodeCount;
+            bounds = new float[6 * nodes];
+            for (int b = 0; b < 6 * nodes; b++) {
+                double v = bvh.bounds[b];
+                float f = (float)v;
+                // Minimum corners round down, maximum corners up.
+                if (b % 6 < 3) { if (f > v) f = Math.nextDown(f); }
+                else if (f < v) f = Math.nextUp(f);
+                bounds[b] = f;
+            }
+            first = bvh.first;
+            count = bvh.count;
+        } else {
+            bounds = null;
+            first = count = null;
+        }
+    }
+
+    /** Scan of world's spheres, for benchmarks. */
+    public FloatScene(Sphere[] world) {
+        this(new SphereSoA(world), null);
+    }
+
+    static float[] floats(double[] a) {
+        float[] f = new float[a.length];
+        for (int i = 0; i < a.length; i++) f[i] = (float)a[i];
+        return f;
+    }
+
+    static Kernel loadSimd() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) return null;
+        try {
+            return (Kernel)Class.forName("raytracer.FloatSimdIntersect").getDeclaredConstructor().newInstance();
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+    public int closest(Ray r) {
+        Vec3 o = r.origin, d = r.direction;
+        return kernel.closest(this, (float)o.x, (float)o.y, (float)o.z, (float)d.x, (float)d.y, (float)d.z,
+                              Float.MAX_VALUE);
+    }
+
+    /** Nearest root of sphere i, or NaN when the ray misses it. a is d.d. */
+    float root(int i, float ox, float oy, float oz, float dx, float dy, float dz, float a) {
+        float ocx = ox - cx[i], ocy = oy - cy[i], ocz = oz - cz[i];
+        float halfB = ocx * dx + ocy * dy + ocz * dz;
+        // Offset of the center from the ray's closest point to it.
+        float k = halfB / a;
+        float lx = ocx - k * dx, ly = ocy - k * dy, lz = ocz - k * dz;
+        float discriminant = a * (radius2[i] - (lx*lx + ly*ly + lz*lz));
+        if (discriminant < 0) return Float.NaN;
+        return (-halfB - (float)Math.sqrt(discriminant)) / a;
+    }
+
+    static int closestScalar(FloatScene s, float ox, float oy, float oz, float dx, float dy, float dz, float tMax) {
+        return s.closestScalar(0, s.size, ox, oy, oz, dx, dy, dz, tMax, -1);
+    }
+
+    int closestScalar(int from, int to, float ox, float oy, float oz,
+                      float dx, float dy, float dz, float best, int bestIdx) {
+        float a = dx*dx + dy*dy + dz*dz;
+        for (int i = from; i < to; i++) {
+            float root = root(i, ox, oy, oz, dx, dy, dz, a);
+            if (root >= T_MIN && root <= best) {
+                best = root;
+                bestIdx = i;
+            }
+        }
+        return bestIdx;
+    }
+
+    /** Closest sphere through the BVH if there is one, else with kernel; -1 on a miss. */
+    int closest(float ox, float oy, float oz, float dx, float dy, float dz, int[] stack,
+                RenderStats.Counters c) {
+        float best = Float.MAX_VALUE;
+        if (bounds == null) return kernel.closest(this, ox, oy, oz, dx, dy, dz, best);
+        int bestIdx = -1;
+        if (size == 0) return bestIdx;
+        float ix = 1 / dx, iy = 1 / dy, iz = 1 / dz;
+        float a = dx*dx + dy*dy + dz*dz;
+        int sp = 0;
+        if (enter(0, ox, oy, oz, ix, iy, iz, best) == Float.POSITIVE_INFINITY) return bestIdx;
+        stack[sp++] = 0;
+        while (sp > 0) {
+            int node = stack[--sp];
+            int n = count[node];
+            if (n > 0) {
+                if (c != null) c.sphereTests += n;
+                int i = closestScalar(first[node], first[node] + n, ox, oy, oz, dx, dy, dz, best, bestIdx);
+                if (i != bestIdx) {
+                    bestIdx = i;
+                    best = root(i, ox, oy, oz, dx, dy, dz, a);
+                }
+            } else {
+                int left = first[node], right = left + 1;
+                float tl = enter(left, ox, oy, oz, ix, iy, iz, best);
+                float tr = enter(right, ox, oy, oz, ix, iy, iz, best);
+                if (tl <= tr) {
+                    if (tr != Float.POSITIVE_INFINITY) stack[sp++] = right;
+                    if (tl != Float.POSITIVE_INFINITY) stack[sp++] = left;
+                } else {
+                    if (tl != Float.POSITIVE_INFINITY) stack[sp++] = left;
+                    stack[sp++] = right;
+                }
+            }
+        }
+        return bestIdx;
+    }
+
+    /** Same as Bvh.enter, with the far distance widened by SLAB. */
+    private float enter(int node, float ox, float oy, float oz, float ix, float iy, float iz, float tMax) {
+        int b = 6 * node;
+        float t0 = (bounds[b]   - ox) * ix, t1 = (bounds[b+3] - ox) * ix;
+        float tmin = Math.min(t0, t1), tmax = Math.max(t0, t1);
+        t0 = (bounds[b+1] - oy) * iy; t1 = (bounds[b+4] - oy) * iy;
+        tmin = Math.max(tmin, Math.min(t0, t1)); tmax = Math.min(tmax, Math.max(t0, t1));
+        t0 = (bounds[b+2] - oz) * iz; t1 = (bounds[b+5] - oz) * iz;
+        tmin = Math.max(tmin, Math.min(t0, t1)); tmax = Math.min(tmax, Math.max(t0, t1));
+        tmin = Math.max(tmin, 0);
+        return (tmin <= tmax * SLAB && tmin <= tMax) ? tmin : Float.POSITIVE_INFINITY;
+    }
+}
@@ -0,0 +1,41 @@
+package raytracer;
+
+import jdk.incubator.vector.*;
+
+/**
+ * Vector API kernel for FloatScene, the float counterpart of SimdIntersect:
+ * twice as many spheres per vector. Lane-wise mul/add/sqrt/div in the same
+ * order as FloatScene.root, so it finds the same sphere as the scalar scan.
+ */
+class FloatSimdIntersect implements FloatScene.Kernel {
+
+    static final VectorSpecies<Float> S = FloatVector.SPECIES_PREFERRED;
+
+    public int closest(FloatScene s, float ox, float oy, float oz,
+                       float dx, float dy, float dz, float tMax) {
+        float a = dx*dx + dy*dy + dz*dz;
+        float best = tMax;
+        int bestIdx = -1;
+        int i = 0;
+        for (int upper = S.loopBound(s.size); i < upper; i += S.length()) {
+            FloatVector ocx = FloatVector.broadcast(S, ox).sub(FloatVector.fromArray(S, s.cx, i));
+            FloatVector ocy = FloatVector.broadcast(S, oy).sub(FloatVector.fromArray(S, s.cy, i));
+            FloatVector ocz = FloatVector.broadcast(S, oz).sub(FloatVector.fromArray(S, s.cz, i));
+            FloatVector halfB = ocx.mul(dx).add(ocy.mul(dy)).add(ocz.mul(dz));
+            FloatVector k = halfB.div(a);
+            FloatVector lx = ocx.sub(k.mul(dx)), ly = ocy.sub(k.mul(dy)), lz = ocz.sub(k.mul(dz));
+            FloatVector disc = FloatVector.fromArray(S, s.radius2, i)
+                .sub(lx.mul(lx).add(ly.mul(ly)).add(lz.mul(lz))).mul(a);
+            VectorMask<Float> valid = disc.compare(VectorOperators.GE, 0);
+            if (!valid.anyTrue()) continue;
+            FloatVector root = halfB.neg().sub(disc.sqrt()).div(a);
+            valid = valid.and(root.compare(VectorOperators.GE, FloatScene.T_MIN))
+                .and(root.compare(VectorOperators.LE, best));
+            if (!valid.anyTrue()) continue;
+            float m = root.reduceLanes(VectorOperators.MIN, valid);
+            best = m;
+            bestIdx = i + root.compare(VectorOperators.EQ, m).and(valid).lastTrue();
+        }
+        return s.closestScalar(i, s.size, ox, oy, oz, dx, dy, dz, best, bestIdx);
+    }
+}
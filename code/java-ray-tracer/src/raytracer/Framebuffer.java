@@ -0,0 +1,179 @@
+package raytracer;
+
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.file.*;
+
+/**
+ * Radiance accumulation buffer for progressive rendering: per-pixel sums of
+ * all samples taken so far, in image coordinates (y down). Converted to 8-bit
+ * only when resolved. Can be checkpointed to disk and loaded back to resume
+ * or refine a render.
+ *
+ * A checkpoint also records what its samples are of: the scene id, root
+ * seed and maxBounces. checkResume refuses to add samples of a different
+ * render to them. A render that will be denoised keeps its Features in
+ * the checkpoint too, summed over the same samples as the radiance.
+ *
+ * A buffer may also hold just a band of rows [y0, y0+rows) of a
+ * width x height image, for streaming output of very large images.
+ */
+public class Framebuffer {
+
+    static final int MAGIC = 0x52544642; // "RTFB"
+    static final int VERSION = 4;
+
+    final int width, height;
+    final int y0, rows;
+    final double[] rgb;
+    int samples;
+    int passes;
+    // Samples taken per pixel, when they differ between pixels (adaptive
+    // sampling). Otherwise every pixel has samples samples.
+    int[] pixelSamples;
+    // The render the samples belong to. sceneId is null in checkpoints
+    // written before version 3.
+    String sceneId;
+    long seed;
+    int maxBounces;
+    // First-hit features of the same samples, or null.
+    Features features;
+
+    public Framebuffer(int width, int height) {
+        this(width, height, 0, height);
+    }
+
+    Framebuffer(int width, int height, int y0, int rows) {
+        this.width = width;
+        this.height = height;
+        this.y0 = y0;
+        this.rows = rows;
+        this.rgb = new double[3 * width * rows];
+    }
+
+    static Framebuffer band(int width, int height, int y0, int rows) {
+        return new Framebuffer(width, height, y0, rows);
+    }
+
+    public int samples() { return samples; }
+
+    int samplesAt(int x, int y) {
+        return pixelSamples != null ? pixelSamples[(y - y0) * width + x] : samples;
+    }
+
+    long totalSamples() {
+        if (pixelSamples == null) return (long)samples * width * rows;
+        long n = 0;
+        for (int c : pixelSamples) n += c;
+        return n;
+    }
+
+    void add(int x, int y, double r, double g, double b) {
+        int p = 3 * ((y - y0) * width + x);
+        rgb[p] += r;
+        rgb[p+1] += g;
+        rgb[p+2] += b;
+    }
+
+    public BufferedImage resolve() {
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        resolve(new Render(img));
+        return img;
+    }
+
+    void resolve(Render render) {
+        for (int y = y0; y < y0 + rows; y++)
+            for (int x = 0; x < width; x++) {
+                int p = 3 * ((y - y0) * width + x);
+                render.putPixel(x, y, rgb[p], rgb[p+1], rgb[p+2], Math.max(samplesAt(x, y), 1));
+            }
+    }
+
+    /** Samples per pixel as a blue (few) to red (maxSamples) heat map. */
+    public BufferedImage heatMap(int maxSamples) {
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < height; y++)
+            for (int x = 0; x < width; x++) {
+                double t = Math.min(1, (double)samplesAt(x, y) / maxSamples);
+                int r = (int)(255.999 * t);
+                int g = (int)(255.999 * (1 - Math.abs(2 * t - 1)));
+                int b = (int)(255.999 * (1 - t));
+                img.setRGB(x, y, 0xFF000000 | (r << 16) | (g << 8) | b);
+            }
+        return img;
+    }
+
+    /** Write atomically, so a render killed mid-checkpoint keeps the previous one. */
+    public void save(Path file) throws IOException {
+        if (rows != height) throw new IllegalStateException("Only full-image buffers can be saved");
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeInt(samples);
+            out.writeInt(passes);
+            out.writeUTF(sceneId != null ? sceneId : "");
+            out.writeLong(seed);
+            out.writeInt(maxBounces);
+            for (double d : rgb) out.writeDouble(d);
+            out.writeBoolean(pixelSamples != null);
+            if (pixelSamples != null)
+                for (int c : pixelSamples) out.writeInt(c);
+            out.writeBoolean(features != null);
+            if (features != null)
+                for (double d : features.data) out.writeDouble(d);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static Framebuffer load(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                 new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC) throw new IOException("Not a framebuffer checkpoint: " + file);
+            int version = in.readInt();
+            if (version < 1 || version > VERSION) throw new IOException("Unsupported checkpoint version " + version);
+            Framebuffer fb = new Framebuffer(in.readInt(), in.readInt());
+            fb.samples = in.readInt();
+            fb.passes = in.readInt();
+            if (version >= 3) {
+                String id = in.readUTF();
+                fb.sceneId = id.isEmpty() ? null : id;
+                fb.seed = in.readLong();
+                fb.maxBounces = in.readInt();
+            }
+            for (int i = 0; i < fb.rgb.length; i++) fb.rgb[i] = in.readDouble();
+            if (version >= 2 && in.readBoolean()) {
+                fb.pixelSamples = new int[fb.width * fb.height];
+                for (int i = 0; i < fb.pixelSamples.length; i++) fb.pixelSamples[i] = in.readInt();
+            }
+            if (version >= 4 && in.readBoolean()) {
+                fb.features = new Features(fb.width, fb.height);
+                for (int i = 0; i < fb.features.data.length; i++) fb.features.data[i] = in.readDouble();
+            }
+            return fb;
+        }
+    }
+
+    /** Record which render the samples belong to. */
+    void describe(String sceneId, long seed, int maxBounces) {
+        this.sceneId = sceneId;
+        this.seed = seed;
+        this.maxBounces = maxBounces;
+    }
+
+    /** Throw unless more samples of this render can be added to this checkpoint. */
+    void checkResume(Path file, int width, int height, String sceneId, long seed, int maxBounces) {
+        if (this.width != width || this.height != height)
+            throw new IllegalArgumentException(String.format("Checkpoint %s is %dx%d, not %dx%d", file,
+                                                             this.width, this.height, width, height));
+        if (this.sceneId == null)
+            throw new IllegalArgumentException("Checkpoint " + file + " does not record its scene; delete it to start over");
+        if (!this.sceneId.equals(sceneId) || this.seed != seed || this.maxBounces != maxBounces)
+            throw new IllegalArgumentException(String.format(
+                "Checkpoint %s is of scene %s, seed %x, maxBounces %d, not scene %s, seed %x, maxBounces %d", file,
+                this.sceneId, this.seed, this.maxBounces, sceneId, seed, maxBounces));
+    }
+}
@@ -0,0 +1,25 @@
+package raytracer;
+
+/**
+ * A set of hittables with a BVH over their bounds. Children can be Groups,
+ * Meshes or Instances in turn, so BVHs nest: the scene's top-level tree finds
+ * the instances a ray may hit, and each instance traverses its geometry's own
+ * tree in object space.
+ */
+public class Group extends BoxTree {
+
+    final Hittable[] children;
+
+    public Group(Hittable[] children) {
+        int n = children.length;
+        double[] boxes = new double[6 * n];
+        for (int i = 0; i < n; i++) System.arraycopy(children[i].box(), 0, boxes, 6 * i, 6);
+        int[] order = build(boxes, n);
+        this.children = new Hittable[n];
+        for (int i = 0; i < n; i++) this.children[i] = children[order[i]];
+    }
+
+    HitRecord hitItem(int i, Ray r, double tMax) {
+        return children[i].hit(r, tMax);
+    }
+}
@@ -19,4 +19,10 @@ public class HitRecord {
         this.frontFace = frontFace;
         this.miss = miss;
     }
+
+    public double t() { return t; }
+
+    public boolean isMiss() { return miss; }
+
+    public Material material() { return material; }
 }
@@ -0,0 +1,16 @@
+package raytracer;
+
+/**
+ * Anything a ray can hit in the object kernel: a Sphere, a triangle Mesh, a
+ * Group with its own BVH, or an Instance placing any of these with a
+ * transform. Hittables are immutable once built, so one geometry can be
+ * shared by any number of instances and threads.
+ */
+public interface Hittable {
+
+    /** Closest hit with t in [0.01, tMax], or HitRecord.MISS. */
+    HitRecord hit(Ray r, double tMax);
+
+    /** Axis-aligned bounds as { minX, minY, minZ, maxX, maxY, maxZ }. */
+    double[] box();
+}
@@ -0,0 +1,23 @@
+package raytracer;
+
+import java.io.*;
+import java.nio.file.*;
+
+/**
+ * Destination for an image that arrives as bands of finished rows, so the
+ * whole image never has to be in memory. Bands are written from top to
+ * bottom, from a single thread.
+ */
+public interface ImageSink extends Closeable {
+
+    void write(Framebuffer band) throws IOException;
+
+    /** Pick the format by extension: .png, .ppm (8-bit) or .pfm (float). */
+    static ImageSink open(Path file, int width, int height) throws IOException {
+        String name = file.getFileName().toString().toLowerCase();
+        if (name.endsWith(".png")) return new PngSink(file, width, height);
+        if (name.endsWith(".ppm")) return new MappedSink(file, width, height, false);
+        if (name.endsWith(".pfm")) return new MappedSink(file, width, height, true);
+        throw new IllegalArgumentException("Unsupported output format: " + file);
+    }
+}
@@ -0,0 +1,86 @@
+package raytracer;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Look-dev loop on the random scene with IncrementalRender: a full render,
+ * then a series of edits, each re-rendered incrementally. For every edit
+ * reports the dirty tiles, the time against a full render of the edited
+ * world, and whether the two images are identical.
+ *
+ *   java -cp target raytracer.IncrementalBench [width] [spp] [threads]
+ */
+public class IncrementalBench {
+
+    record Edit(String name, Consumer<IncrementalRender> apply) {}
+
+    // Indices in Scene.buildRandomWorld: the ground, the big glass,
+    // Lambertian and metal spheres, then the small random ones.
+    static final int BIG_LAMBERTIAN = 2, BIG_METAL = 3, FIRST_SMALL = 4;
+
+    static double seconds(long start) { return (System.nanoTime() - start) / 1e9; }
+
+    public static void main(String[] args) {
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : 400;
+        int spp = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        int height = (int)(width / (3./2.));
+
+        Scene scene = new Scene();
+        Rng.reset();
+        Sphere[] world = scene.buildRandomWorld();
+        int n = world.length;
+        // A small sphere in front (closest to the camera) and one at the back.
+        int front = FIRST_SMALL, back = FIRST_SMALL;
+        for (int i = FIRST_SMALL; i < n; i++) {
+            if (distance(world[i], Scene.LOOK_FROM) < distance(world[front], Scene.LOOK_FROM)) front = i;
+            if (distance(world[i], Scene.LOOK_FROM) > distance(world[back], Scene.LOOK_FROM)) back = i;
+        }
+        int frontSphere = front, backSphere = back;
+        Material ground = world[0].material;
+        List<Edit> edits = List.of(
+            new Edit("nudge front sphere", r -> r.setSphere(frontSphere, moved(r.world[frontSphere], .15))),
+            new Edit("recolour back sphere", r -> r.setSphere(backSphere, new Sphere(r.world[backSphere].center, r.world[backSphere].radius,
+                                                                                       new Material.Lambertian(new Vec3(.9, .1, .1))))),
+            new Edit("recolour big sphere", r -> r.setSphere(BIG_LAMBERTIAN, new Sphere(r.world[BIG_LAMBERTIAN].center,
+                                                                                      r.world[BIG_LAMBERTIAN].radius,
+                                                                                      new Material.Lambertian(new Vec3(.1, .3, .8))))),
+            new Edit("move big metal sphere", r -> r.setSphere(BIG_METAL, moved(r.world[BIG_METAL], .5))),
+            new Edit("ground material", r -> r.setMaterial(ground, new Material.Lambertian(new Vec3(.6, .5, .4)))));
+
+        try (IncrementalRender r = new IncrementalRender(scene, world, width, height, spp, 16, threads, Rng.DEFAULT_SEED)) {
+            long start = System.nanoTime();
+            r.render();
+            System.out.println(String.format("%dx%d %d spp, %d tiles: full render %.2f s", width, height, spp, r.tiles(),
+                                             seconds(start)));
+            for (Edit e : edits) {
+                e.apply.accept(r);
+                int dirty = r.dirtyTiles();
+                start = System.nanoTime();
+                r.render();
+                double incremental = seconds(start);
+
+                Scene fresh = new Scene();
+                try (IncrementalRender full = new IncrementalRender(fresh, r.world, width, height, spp, 16, threads,
+                                                                    Rng.DEFAULT_SEED)) {
+                    start = System.nanoTime();
+                    full.render();
+                    double fullSeconds = seconds(start);
+                    boolean same = Arrays.equals(r.fb.rgb, full.fb.rgb);
+                    System.out.println(String.format("%-22s %4d/%d tiles %6.3f s vs full %6.3f s (%5.1fx)  %s", e.name, dirty,
+                                                     r.tiles(), incremental, fullSeconds, fullSeconds / incremental,
+                                                     same ? "identical" : "DIFFERENT"));
+                }
+            }
+        }
+    }
+
+    static double distance(Sphere s, Vec3 p) {
+        return s.center.sub(p).length();
+    }
+
+    static Sphere moved(Sphere s, double by) {
+        return new Sphere(s.center.add(new Vec3(by, 0, by)), s.radius, s.material);
+    }
+}
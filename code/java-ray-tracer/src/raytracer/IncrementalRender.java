@@ -0,0 +1,308 @@
+package raytracer;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Keeps a rendered image and, per tile, a Footprint of where its rays went,
+ * so that after an edit to the world only the tiles the edit can affect are
+ * traced again. Renders with FlatKernel.
+ *
+ * A footprint holds the spheres the tile's primary and secondary rays hit,
+ * and the cells of a uniform grid over the scene that those path segments
+ * crossed (escaped rays up to where they leave the grid). Taking a sphere
+ * away or changing its material only changes paths that hit it. A sphere
+ * put somewhere new only changes paths with a segment through its box,
+ * which is grown by a cell to absorb rounding in the grid walk. Every tile
+ * keeps its Rng stream, split from seed in tile order as in
+ * Scene.paintParallel, so clean tiles would trace exactly the same paths
+ * again: the result matches a full render of the edited world bit for bit.
+ *
+ * The grid covers the spheres of radius up to LARGE, which leaves out a
+ * ground sphere. A sphere placed outside it, a new camera or a new spp
+ * means a full render, after which the grid is fitted to the world again.
+ */
+public class IncrementalRender implements AutoCloseable {
+
+    // Spheres larger than this (a ground) stay out of the grid bounds.
+    static final double LARGE = 100;
+    static final int MAX_CELLS = 1 << 15;
+
+    /** Uniform grid of cubic cells over a box, for footprints. */
+    static final class Grid {
+        final double[] min = new double[3], max = new double[3];
+        final int[] dims = new int[3];
+        final double size;
+        final int cells;
+
+        Grid(Sphere[] world) {
+            Arrays.fill(min, Double.POSITIVE_INFINITY);
+            Arrays.fill(max, Double.NEGATIVE_INFINITY);
+            for (Sphere s : world) {
+                if (s.radius > LARGE) continue;
+                double[] b = s.box();
+                for (int a = 0; a < 3; a++) {
+                    min[a] = Math.min(min[a], b[a]);
+                    max[a] = Math.max(max[a], b[a + 3]);
+                }
+            }
+            if (min[0] > max[0]) {
+                Arrays.fill(min, 0);
+                Arrays.fill(max, 1);
+            }
+            double volume = 1;
+            for (int a = 0; a < 3; a++) volume *= Math.max(max[a] - min[a], 1e-3);
+            double cell = Math.cbrt(volume / MAX_CELLS);
+            int n = 1;
+            for (int a = 0; a < 3; a++) {
+                dims[a] = Math.max(1, (int)Math.ceil((max[a] - min[a]) / cell));
+                n *= dims[a];
+            }
+            // Rounding up can overshoot MAX_CELLS a little; that is harmless.
+            size = cell;
+            cells = n;
+            for (int a = 0; a < 3; a++) max[a] = min[a] + dims[a] * size;
+        }
+
+        boolean contains(double[] box) {
+            for (int a = 0; a < 3; a++)
+                if (box[a] < min[a] || box[a + 3] > max[a]) return false;
+            return true;
+        }
+
+        int index(int x, int y, int z) { return (x * dims[1] + y) * dims[2] + z; }
+
+        int cell(double p, int a) {
+            return Math.min(dims[a] - 1, Math.max(0, (int)Math.floor((p - min[a]) / size)));
+        }
+
+        /** Mark in f.cells the cells crossed by o + t d for t in [0, tMax] (Amanatides and Woo). */
+        void mark(Footprint f, double[] o, double[] d, double tMax) {
+            double t0 = 0, t1 = tMax;
+            for (int a = 0; a < 3; a++) {
+                if (d[a] == 0) {
+                    if (o[a] < min[a] || o[a] > max[a]) return;
+                    continue;
+                }
+                double ta = (min[a] - o[a]) / d[a], tb = (max[a] - o[a]) / d[a];
+                t0 = Math.max(t0, Math.min(ta, tb));
+                t1 = Math.min(t1, Math.max(ta, tb));
+            }
+            if (t0 > t1) return;
+            int[] c = f.cell, step = f.step;
+            double[] next = f.next, delta = f.delta;
+            for (int a = 0; a < 3; a++) {
+                c[a] = cell(o[a] + d[a] * t0, a);
+                if (d[a] > 0) {
+                    step[a] = 1;
+                    next[a] = (min[a] + (c[a] + 1) * size - o[a]) / d[a];
+                    delta[a] = size / d[a];
+                } else if (d[a] < 0) {
+                    step[a] = -1;
+                    next[a] = (min[a] + c[a] * size - o[a]) / d[a];
+                    delta[a] = -size / d[a];
+                } else {
+                    step[a] = 0;
+                    next[a] = delta[a] = Double.POSITIVE_INFINITY;
+                }
+            }
+            while (true) {
+                int i = index(c[0], c[1], c[2]);
+                f.cells[i >>> 6] |= 1L << i;
+                int a = next[0] < next[1] ? (next[0] < next[2] ? 0 : 2) : (next[1] < next[2] ? 1 : 2);
+                if (next[a] > t1) return;
+                c[a] += step[a];
+                if (c[a] < 0 || c[a] >= dims[a]) return;
+                next[a] += delta[a];
+            }
+        }
+
+        /** Cells of box grown by one cell, as indices. */
+        int[] cellsAround(double[] box) {
+            int[] lo = new int[3], hi = new int[3];
+            int n = 1;
+            for (int a = 0; a < 3; a++) {
+                lo[a] = cell(box[a] - size, a);
+                hi[a] = cell(box[a + 3] + size, a);
+                n *= hi[a] - lo[a] + 1;
+            }
+            int[] out = new int[n];
+            int k = 0;
+            for (int x = lo[0]; x <= hi[0]; x++)
+                for (int y = lo[1]; y <= hi[1]; y++)
+                    for (int z = lo[2]; z <= hi[2]; z++)
+                        out[k++] = index(x, y, z);
+            return out;
+        }
+    }
+
+    /** Where one tile's rays went: spheres hit (world indices) and grid cells crossed. */
+    static final class Footprint {
+        final Grid grid;
+        final int[] toWorld;
+        final BitSet touched = new BitSet();
+        final long[] cells;
+        // Scratch for Grid.mark.
+        final double[] o = new double[3], d = new double[3], next = new double[3], delta = new double[3];
+        final int[] cell = new int[3], step = new int[3];
+
+        Footprint(Grid grid, int[] toWorld) {
+            this.grid = grid;
+            this.toWorld = toWorld;
+            this.cells = new long[(grid.cells + 63) >>> 6];
+        }
+
+        /** Record the segment k just traced. */
+        void segment(FlatKernel k, boolean hit) {
+            if (hit) touched.set(toWorld[k.hitSphere]);
+            o[0] = k.ox; o[1] = k.oy; o[2] = k.oz;
+            d[0] = k.dx; d[1] = k.dy; d[2] = k.dz;
+            grid.mark(this, o, d, hit ? k.hitT : Double.POSITIVE_INFINITY);
+        }
+
+        boolean crosses(int[] cellIndices) {
+            for (int i : cellIndices)
+                if ((cells[i >>> 6] & (1L << i)) != 0) return true;
+            return false;
+        }
+    }
+
+    final Scene scene;
+    final Sphere[] world;
+    final int imageW, imageH, tileSize;
+    final long seed;
+    final ForkJoinPool pool;
+    final List<Tile> tiles;
+    final int columns;
+    final Footprint[] footprints;
+    final BitSet dirty = new BitSet();
+    final Framebuffer fb;
+    Camera camera;
+    int samplesPerPixel;
+    Grid grid;
+    // Spheres index of the current acceleration structure -> world index.
+    int[] toWorld;
+    boolean worldChanged = true;
+
+    /** The first render() traces every tile. world is copied; edit it through setSphere and setMaterial. */
+    public IncrementalRender(Scene scene, Sphere[] world, int imageW, int imageH, int samplesPerPixel,
+                             int tileSize, int threads, long seed) {
+        this.scene = scene;
+        this.world = world.clone();
+        this.imageW = imageW;
+        this.imageH = imageH;
+        this.samplesPerPixel = samplesPerPixel;
+        this.tileSize = tileSize;
+        this.seed = seed;
+        this.camera = Scene.camera(imageW, imageH);
+        this.pool = ResourceMeter.pool(threads);
+        this.tiles = Tile.split(imageW, imageH, tileSize);
+        this.columns = (imageW + tileSize - 1) / tileSize;
+        this.footprints = new Footprint[tiles.size()];
+        this.fb = new Framebuffer(imageW, imageH);
+        invalidateAll();
+    }
+
+    public Framebuffer framebuffer() { return fb; }
+
+    /** Tiles the next render() will trace. */
+    public int dirtyTiles() { return dirty.cardinality(); }
+
+    public int tiles() { return tiles.size(); }
+
+    void invalidateAll() {
+        grid = new Grid(world);
+        dirty.set(0, tiles.size());
+    }
+
+    public void setCamera(Camera camera) {
+        this.camera = camera;
+        invalidateAll();
+    }
+
+    public void setSamplesPerPixel(int samplesPerPixel) {
+        this.samplesPerPixel = samplesPerPixel;
+        invalidateAll();
+    }
+
+    /** Replace world[index]: move, resize or re-material one sphere. */
+    public void setSphere(int index, Sphere sphere) {
+        Sphere old = world[index];
+        world[index] = sphere;
+        worldChanged = true;
+        if (dirty.cardinality() == tiles.size()) return;
+        for (int t = 0; t < tiles.size(); t++)
+            if (footprints[t].touched.get(index)) dirty.set(t);
+        Vec3 a = old.center, b = sphere.center;
+        if (a.x == b.x && a.y == b.y && a.z == b.z && old.radius == sphere.radius) return;
+        double[] box = sphere.box();
+        if (!grid.contains(box)) {
+            invalidateAll();
+            return;
+        }
+        int[] cells = grid.cellsAround(box);
+        for (int t = 0; t < tiles.size(); t++)
+            if (!dirty.get(t) && footprints[t].crosses(cells)) dirty.set(t);
+    }
+
+    /** Give every sphere with material old the material replacement. */
+    public void setMaterial(Material old, Material replacement) {
+        for (int i = 0; i < world.length; i++)
+            if (world[i].material == old) setSphere(i, new Sphere(world[i].center, world[i].radius, replacement));
+    }
+
+    /** Trace the dirty tiles; returns how many there were. */
+    public int render() {
+        if (worldChanged) {
+            scene.prepare(world);
+            toWorld = worldIndices();
+            worldChanged = false;
+        }
+        int n = dirty.cardinality();
+        if (n == 0) return 0;
+        Camera cam = camera;
+        Grid g = grid;
+        int[] indices = toWorld;
+        // Split a stream for every tile, in order, so each keeps its own.
+        Scene.forEachTile(pool, tiles, Rng.splittable(seed), tile -> {
+                int t = (tile.y0 / tileSize) * columns + tile.x0 / tileSize;
+                if (!dirty.get(t)) return;
+                footprints[t] = new Footprint(g, indices);
+                renderTile(tile, cam, footprints[t]);
+            });
+        dirty.clear();
+        fb.samples = samplesPerPixel;
+        fb.passes = 1;
+        return n;
+    }
+
+    void renderTile(Tile tile, Camera cam, Footprint footprint) {
+        FlatKernel k = new FlatKernel(scene, cam, world);
+        k.footprint = footprint;
+        for (int i = tile.x0; i < tile.x1; i++) {
+            for (int j = tile.y0; j < tile.y1; j++) {
+                k.samplePixel(i, j, imageW, imageH, samplesPerPixel, 0);
+                int p = 3 * ((imageH-j-1) * imageW + i);
+                fb.rgb[p] = k.r(); fb.rgb[p + 1] = k.g(); fb.rgb[p + 2] = k.b();
+            }
+        }
+        k.flushStats();
+    }
+
+    /** World index of each sphere in the order FlatKernel sees them. */
+    int[] worldIndices() {
+        int[] indices = new int[world.length];
+        if (scene.bvh == null) {
+            for (int i = 0; i < indices.length; i++) indices[i] = i;
+            return indices;
+        }
+        Map<Sphere, Integer> index = new IdentityHashMap<>();
+        for (int i = 0; i < world.length; i++) index.put(world[i], i);
+        for (int i = 0; i < indices.length; i++) indices[i] = index.get(scene.bvh.spheres[i]);
+        return indices;
+    }
+
+    public void close() {
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,92 @@
+package raytracer;
+
+/**
+ * A shared geometry placed with an affine transform. Only the
+ * world-to-object matrix is stored (twelve doubles, no array), and the
+ * geometry is referenced, not copied, so a placement costs about 120 bytes
+ * however large the geometry is.
+ *
+ * Rays are transformed into object space without renormalizing the
+ * direction, so t means the same in both spaces and the geometry's hit
+ * distance is returned as is. Normals go back through the inverse transpose.
+ */
+public class Instance implements Hittable {
+
+    final Hittable geometry;
+    // Replaces the geometry's material when not null.
+    final Material material;
+    // World to object: rows (m00 m01 m02 m03), (m10 ..), (m20 ..).
+    final double m00, m01, m02, m03, m10, m11, m12, m13, m20, m21, m22, m23;
+
+    /** toWorld is the object-to-world matrix as three rows of four. */
+    public Instance(Hittable geometry, double[] toWorld, Material material) {
+        this.geometry = geometry;
+        this.material = material;
+        double[] m = invert(toWorld);
+        m00 = m[0]; m01 = m[1]; m02 = m[2]; m03 = m[3];
+        m10 = m[4]; m11 = m[5]; m12 = m[6]; m13 = m[7];
+        m20 = m[8]; m21 = m[9]; m22 = m[10]; m23 = m[11];
+    }
+
+    /** Object-to-world matrix: scale, then rotate about x by tilt and about y by yaw (radians), then move to position. */
+    public static double[] placement(Vec3 position, double yaw, double tilt, double scale) {
+        double cy = Math.cos(yaw), sy = Math.sin(yaw), ct = Math.cos(tilt), st = Math.sin(tilt);
+        // Ry(yaw) * Rx(tilt) * scale
+        return new double[] {
+            cy * scale, sy * st * scale, sy * ct * scale, position.x,
+            0, ct * scale, -st * scale, position.y,
+            -sy * scale, cy * st * scale, cy * ct * scale, position.z };
+    }
+
+    /** Inverse of an affine 3x4 matrix. */
+    static double[] invert(double[] m) {
+        double a = m[0], b = m[1], c = m[2], d = m[4], e = m[5], f = m[6], g = m[8], h = m[9], k = m[10];
+        double c00 = e * k - f * h, c01 = c * h - b * k, c02 = b * f - c * e;
+        double c10 = f * g - d * k, c11 = a * k - c * g, c12 = c * d - a * f;
+        double c20 = d * h - e * g, c21 = b * g - a * h, c22 = a * e - b * d;
+        double det = a * c00 + b * c10 + c * c20;
+        if (det == 0) throw new IllegalArgumentException("Singular instance transform");
+        double s = 1 / det;
+        double[] r = {
+            c00 * s, c01 * s, c02 * s, 0,
+            c10 * s, c11 * s, c12 * s, 0,
+            c20 * s, c21 * s, c22 * s, 0 };
+        for (int row = 0; row < 3; row++)
+            r[4*row + 3] = -(r[4*row] * m[3] + r[4*row + 1] * m[7] + r[4*row + 2] * m[11]);
+        return r;
+    }
+
+    public HitRecord hit(Ray r, double tMax) {
+        Vec3 o = r.origin, d = r.direction;
+        Ray local = new Ray(new Vec3(m00 * o.x + m01 * o.y + m02 * o.z + m03,
+                                     m10 * o.x + m11 * o.y + m12 * o.z + m13,
+                                     m20 * o.x + m21 * o.y + m22 * o.z + m23),
+                            new Vec3(m00 * d.x + m01 * d.y + m02 * d.z,
+                                     m10 * d.x + m11 * d.y + m12 * d.z,
+                                     m20 * d.x + m21 * d.y + m22 * d.z));
+        HitRecord h = geometry.hit(local, tMax);
+        if (h.miss) return h;
+        Vec3 n = h.normal;
+        Vec3 normal = new Vec3(m00 * n.x + m10 * n.y + m20 * n.z,
+                               m01 * n.x + m11 * n.y + m21 * n.z,
+                               m02 * n.x + m12 * n.y + m22 * n.z).normalize();
+        return new HitRecord(r.at(h.t), normal, material != null ? material : h.material, h.t, h.frontFace, false);
+    }
+
+    /** World bounds: the geometry's box corners taken to world space. */
+    public double[] box() {
+        double[] g = geometry.box();
+        double[] w = invert(new double[] { m00, m01, m02, m03, m10, m11, m12, m13, m20, m21, m22, m23 });
+        double[] box = new double[6];
+        BoxTree.resetBox(box, 0);
+        for (int corner = 0; corner < 8; corner++) {
+            double x = g[(corner & 1) != 0 ? 3 : 0], y = g[(corner & 2) != 0 ? 4 : 1], z = g[(corner & 4) != 0 ? 5 : 2];
+            for (int row = 0; row < 3; row++) {
+                double v = w[4*row] * x + w[4*row + 1] * y + w[4*row + 2] * z + w[4*row + 3];
+                box[row] = Math.min(box[row], v);
+                box[row + 3] = Math.max(box[row + 3], v);
+            }
+        }
+        return box;
+    }
+}
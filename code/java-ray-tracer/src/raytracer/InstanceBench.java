@@ -0,0 +1,69 @@
+package raytracer;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+
+/**
+ * Memory and speed of the instanced scene: heap used by n placements (after
+ * a full GC, so it counts the instances, the shared geometry and the
+ * top-level BVH), bytes per instance, what the same scene would take with
+ * each mesh copied into world space, build time and the time to render a
+ * small image with the object kernel.
+ *
+ *   java -cp target raytracer.InstanceBench [instances] [width] [spp] [threads]
+ */
+public class InstanceBench {
+
+    static long usedHeap(MemoryMXBean memory) {
+        for (int i = 0; i < 3; i++) System.gc();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int width = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int spp = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+        Scene scene = new Scene();
+        scene.kernel = "object";
+        Rng.reset();
+        long before = usedHeap(memory);
+        long start = System.nanoTime();
+        scene.buildWorld("instances:" + n);
+        double buildSeconds = (System.nanoTime() - start) / 1e9;
+        long after = usedHeap(memory);
+
+        Group group = scene.group;
+        long meshBytes = 0, copiedBytes = 0;
+        int meshes = 0;
+        for (Hittable h : group.children) {
+            if (!(h instanceof Instance in)) continue;
+            if (in.geometry instanceof Mesh m) {
+                // A world-space copy: own vertices, indices and BVH per placement.
+                copiedBytes += m.bytes();
+            } else {
+                copiedBytes += 48; // a Sphere object and its center
+            }
+        }
+        for (Hittable h : new Hittable[] { Mesh.icosphere(3, null), Mesh.icosphere(1, null) }) {
+            meshBytes += ((Mesh)h).bytes();
+            meshes++;
+        }
+        long topLevel = 8L * group.bounds.length + 4L * (group.first.length + group.count.length) + 4L * group.children.length;
+
+        System.out.printf("instances           %d (%d shared meshes, %d bytes of mesh data)%n", n, meshes, meshBytes);
+        System.out.printf("build               %.2f s%n", buildSeconds);
+        System.out.printf("heap                %.1f MB, %.0f bytes per instance%n",
+                          (after - before) / 1e6, (after - before) / (double)n);
+        System.out.printf("  top-level BVH     %.1f MB%n", topLevel / 1e6);
+        System.out.printf("copied geometry     %.1f MB (%.0f bytes per instance) without instancing%n",
+                          copiedBytes / 1e6, copiedBytes / (double)n);
+
+        Framebuffer fb = new Framebuffer(width, (int)(width / (3./2.)));
+        start = System.nanoTime();
+        scene.paintProgressive(fb, spp, spp, 16, threads, Rng.DEFAULT_SEED + 1, f -> {});
+        System.out.printf("render %dx%d %d spp %.2f s%n", fb.width, fb.height, spp, (System.nanoTime() - start) / 1e9);
+    }
+}
@@ -0,0 +1,64 @@
+package raytracer;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+/**
+ * Raw PPM (8-bit, gamma corrected) or PFM (32-bit float, linear radiance)
+ * output. The file size is known upfront, so every band is written through
+ * its own memory-mapped region of the file.
+ */
+public class MappedSink implements ImageSink {
+
+    final int width, height;
+    final boolean pfm;
+    final FileChannel channel;
+    final long headerSize;
+
+    MappedSink(Path file, int width, int height, boolean pfm) throws IOException {
+        this.width = width;
+        this.height = height;
+        this.pfm = pfm;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        // Negative PFM scale means little-endian.
+        byte[] header = (pfm ? String.format("PF\n%d %d\n-1.0\n", width, height)
+                         : String.format("P6\n%d %d\n255\n", width, height)).getBytes("US-ASCII");
+        channel.write(ByteBuffer.wrap(header), 0);
+        this.headerSize = header.length;
+    }
+
+    long rowBytes() { return (pfm ? 12L : 3L) * width; }
+
+    public void write(Framebuffer band) throws IOException {
+        // PFM stores rows bottom to top, so a band maps to a contiguous
+        // region in both formats, just at a different place.
+        long firstRow = pfm ? height - band.y0 - band.rows : band.y0;
+        MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_WRITE,
+                                           headerSize + firstRow * rowBytes(), band.rows * rowBytes());
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        for (int r = 0; r < band.rows; r++) {
+            int y = pfm ? band.y0 + band.rows - 1 - r : band.y0 + r;
+            int p = 3 * (y - band.y0) * width;
+            for (int x = 0; x < width; x++, p += 3) {
+                int n = Math.max(band.samplesAt(x, y), 1);
+                if (pfm) {
+                    buf.putFloat((float)(band.rgb[p] / n));
+                    buf.putFloat((float)(band.rgb[p+1] / n));
+                    buf.putFloat((float)(band.rgb[p+2] / n));
+                } else {
+                    int c = Render.color(band.rgb[p], band.rgb[p+1], band.rgb[p+2], n);
+                    buf.put((byte)(c >> 16));
+                    buf.put((byte)(c >> 8));
+                    buf.put((byte)c);
+                }
+            }
+        }
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+}
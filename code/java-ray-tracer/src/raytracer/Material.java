@@ -1,5 +1,7 @@
 package raytracer;
 
+import java.util.random.RandomGenerator;
+
 public interface Material {
 
     // public Scatter scatter(Ray in, HitRecord hit);
@@ -8,12 +10,21 @@ public interface Material {
 
         Vec3 albedo;
 
-        Lambertian(Vec3 albedo) {
+        public Lambertian(Vec3 albedo) {
             this.albedo = albedo;
         }
 
         public Scatter scatter(Ray ray, HitRecord hit) {
-            Vec3 scatterDirection = hit.normal.add(Vec3.randomInUnitSphere().normalize());
+            return scatter(ray, hit, Rng.current());
+        }
+
+        Scatter scatter(Ray ray, HitRecord hit, RandomGenerator rng) {
+            return scatter(ray, hit, rng, Directions.closedForm);
+        }
+
+        /** scatter with the closed-form or the rejection sampler; see Directions. */
+        public Scatter scatter(Ray ray, HitRecord hit, RandomGenerator rng, boolean closed) {
+            Vec3 scatterDirection = hit.normal.add(Directions.unitVector(rng, closed));
             if (scatterDirection.isNearZero())
                 scatterDirection = hit.normal;
             Ray scattered = new Ray(hit.point, scatterDirection);
@@ -26,7 +37,7 @@ public interface Material {
         Vec3 albedo;
         double fuzz;
 
-        Metal(Vec3 albedo, double fuzz) {
+        public Metal(Vec3 albedo, double fuzz) {
             this.albedo = albedo;
             this.fuzz = fuzz;
         }
@@ -36,9 +47,18 @@ public interface Material {
         }
 
         public Scatter scatter(Ray ray, HitRecord hit) {
+            return scatter(ray, hit, Rng.current());
+        }
+
+        Scatter scatter(Ray ray, HitRecord hit, RandomGenerator rng) {
+            return scatter(ray, hit, rng, Directions.closedForm);
+        }
+
+        /** scatter with the closed-form or the rejection sampler; see Directions. */
+        public Scatter scatter(Ray ray, HitRecord hit, RandomGenerator rng, boolean closed) {
             Vec3 reflected = reflect(ray.direction.normalize(), hit.normal);
             if (reflected.dot(hit.normal) < 0) return Scatter.ABSORBED;
-            Ray scattered = new Ray(hit.point, reflected.add(Vec3.randomInUnitSphere().normalize().scale(fuzz)));
+            Ray scattered = new Ray(hit.point, reflected.add(Directions.unitVector(rng, closed).scale(fuzz)));
             return new Scatter(scattered, albedo);
         }
     }
@@ -47,7 +67,7 @@ public interface Material {
 
         double refractionIndex;
 
-        Dielectric(double refractionIndex) {
+        public Dielectric(double refractionIndex) {
             this.refractionIndex = refractionIndex;
         }
 
@@ -64,6 +84,10 @@ public interface Material {
         }
 
         public Scatter scatter(Ray ray, HitRecord hit) {
+            return scatter(ray, hit, Rng.current());
+        }
+
+        Scatter scatter(Ray ray, HitRecord hit, RandomGenerator rng) {
             double refractionRatio = hit.frontFace ? 1/refractionIndex : refractionIndex;
             Vec3 unitDir = ray.direction.normalize();
             Vec3 normal = hit.normal;
@@ -72,7 +96,7 @@ public interface Material {
             double sin_theta = Math.sqrt(1.0 - cos_theta * cos_theta);
             boolean cantRefract = refractionRatio * sin_theta > 1.0;
             Vec3 direction;
-            if (cantRefract || reflectance(cos_theta, refractionRatio) > Rng.rand()) {
+            if (cantRefract || reflectance(cos_theta, refractionRatio) > rng.nextDouble()) {
                 direction = Metal.reflect(unitDir, normal);
             } else {
                 direction = refract(unitDir, normal, refractionRatio, cos_theta);
@@ -0,0 +1,118 @@
+package raytracer;
+
+import java.util.*;
+
+/**
+ * Triangle mesh: shared vertex positions, three vertex indices per triangle
+ * (stored in BVH order) and one material. Triangles are intersected with
+ * Moller-Trumbore from both sides and shaded with their geometric normal.
+ * Usually placed in the scene through Instances, so the triangles are stored
+ * once however often the mesh appears.
+ */
+public class Mesh extends BoxTree {
+
+    final double[] vertices;
+    final int[] triangles;
+    final Material material;
+
+    /** vertices as x, y, z per vertex; triangles as three vertex indices each. */
+    public Mesh(double[] vertices, int[] triangles, Material material) {
+        int n = triangles.length / 3;
+        double[] boxes = new double[6 * n];
+        for (int t = 0; t < n; t++) {
+            resetBox(boxes, 6 * t);
+            for (int k = 0; k < 3; k++) {
+                int v = 3 * triangles[3*t + k];
+                for (int axis = 0; axis < 3; axis++) {
+                    boxes[6*t + axis] = Math.min(boxes[6*t + axis], vertices[v + axis]);
+                    boxes[6*t + 3 + axis] = Math.max(boxes[6*t + 3 + axis], vertices[v + axis]);
+                }
+            }
+        }
+        int[] order = build(boxes, n);
+        this.triangles = new int[3 * n];
+        for (int t = 0; t < n; t++) System.arraycopy(triangles, 3 * order[t], this.triangles, 3 * t, 3);
+        this.vertices = vertices;
+        this.material = material;
+    }
+
+    int triangleCount() { return triangles.length / 3; }
+
+    /** Bytes of the vertex, index and BVH arrays. */
+    long bytes() {
+        return 8L * vertices.length + 4L * triangles.length + 8L * bounds.length + 4L * (first.length + count.length);
+    }
+
+    HitRecord hitItem(int t, Ray r, double tMax) {
+        double[] v = vertices;
+        int a = 3 * triangles[3*t], b = 3 * triangles[3*t + 1], c = 3 * triangles[3*t + 2];
+        double e1x = v[b] - v[a], e1y = v[b+1] - v[a+1], e1z = v[b+2] - v[a+2];
+        double e2x = v[c] - v[a], e2y = v[c+1] - v[a+1], e2z = v[c+2] - v[a+2];
+        Vec3 d = r.direction, o = r.origin;
+        double px = d.y * e2z - d.z * e2y, py = d.z * e2x - d.x * e2z, pz = d.x * e2y - d.y * e2x;
+        double det = e1x * px + e1y * py + e1z * pz;
+        if (det == 0) return HitRecord.MISS;
+        double inv = 1 / det;
+        double tx = o.x - v[a], ty = o.y - v[a+1], tz = o.z - v[a+2];
+        double u = (tx * px + ty * py + tz * pz) * inv;
+        if (u < 0 || u > 1) return HitRecord.MISS;
+        double qx = ty * e1z - tz * e1y, qy = tz * e1x - tx * e1z, qz = tx * e1y - ty * e1x;
+        double w = (d.x * qx + d.y * qy + d.z * qz) * inv;
+        if (w < 0 || u + w > 1) return HitRecord.MISS;
+        double root = (e2x * qx + e2y * qy + e2z * qz) * inv;
+        if (root < SphereSoA.T_MIN || root > tMax) return HitRecord.MISS;
+        Vec3 normal = new Vec3(e1y * e2z - e1z * e2y, e1z * e2x - e1x * e2z, e1x * e2y - e1y * e2x).normalize();
+        boolean frontFace = d.dot(normal) < 0;
+        return new HitRecord(r.at(root), frontFace ? normal : normal.neg(), material, root, frontFace, false);
+    }
+
+    /**
+     * Unit sphere approximated by an icosahedron whose faces are split in
+     * four subdivisions times, 20 * 4^subdivisions triangles.
+     */
+    public static Mesh icosphere(int subdivisions, Material material) {
+        double p = (1 + Math.sqrt(5)) / 2;
+        List<double[]> verts = new ArrayList<>();
+        for (double[] q : new double[][] {
+                { -1, p, 0 }, { 1, p, 0 }, { -1, -p, 0 }, { 1, -p, 0 },
+                { 0, -1, p }, { 0, 1, p }, { 0, -1, -p }, { 0, 1, -p },
+                { p, 0, -1 }, { p, 0, 1 }, { -p, 0, -1 }, { -p, 0, 1 } })
+            verts.add(unit(q));
+        int[] tris = {
+            0, 11, 5,  0, 5, 1,  0, 1, 7,  0, 7, 10,  0, 10, 11,
+            1, 5, 9,  5, 11, 4,  11, 10, 2,  10, 7, 6,  7, 1, 8,
+            3, 9, 4,  3, 4, 2,  3, 2, 6,  3, 6, 8,  3, 8, 9,
+            4, 9, 5,  2, 4, 11,  6, 2, 10,  8, 6, 7,  9, 8, 1 };
+        for (int s = 0; s < subdivisions; s++) {
+            Map<Long, Integer> midpoints = new HashMap<>();
+            int[] next = new int[4 * tris.length];
+            for (int t = 0; t < tris.length / 3; t++) {
+                int a = tris[3*t], b = tris[3*t + 1], c = tris[3*t + 2];
+                int ab = midpoint(verts, midpoints, a, b);
+                int bc = midpoint(verts, midpoints, b, c);
+                int ca = midpoint(verts, midpoints, c, a);
+                System.arraycopy(new int[] { a, ab, ca,  b, bc, ab,  c, ca, bc,  ab, bc, ca }, 0, next, 12 * t, 12);
+            }
+            tris = next;
+        }
+        double[] vertices = new double[3 * verts.size()];
+        for (int i = 0; i < verts.size(); i++) System.arraycopy(verts.get(i), 0, vertices, 3 * i, 3);
+        return new Mesh(vertices, tris, material);
+    }
+
+    private static double[] unit(double[] q) {
+        double len = Math.sqrt(q[0]*q[0] + q[1]*q[1] + q[2]*q[2]);
+        return new double[] { q[0] / len, q[1] / len, q[2] / len };
+    }
+
+    private static int midpoint(List<double[]> verts, Map<Long, Integer> cache, int a, int b) {
+        long key = ((long)Math.min(a, b) << 32) | Math.max(a, b);
+        Integer m = cache.get(key);
+        if (m == null) {
+            double[] p = verts.get(a), q = verts.get(b);
+            verts.add(unit(new double[] { p[0] + q[0], p[1] + q[1], p[2] + q[2] }));
+            cache.put(key, m = verts.size() - 1);
+        }
+        return m;
+    }
+}
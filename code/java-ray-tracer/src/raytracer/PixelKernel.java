@@ -0,0 +1,20 @@
+package raytracer;
+
+/** Kernel that samples one pixel at a time from primitive state: FlatKernel or FloatKernel. */
+interface PixelKernel {
+
+    /** Sum of samples first .. first+samplesPerPixel-1 of pixel (i, j), read with r(), g(), b(). */
+    void samplePixel(int i, int j, int imageW, int imageH, int samplesPerPixel, int first);
+
+    double r();
+
+    double g();
+
+    double b();
+
+    /** Features of the last samplePixel when the scene collects them (Features.add clears them), else null. */
+    double[] feature();
+
+    /** Add the kernel's path counts to the scene and the tile's counters. */
+    void flushStats();
+}
@@ -0,0 +1,107 @@
+package raytracer;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.zip.*;
+
+/**
+ * Streaming PNG encoder: rows are filtered and fed to a Deflater as they
+ * arrive, and the compressed stream is cut into IDAT chunks, so memory use
+ * doesn't depend on the image height.
+ */
+public class PngSink implements ImageSink {
+
+    static final byte[] SIGNATURE = { (byte)0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+    static final int CHUNK_SIZE = 1 << 16;
+
+    final int width, height;
+    final DataOutputStream out;
+    final DeflaterOutputStream deflate;
+    final byte[] row;
+    int nextRow;
+
+    PngSink(Path file, int width, int height) throws IOException {
+        this.width = width;
+        this.height = height;
+        this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), CHUNK_SIZE));
+        this.row = new byte[1 + 3 * width];
+        out.write(SIGNATURE);
+        ByteArrayOutputStream ihdr = new ByteArrayOutputStream();
+        DataOutputStream h = new DataOutputStream(ihdr);
+        h.writeInt(width);
+        h.writeInt(height);
+        h.writeByte(8);  // bit depth
+        h.writeByte(2);  // color type: RGB
+        h.writeByte(0);  // compression
+        h.writeByte(0);  // filter
+        h.writeByte(0);  // interlace
+        chunk("IHDR", ihdr.toByteArray(), ihdr.size());
+        this.deflate = new DeflaterOutputStream(new IdatStream(), new Deflater(6), CHUNK_SIZE);
+    }
+
+    void chunk(String type, byte[] data, int len) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] t = type.getBytes("US-ASCII");
+        crc.update(t);
+        crc.update(data, 0, len);
+        out.writeInt(len);
+        out.write(t);
+        out.write(data, 0, len);
+        out.writeInt((int)crc.getValue());
+    }
+
+    /** Buffers compressed bytes and emits them as IDAT chunks. */
+    class IdatStream extends OutputStream {
+        final byte[] buf = new byte[CHUNK_SIZE];
+        int n;
+
+        public void write(int b) throws IOException {
+            if (n == buf.length) flushChunk();
+            buf[n++] = (byte)b;
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (n == buf.length) flushChunk();
+                int k = Math.min(len, buf.length - n);
+                System.arraycopy(b, off, buf, n, k);
+                n += k; off += k; len -= k;
+            }
+        }
+
+        void flushChunk() throws IOException {
+            if (n > 0) chunk("IDAT", buf, n);
+            n = 0;
+        }
+
+        public void close() throws IOException {
+            flushChunk();
+        }
+    }
+
+    public void write(Framebuffer band) throws IOException {
+        if (band.y0 != nextRow) throw new IllegalStateException("Expected row " + nextRow + ", got " + band.y0);
+        for (int y = band.y0; y < band.y0 + band.rows; y++) {
+            // Sub filter: each byte minus the same channel of the pixel to the left.
+            row[0] = 1;
+            int p = 3 * (y - band.y0) * width;
+            int prev = 0;
+            for (int x = 0; x < width; x++, p += 3) {
+                int c = Render.color(band.rgb[p], band.rgb[p+1], band.rgb[p+2], Math.max(band.samplesAt(x, y), 1));
+                int i = 1 + 3 * x;
+                row[i]   = (byte)((c >> 16) - (prev >> 16));
+                row[i+1] = (byte)((c >> 8) - (prev >> 8));
+                row[i+2] = (byte)(c - prev);
+                prev = c;
+            }
+            deflate.write(row);
+        }
+        nextRow += band.rows;
+    }
+
+    public void close() throws IOException {
+        deflate.close();
+        chunk("IEND", new byte[0], 0);
+        out.close();
+    }
+}
@@ -0,0 +1,100 @@
+package raytracer;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.*;
+
+/**
+ * Compares the float kernel with the double one (FlatKernel) on the same
+ * scene and seed: render time, geometry bytes, and how far the float image is
+ * from the double image, both directly (PSNR and differing pixels on the
+ * 8-bit output) and against a high-spp reference, where float error should
+ * be lost in the sampling noise. With a diff file, writes the per-pixel
+ * difference scaled by 16.
+ *
+ *   java -cp target raytracer.PrecisionBench [width] [spp] [referenceSpp] [threads] [diff.png]
+ */
+public class PrecisionBench {
+
+    static Framebuffer render(String kernel, int width, int spp, int threads, double[] seconds) {
+        Scene scene = new Scene();
+        scene.kernel = kernel;
+        Framebuffer fb = new Framebuffer(width, (int)(width / (3./2.)));
+        Rng.reset();
+        long start = System.nanoTime();
+        scene.paintProgressive(fb, spp, spp, 16, threads, Rng.DEFAULT_SEED + 1, f -> {});
+        seconds[0] = (System.nanoTime() - start) / 1e9;
+        return fb;
+    }
+
+    static double psnr(BufferedImage a, BufferedImage b) {
+        double se = 0;
+        int n = 0;
+        for (int y = 0; y < a.getHeight(); y++)
+            for (int x = 0; x < a.getWidth(); x++) {
+                int p = a.getRGB(x, y), q = b.getRGB(x, y);
+                for (int s = 0; s < 24; s += 8) {
+                    int d = ((p >> s) & 0xff) - ((q >> s) & 0xff);
+                    se += d * d;
+                    n++;
+                }
+            }
+        return 10 * Math.log10(255. * 255 / (se / n));
+    }
+
+    /** Pixels whose largest channel difference exceeds tolerance (8-bit levels), and the difference image. */
+    static int differing(BufferedImage a, BufferedImage b, int tolerance, BufferedImage diff) {
+        int count = 0;
+        for (int y = 0; y < a.getHeight(); y++)
+            for (int x = 0; x < a.getWidth(); x++) {
+                int p = a.getRGB(x, y), q = b.getRGB(x, y), max = 0, argb = 0xff000000;
+                for (int s = 0; s < 24; s += 8) {
+                    int d = Math.abs(((p >> s) & 0xff) - ((q >> s) & 0xff));
+                    max = Math.max(max, d);
+                    argb |= Math.min(255, 16 * d) << s;
+                }
+                if (max > tolerance) count++;
+                diff.setRGB(x, y, argb);
+            }
+        return count;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        int spp = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int refSpp = args.length > 2 ? Integer.parseInt(args[2]) : 512;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        double[] seconds = new double[1];
+
+        Framebuffer ref = render("flat", width, refSpp, threads, seconds);
+        render("flat", width, spp, threads, seconds); // warm-up
+        render("float", width, spp, threads, seconds);
+
+        Framebuffer dbl = render("flat", width, spp, threads, seconds);
+        double dblSeconds = seconds[0];
+        Framebuffer flt = render("float", width, spp, threads, seconds);
+        double fltSeconds = seconds[0];
+
+        // Sphere columns (cx, cy, cz, radius, radius2, material) and BVH nodes
+        // (six bounds, first, count) as traced by each kernel.
+        Scene scene = new Scene();
+        FloatScene fs = scene.floatScene(scene.buildWorld());
+        long nodes = fs.bounds != null ? fs.bounds.length / 6 : 0;
+        long dblBytes = (5 * 8 + 4) * (long)fs.size + (6 * 8 + 8) * nodes;
+        long fltBytes = (5 * 4 + 4) * (long)fs.size + (6 * 4 + 8) * nodes;
+
+        BufferedImage a = dbl.resolve(), b = flt.resolve();
+        BufferedImage diff = new BufferedImage(a.getWidth(), a.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        int differing = differing(a, b, 2, diff);
+
+        System.out.println(String.format("%dpx, %d spp, reference %d spp, accel %s", width, spp, refSpp, scene.accel));
+        System.out.println(String.format("%-8s %10s %12s %14s", "kernel", "time, s", "geometry", "MSE vs ref"));
+        System.out.println(String.format("%-8s %10.3f %10d B %14.6f", "double", dblSeconds, dblBytes,
+                                         RouletteBench.mse(dbl, ref)));
+        System.out.println(String.format("%-8s %10.3f %10d B %14.6f", "float", fltSeconds, fltBytes,
+                                         RouletteBench.mse(flt, ref)));
+        System.out.println(String.format("float vs double: PSNR %.1f dB, %.2f%% of pixels differ by more than 2/255",
+                                         psnr(a, b), 100. * differing / (a.getWidth() * a.getHeight())));
+        if (args.length > 4) ImageIO.write(diff, "png", new File(args[4]));
+    }
+}
@@ -5,7 +5,7 @@ public class Ray {
     final Vec3 origin;
     final Vec3 direction;
 
-    Ray(Vec3 origin, Vec3 direction) {
+    public Ray(Vec3 origin, Vec3 direction) {
         this.origin = origin;
         this.direction = direction;
     }
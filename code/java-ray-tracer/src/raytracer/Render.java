@@ -5,14 +5,18 @@ import java.awt.image.BufferedImage;
 import java.awt.Color;
 import java.util.*;
 import java.io.*;
-import com.sun.management.ThreadMXBean;
+import java.nio.file.*;
+import java.time.Duration;
 import java.lang.management.ManagementFactory;
 
 public class Render {
 
+    // Filter fixed and progressive renders with Denoiser before writing them.
+    static final boolean DENOISE = Boolean.getBoolean("raytracer.denoise");
+
     BufferedImage img;
 
-    Render(BufferedImage img) {
+    public Render(BufferedImage img) {
         this.img = img;
     }
 
@@ -22,24 +26,68 @@ public class Render {
         return x;
     }
 
-    void putPixel(int x, int y, Vec3 pixel, int samples) {
-        double scale = 1. / samples;
-        double r = 255.999 * clamp(Math.sqrt(pixel.x * scale), 0, 1);
-        double g = 255.999 * clamp(Math.sqrt(pixel.y * scale), 0, 1);
-        double b = 255.999 * clamp(Math.sqrt(pixel.z * scale), 0, 1);
-        int color = 0xFF000000 | ((int)r << 16) | ((int)g << 8) | (int)b;
+    public void putPixel(int x, int y, Vec3 pixel, int samples) {
+        putPixel(x, y, pixel.x, pixel.y, pixel.z, samples);
+    }
+
+    void putPixel(int x, int y, double pr, double pg, double pb, int samples) {
+        int color = color(pr, pg, pb, samples);
         // Comment for cleaner benchmarks.
         img.setRGB(x, y, color);
     }
 
-    static void measure(Runnable r) {
-        ThreadMXBean bean = (ThreadMXBean)ManagementFactory.getThreadMXBean();
-        long start = System.currentTimeMillis();
-        long bytesBefore = bean.getCurrentThreadAllocatedBytes();
-        r.run();
-        System.out.println(String.format("Elapsed: %,d ms", System.currentTimeMillis() - start));
-        System.out.println(String.format("Allocated: %,.0f MB",
-                                         (bean.getCurrentThreadAllocatedBytes() - bytesBefore) / 1e6));
+    /** ARGB of a pixel from the sum of its samples, with gamma 2 and clamping. */
+    static int color(double pr, double pg, double pb, int samples) {
+        double scale = 1. / samples;
+        double r = 255.999 * clamp(Math.sqrt(pr * scale), 0, 1);
+        double g = 255.999 * clamp(Math.sqrt(pg * scale), 0, 1);
+        double b = 255.999 * clamp(Math.sqrt(pb * scale), 0, 1);
+        return 0xFF000000 | ((int)r << 16) | ((int)g << 8) | (int)b;
+    }
+
+    /**
+     * Run r as phase "render" of a new scene.meter, and print its wall time,
+     * and the CPU time, allocation and GC of all threads, scene build
+     * included.
+     */
+    static void measure(Scene scene, Runnable r) {
+        scene.meter = new ResourceMeter();
+        ResourceMeter.Usage before = ResourceMeter.now();
+        scene.meter.run("render", r);
+        ResourceMeter.Usage used = ResourceMeter.now().minus(before);
+        System.out.println(String.format("Elapsed: %,d ms", used.wallNanos() / 1_000_000));
+        System.out.println(String.format("Allocated: %,.0f MB", used.allocatedBytes() / 1e6));
+        System.out.println(String.format("CPU: %,d ms, GC: %d collections, %,d ms",
+                                         used.cpuNanos() / 1_000_000, used.gcCount(), used.gcMillis()));
+    }
+
+    /**
+     * Write scene.meter's phases as JSON to outFilename + ".metrics.json",
+     * after the render's parameters.
+     */
+    static void writeMetrics(Scene scene, String mode, int imageW, int imageH, int samplesPerPixel,
+                             int threads, String outFilename) {
+        Map<String, Object> info = new LinkedHashMap<>();
+        info.put("mode", mode);
+        info.put("image", outFilename);
+        info.put("width", imageW);
+        info.put("height", imageH);
+        info.put("samplesPerPixel", samplesPerPixel);
+        info.put("threads", threads);
+        info.put("kernel", scene.kernel);
+        info.put("scene", Scene.sceneId());
+        info.put("java", Runtime.version().toString());
+        StringJoiner gcs = new StringJoiner(", ");
+        for (var gc : ManagementFactory.getGarbageCollectorMXBeans()) gcs.add(gc.getName());
+        info.put("collectors", gcs.toString());
+        try {
+            scene.meter.write(Path.of(outFilename + ".metrics.json"), info);
+        } catch (IOException e) { throw new UncheckedIOException(e); }
+    }
+
+    static void printPathStats(Scene scene) {
+        RenderStats stats = scene.lastStats;
+        if (stats != null) System.out.println(stats.summary());
     }
 
     public static void render(int imageWidth, int samplesPerPixel, String outFilename) {
@@ -49,17 +97,271 @@ public class Render {
         var img = new BufferedImage(imageWidth, (int)(imageWidth / aspectRatio),
                                     BufferedImage.TYPE_INT_ARGB);
         Render render = new Render(img);
-        measure(() -> {
+        Scene scene = new Scene();
+        measure(scene, () -> {
                 Rng.reset();
-                new Scene().paint(new Render(img), samplesPerPixel);
+                scene.paint(new Render(img), samplesPerPixel);
             });
+        printPathStats(scene);
         // Comment for cleaner benchmarks.
+        write(scene, img, outFilename);
+        writeMetrics(scene, "fixed", img.getWidth(), img.getHeight(), samplesPerPixel, 1, outFilename);
+    }
+
+    public static void render(int imageWidth, int samplesPerPixel, String outFilename,
+                              int threads, int tileSize) {
+        System.out.println(String.format("render: imageWidth=%d samplesPerPixel=%d file=%s threads=%d tileSize=%d",
+                                         imageWidth, samplesPerPixel, outFilename, threads, tileSize));
+        double aspectRatio = 3./2.;
+        var img = new BufferedImage(imageWidth, (int)(imageWidth / aspectRatio),
+                                    BufferedImage.TYPE_INT_ARGB);
+        Scene scene = new Scene();
+        measure(scene, () -> {
+                Rng.reset();
+                scene.paintParallel(new Render(img), samplesPerPixel, tileSize, threads, Rng.DEFAULT_SEED);
+            });
+        printPathStats(scene);
+        write(scene, img, outFilename);
+        writeMetrics(scene, "fixed", img.getWidth(), img.getHeight(), samplesPerPixel, threads, outFilename);
+    }
+
+    /**
+     * Progressive render into a float accumulation buffer, checkpointed to
+     * raytracer.checkpoint (default outFilename + ".fb") at most every
+     * raytracer.checkpointSeconds and on completion. If the checkpoint exists,
+     * the render resumes from it, so running again with a higher
+     * samplesPerPixel refines a finished image.
+     */
+    public static void progressive(int imageWidth, int samplesPerPixel, String outFilename,
+                                   int threads, int tileSize) throws IOException {
+        Path checkpoint = Path.of(System.getProperty("raytracer.checkpoint", outFilename + ".fb"));
+        int samplesPerPass = Integer.getInteger("raytracer.passSamples", 1);
+        long checkpointMillis = 1000 * Long.getLong("raytracer.checkpointSeconds", 60);
+        double aspectRatio = 3./2.;
+        int imageHeight = (int)(imageWidth / aspectRatio);
+
+        Scene scene = new Scene();
+        String sceneId = Scene.sceneId();
+        Framebuffer fb;
+        if (Files.exists(checkpoint)) {
+            fb = Framebuffer.load(checkpoint);
+            fb.checkResume(checkpoint, imageWidth, imageHeight, sceneId, Rng.DEFAULT_SEED, scene.maxBounces);
+            // Features must cover the same samples as the radiance, so they
+            // are either resumed with it or not kept at all.
+            if (DENOISE && fb.features == null && fb.samples > 0)
+                throw new IllegalArgumentException("Checkpoint " + checkpoint + " has no denoising features;"
+                                                   + " delete it to start over, or resume without denoising");
+            if (!DENOISE) fb.features = null;
+            System.out.println(String.format("Resuming from %s at %d samples", checkpoint, fb.samples));
+        } else {
+            fb = new Framebuffer(imageWidth, imageHeight);
+            fb.describe(sceneId, Rng.DEFAULT_SEED, scene.maxBounces);
+        }
+        if (DENOISE && fb.features == null) fb.features = new Features(imageWidth, imageHeight);
+        scene.features = fb.features;
+
+        System.out.println(String.format("progressive: imageWidth=%d samplesPerPixel=%d file=%s threads=%d tileSize=%d",
+                                         imageWidth, samplesPerPixel, outFilename, threads, tileSize));
+        long[] lastCheckpoint = { System.currentTimeMillis() };
+        measure(scene, () -> {
+                Rng.reset();
+                scene.paintProgressive(fb, samplesPerPixel, samplesPerPass, tileSize, threads, Rng.DEFAULT_SEED, f -> {
+                        long now = System.currentTimeMillis();
+                        if (now - lastCheckpoint[0] >= checkpointMillis) {
+                            saveCheckpoint(f, checkpoint);
+                            lastCheckpoint[0] = now;
+                        }
+                    });
+            });
+        printPathStats(scene);
+        scene.meter.run("checkpoint", () -> saveCheckpoint(fb, checkpoint));
+        if (DENOISE) writeDenoised(scene, fb, threads, outFilename);
+        else write(scene, fb, outFilename);
+        writeMetrics(scene, "progressive", imageWidth, imageHeight, samplesPerPixel, threads, outFilename);
+    }
+
+    /**
+     * Fixed-spp render into a Framebuffer with first-hit Features, filtered
+     * by Denoiser. The unfiltered image goes to outFilename + ".noisy.png".
+     */
+    public static void denoised(int imageWidth, int samplesPerPixel, String outFilename,
+                                int threads, int tileSize) {
+        System.out.println(String.format("denoised: imageWidth=%d samplesPerPixel=%d file=%s threads=%d tileSize=%d",
+                                         imageWidth, samplesPerPixel, outFilename, threads, tileSize));
+        double aspectRatio = 3./2.;
+        Framebuffer fb = new Framebuffer(imageWidth, (int)(imageWidth / aspectRatio));
+        Scene scene = new Scene();
+        scene.features = new Features(fb.width, fb.height);
+        measure(scene, () -> {
+                Rng.reset();
+                scene.paintProgressive(fb, samplesPerPixel, samplesPerPixel, tileSize, threads, Rng.DEFAULT_SEED, f -> {});
+            });
+        printPathStats(scene);
+        writeDenoised(scene, fb, threads, outFilename);
+        writeMetrics(scene, "denoised", fb.width, fb.height, samplesPerPixel, threads, outFilename);
+    }
+
+    static void writeDenoised(Scene scene, Framebuffer fb, int threads, String outFilename) {
+        long start = System.currentTimeMillis();
+        Framebuffer denoised = scene.meter.phase("denoise", () -> Denoiser.denoise(fb, scene.features, threads));
+        System.out.println(String.format("Denoised: %,d ms", System.currentTimeMillis() - start));
+        write(scene, fb, outFilename + ".noisy.png");
+        write(scene, denoised, outFilename);
+    }
+
+    /**
+     * Adaptive render: up to maxSamples per pixel, stopping early on pixels
+     * whose estimate has converged (see Scene.paintAdaptive). Also writes a
+     * heat map of samples used to outFilename + ".spp.png".
+     */
+    public static void adaptive(int imageWidth, int maxSamples, String outFilename,
+                                int threads, int tileSize) {
+        int minSamples = Math.min(maxSamples, Integer.getInteger("raytracer.minSamples", 8));
+        double threshold = Double.parseDouble(System.getProperty("raytracer.threshold", "0.03"));
+        System.out.println(String.format("adaptive: imageWidth=%d samplesPerPixel=%d..%d threshold=%s file=%s threads=%d tileSize=%d",
+                                         imageWidth, minSamples, maxSamples, threshold, outFilename, threads, tileSize));
+        double aspectRatio = 3./2.;
+        Framebuffer fb = new Framebuffer(imageWidth, (int)(imageWidth / aspectRatio));
+        Scene scene = new Scene();
+        measure(scene, () -> {
+                Rng.reset();
+                scene.paintAdaptive(fb, minSamples, maxSamples, threshold, tileSize, threads, Rng.DEFAULT_SEED);
+            });
+        printPathStats(scene);
+        long total = fb.totalSamples();
+        long uniform = (long)maxSamples * fb.width * fb.height;
+        System.out.println(String.format("Samples: %,d (%.1f per pixel, %.2fx fewer than uniform %d)",
+                                         total, (double)total / (fb.width * fb.height),
+                                         (double)uniform / total, maxSamples));
+        write(scene, fb, outFilename);
+        write(scene, fb.heatMap(maxSamples), outFilename + ".spp.png");
+        writeMetrics(scene, "adaptive", fb.width, fb.height, maxSamples, threads, outFilename);
+    }
+
+    /**
+     * Progressive render bounded by raytracer.budgetMillis of wall-clock time
+     * (default 1000), up to maxSamples per pixel; see Scene.paintWithin. Also
+     * writes a heat map of samples per pixel to outFilename + ".spp.png".
+     */
+    public static void deadline(int imageWidth, int maxSamples, String outFilename,
+                                int threads, int tileSize) {
+        long budgetMillis = Long.getLong("raytracer.budgetMillis", 1000);
+        int samplesPerPass = Integer.getInteger("raytracer.passSamples", 1);
+        System.out.println(String.format("deadline: imageWidth=%d samplesPerPixel=%d budget=%d ms file=%s threads=%d tileSize=%d",
+                                         imageWidth, maxSamples, budgetMillis, outFilename, threads, tileSize));
+        double aspectRatio = 3./2.;
+        Framebuffer fb = new Framebuffer(imageWidth, (int)(imageWidth / aspectRatio));
+        Scene scene = new Scene();
+        RenderBudget.Result[] result = new RenderBudget.Result[1];
+        measure(scene, () -> {
+                Rng.reset();
+                RenderBudget budget = new RenderBudget(Duration.ofMillis(budgetMillis));
+                result[0] = scene.paintWithin(fb, budget, maxSamples, samplesPerPass, tileSize, threads, Rng.DEFAULT_SEED);
+            });
+        printPathStats(scene);
+        System.out.println("Achieved: " + result[0]);
+        write(scene, fb, outFilename);
+        write(scene, fb.heatMap(Math.max(1, result[0].maxSamples)), outFilename + ".spp.png");
+        writeMetrics(scene, "deadline", fb.width, fb.height, result[0].maxSamples, threads, outFilename);
+    }
+
+    /**
+     * Render straight to disk in bands of tileSize rows. The output format is
+     * picked by extension: .png, .ppm or .pfm.
+     */
+    public static void stream(int imageWidth, int samplesPerPixel, String outFilename,
+                              int threads, int tileSize) throws IOException {
+        System.out.println(String.format("stream: imageWidth=%d samplesPerPixel=%d file=%s threads=%d tileSize=%d",
+                                         imageWidth, samplesPerPixel, outFilename, threads, tileSize));
+        double aspectRatio = 3./2.;
+        int imageHeight = (int)(imageWidth / aspectRatio);
+        Scene scene = new Scene();
+        try (ImageSink sink = ImageSink.open(Path.of(outFilename), imageWidth, imageHeight)) {
+            measure(scene, () -> {
+                    Rng.reset();
+                    scene.paintStreaming(sink, imageWidth, imageHeight, samplesPerPixel,
+                                         tileSize, tileSize, threads, Rng.DEFAULT_SEED);
+                });
+            printPathStats(scene);
+        }
+        writeMetrics(scene, "stream", imageWidth, imageHeight, samplesPerPixel, threads, outFilename);
+    }
+
+    static void saveCheckpoint(Framebuffer fb, Path checkpoint) {
+        try {
+            fb.save(checkpoint);
+        } catch (IOException e) { throw new UncheckedIOException(e); }
+    }
+
+    /** Resolve fb and write it, as phases of scene.meter. */
+    static void write(Scene scene, Framebuffer fb, String outFilename) {
+        BufferedImage img = scene.meter.phase("resolve", fb::resolve);
+        write(scene, img, outFilename);
+    }
+
+    /** Encode img to PNG in memory, then write it to outFilename, as phases of scene.meter. */
+    static void write(Scene scene, BufferedImage img, String outFilename) {
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        scene.meter.run("encode", () -> {
+                try {
+                    ImageIO.write(img, "png", png);
+                } catch (IOException e) { throw new UncheckedIOException(e); }
+            });
+        scene.meter.run("write", () -> {
+                try {
+                    Files.write(Path.of(outFilename), png.toByteArray());
+                } catch (IOException e) { throw new UncheckedIOException(e); }
+            });
+    }
+
+    static void write(BufferedImage img, String outFilename) {
         try {
             ImageIO.write(img, "png", new File(outFilename));
         } catch (Exception e) { throw new RuntimeException(e); }
     }
 
+    /**
+     * Render raytracer.frames frames (default 48) along the camera path in
+     * raytracer.cameraPath, or one orbit around the scene, to out-0000.png etc.
+     */
+    public static void animation(int imageWidth, int samplesPerPixel, String outFilename,
+                                 int threads, int tileSize) throws IOException {
+        int frames = Integer.getInteger("raytracer.frames", 48);
+        String pathFile = System.getProperty("raytracer.cameraPath");
+        CameraPath path = pathFile != null ? CameraPath.parse(Path.of(pathFile)) : CameraPath.orbit(8);
+        System.out.println(String.format("animation: imageWidth=%d samplesPerPixel=%d file=%s threads=%d tileSize=%d frames=%d",
+                                         imageWidth, samplesPerPixel, outFilename, threads, tileSize, frames));
+        double aspectRatio = 3./2.;
+        Scene scene = new Scene();
+        Animation anim = new Animation(scene, path, imageWidth, (int)(imageWidth / aspectRatio),
+                                       samplesPerPixel, tileSize, Rng.DEFAULT_SEED);
+        Rng.reset();
+        anim.render(frames, threads, outFilename);
+        anim.printStats(frames);
+        printPathStats(scene);
+    }
+
     public static void main(String[] args) throws Exception {
-        render(Integer.parseInt(args[0]), Integer.parseInt(args[1]), args[2]);
+        int width = Integer.parseInt(args[0]);
+        int samples = Integer.parseInt(args[1]);
+        String mode = System.getProperty("raytracer.mode", "fixed");
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        int tileSize = args.length > 4 ? Integer.parseInt(args[4]) : 16;
+        if (mode.equals("progressive"))
+            progressive(width, samples, args[2], threads, tileSize);
+        else if (mode.equals("stream"))
+            stream(width, samples, args[2], threads, tileSize);
+        else if (mode.equals("animation"))
+            animation(width, samples, args[2], threads, tileSize);
+        else if (mode.equals("adaptive"))
+            adaptive(width, samples, args[2], threads, tileSize);
+        else if (mode.equals("deadline"))
+            deadline(width, samples, args[2], threads, tileSize);
+        else if (DENOISE)
+            denoised(width, samples, args[2], threads, tileSize);
+        else if (args.length > 3)
+            render(width, samples, args[2], threads, tileSize);
+        else
+            render(width, samples, args[2]);
     }
 }
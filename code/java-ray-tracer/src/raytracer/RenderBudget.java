@@ -0,0 +1,75 @@
+package raytracer;
+
+import java.awt.image.BufferedImage;
+import java.time.Duration;
+
+/**
+ * Wall-clock budget for Scene.paintWithin, which can also be cancelled from
+ * any thread, e.g. when a newer request supersedes the one being rendered.
+ * The clock starts when the budget is created, so scene setup counts
+ * against it. The render checks the budget before every pass and every
+ * tile: it stops within one tile's work of the deadline or of cancel(), and
+ * its threads are free again right after.
+ */
+public final class RenderBudget {
+
+    final long start, deadline;
+    private volatile boolean cancelled;
+
+    public RenderBudget(Duration budget) {
+        start = System.nanoTime();
+        deadline = start + budget.toNanos();
+    }
+
+    public void cancel() { cancelled = true; }
+
+    public boolean isCancelled() { return cancelled; }
+
+    long remainingNanos() { return deadline - System.nanoTime(); }
+
+    boolean expired() { return remainingNanos() <= 0; }
+
+    boolean shouldStop() { return cancelled || expired(); }
+
+    /**
+     * What a budgeted render achieved. A pass cut short leaves some tiles
+     * with more samples than others, so the counts are per pixel
+     * (samplesAt); minSamples is 0 if some pixel got none at all.
+     */
+    public static final class Result {
+
+        public final Framebuffer framebuffer;
+        public final int passes, minSamples, maxSamples;
+        public final double meanSamples;
+        public final long elapsedNanos;
+        public final boolean cancelled;
+        // The render stopped at its deadline before reaching its sample cap.
+        public final boolean deadlineReached;
+
+        Result(Framebuffer fb, int sampleCap, long elapsedNanos, boolean cancelled) {
+            this.framebuffer = fb;
+            this.passes = fb.passes;
+            int min = Integer.MAX_VALUE, max = 0;
+            for (int c : fb.pixelSamples) {
+                min = Math.min(min, c);
+                max = Math.max(max, c);
+            }
+            this.minSamples = min;
+            this.maxSamples = max;
+            this.meanSamples = (double)fb.totalSamples() / fb.pixelSamples.length;
+            this.elapsedNanos = elapsedNanos;
+            this.cancelled = cancelled;
+            this.deadlineReached = !cancelled && min < sampleCap;
+        }
+
+        public BufferedImage image() { return framebuffer.resolve(); }
+
+        public int samplesAt(int x, int y) { return framebuffer.samplesAt(x, y); }
+
+        public String toString() {
+            return String.format("%d passes, %d..%d spp (mean %.2f) in %,d ms%s", passes, minSamples, maxSamples,
+                                 meanSamples, elapsedNanos / 1_000_000,
+                                 cancelled ? ", cancelled" : deadlineReached ? ", deadline reached" : "");
+        }
+    }
+}
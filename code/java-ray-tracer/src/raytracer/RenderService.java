@@ -0,0 +1,347 @@
+package raytracer;
+
+import com.sun.net.httpserver.*;
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Long-running HTTP render service. Keeps one warm JVM, built scenes and a
+ * cache of encoded images across requests:
+ *
+ *   GET /render?width=400&spp=16&seed=1&scene=random&from=13,5,5&at=0,0,0
+ *              &vfov=21&aperture=0.1&focus=10&kernel=flat&maxBounces=10
+ *              &rouletteDepth=-1&tileSize=16
+ *   GET /stats
+ *
+ * Every parameter is optional and defaults to what Render uses. The image is
+ * a PNG; identical requests are served from an LRU cache of encoded images,
+ * keyed by a SHA-256 of all inputs and bounded by -Draytracer.cacheMB.
+ * Concurrent identical requests share one render. At most
+ * -Draytracer.serviceJobs renders run at once and -Draytracer.serviceQueue
+ * more wait; beyond that requests get 503.
+ *
+ * Inputs come from clients, so they are bounded: width by MAX_WIDTH, spp
+ * by MAX_SPP, maxBounces by MAX_BOUNCES, tileSize by the width and
+ * generated scenes by MAX_SPHERES. Scene files are served only from
+ * -Draytracer.sceneDir, and not at all without it. RequestCheck exercises
+ * every rejection.
+ *
+ *   java -cp target raytracer.RenderService [port] [threads]
+ */
+public class RenderService {
+
+    static final int DEFAULT_PORT = 8080;
+    static final int MAX_WIDTH = 8192;
+    static final int MAX_SPP = 4096;
+    static final int MAX_BOUNCES = 64;
+    static final int MAX_SPHERES = 1_000_000;
+    // Directory that file: scenes must resolve into, or null for none.
+    static final String SCENE_DIR = System.getProperty("raytracer.sceneDir");
+    static final int MAX_SCENES = 4;
+
+    /** Encoded images by key, least recently used first, bounded by total bytes. */
+    static final class Cache {
+        final long maxBytes;
+        private final LinkedHashMap<String, byte[]> map = new LinkedHashMap<>(16, .75f, true);
+        private long bytes;
+
+        Cache(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        synchronized byte[] get(String key) {
+            return map.get(key);
+        }
+
+        synchronized void put(String key, byte[] value) {
+            if (value.length > maxBytes) return;
+            byte[] old = map.put(key, value);
+            if (old != null) bytes -= old.length;
+            bytes += value.length;
+            Iterator<byte[]> it = map.values().iterator();
+            while (bytes > maxBytes) {
+                bytes -= it.next().length;
+                it.remove();
+            }
+        }
+
+        synchronized int size() { return map.size(); }
+
+        synchronized long bytes() { return bytes; }
+    }
+
+    /** One render, with every input that affects its pixels. */
+    static final class Request {
+        int width, spp, tileSize;
+        long seed;
+        String scene, kernel;
+        int maxBounces, rouletteDepth;
+        Vec3 from, at;
+        double vfov, aperture, focus;
+
+        static Request parse(String query) {
+            Map<String, String> q = new HashMap<>();
+            if (query != null)
+                for (String kv : query.split("&")) {
+                    int eq = kv.indexOf('=');
+                    if (eq > 0) q.put(URLDecoder.decode(kv.substring(0, eq), StandardCharsets.UTF_8),
+                                      URLDecoder.decode(kv.substring(eq + 1), StandardCharsets.UTF_8));
+                }
+            Scene defaults = new Scene();
+            Request r = new Request();
+            r.width = Integer.parseInt(q.getOrDefault("width", "400"));
+            r.spp = Integer.parseInt(q.getOrDefault("spp", "10"));
+            r.tileSize = Integer.parseInt(q.getOrDefault("tileSize", Integer.toString(Math.min(16, r.width))));
+            r.seed = Long.parseLong(q.getOrDefault("seed", Long.toString(Rng.DEFAULT_SEED)));
+            r.scene = q.containsKey("scene") ? checkScene(q.get("scene")) : Scene.sceneId();
+            r.kernel = q.getOrDefault("kernel", defaults.kernel);
+            r.maxBounces = Integer.parseInt(q.getOrDefault("maxBounces", Integer.toString(defaults.maxBounces)));
+            r.rouletteDepth = Integer.parseInt(q.getOrDefault("rouletteDepth", Integer.toString(defaults.rouletteDepth)));
+            r.from = q.containsKey("from") ? vec(q.get("from")) : Scene.LOOK_FROM;
+            r.at = q.containsKey("at") ? vec(q.get("at")) : Scene.LOOK_AT;
+            r.vfov = Double.parseDouble(q.getOrDefault("vfov", Double.toString(Scene.VFOV)));
+            r.aperture = Double.parseDouble(q.getOrDefault("aperture", Double.toString(Scene.APERTURE)));
+            r.focus = Double.parseDouble(q.getOrDefault("focus", Double.toString(Scene.FOCUS_DISTANCE)));
+            if (r.width < 3 || r.width > MAX_WIDTH) throw new IllegalArgumentException("width must be in [3, " + MAX_WIDTH + "]");
+            if (r.spp < 1 || r.spp > MAX_SPP) throw new IllegalArgumentException("spp must be in [1, " + MAX_SPP + "]");
+            if (r.tileSize < 1 || r.tileSize > r.width) throw new IllegalArgumentException("tileSize must be in [1, width]");
+            if (r.maxBounces < 0 || r.maxBounces > MAX_BOUNCES)
+                throw new IllegalArgumentException("maxBounces must be in [0, " + MAX_BOUNCES + "]");
+            if (r.rouletteDepth < -1) throw new IllegalArgumentException("rouletteDepth must be -1 (off) or at least 0");
+            if (!Set.of("object", "flat", "wavefront", "float").contains(r.kernel))
+                throw new IllegalArgumentException("Unknown kernel " + r.kernel);
+            return r;
+        }
+
+        /**
+         * A client's scene id, if it is allowed: "random", "spheres:<n>" or
+         * "instances:<n>" with n up to MAX_SPHERES, or a "file:" that
+         * resolves, symbolic links included, to a file under SCENE_DIR.
+         * Returns it normalized, so equal scenes share a cache key.
+         */
+        static String checkScene(String id) {
+            if (id.equals("random")) return id;
+            for (String prefix : new String[] { "spheres:", "instances:" })
+                if (id.startsWith(prefix)) {
+                    int n = Integer.parseInt(id.substring(prefix.length()));
+                    if (n < 1 || n > MAX_SPHERES)
+                        throw new IllegalArgumentException(prefix + "<n> must be in [1, " + MAX_SPHERES + "]");
+                    return prefix + n;
+                }
+            if (!id.startsWith("file:")) throw new IllegalArgumentException("Unknown scene " + id);
+            if (SCENE_DIR == null) throw new IllegalArgumentException("Scene files are not served");
+            String name = id.substring(5);
+            try {
+                Path dir = Path.of(SCENE_DIR).toRealPath();
+                Path file = dir.resolve(name).toRealPath();
+                if (file.startsWith(dir) && Files.isRegularFile(file)) return "file:" + file;
+            } catch (IOException | InvalidPathException e) {
+                // Reported below, like a file outside the directory.
+            }
+            throw new IllegalArgumentException("No scene file " + name);
+        }
+
+        static Vec3 vec(String s) {
+            String[] c = s.split(",");
+            if (c.length != 3) throw new IllegalArgumentException("Expected x,y,z: " + s);
+            return new Vec3(Double.parseDouble(c[0]), Double.parseDouble(c[1]), Double.parseDouble(c[2]));
+        }
+
+        int height() { return (int)(width / (3./2.)); }
+
+        String sceneKey() {
+            return scene + " " + kernel + " " + maxBounces + " " + rouletteDepth;
+        }
+
+        /** SHA-256 of every input, in a fixed order and exact double bits. */
+        String key() {
+            try {
+                MessageDigest md = MessageDigest.getInstance("SHA-256");
+                DataOutputStream out = new DataOutputStream(new DigestOutputStream(OutputStream.nullOutputStream(), md));
+                out.writeInt(width); out.writeInt(spp); out.writeInt(tileSize);
+                out.writeLong(seed);
+                out.writeUTF(sceneKey());
+                for (Vec3 v : new Vec3[] { from, at }) {
+                    out.writeDouble(v.x); out.writeDouble(v.y); out.writeDouble(v.z);
+                }
+                out.writeDouble(vfov); out.writeDouble(aperture); out.writeDouble(focus);
+                return HexFormat.of().formatHex(md.digest());
+            } catch (IOException | NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /** A built scene, shared by all renders of it. */
+    static final class Built {
+        final Scene scene;
+        final Sphere[] world;
+
+        Built(Scene scene, Sphere[] world) {
+            this.scene = scene;
+            this.world = world;
+        }
+    }
+
+    final Cache cache;
+    final ThreadPoolExecutor jobs;
+    final ForkJoinPool pool;
+    private final LinkedHashMap<String, Built> scenes = new LinkedHashMap<>(16, .75f, true);
+    private final ConcurrentHashMap<String, CompletableFuture<byte[]>> rendering = new ConcurrentHashMap<>();
+    final LongAdder hits = new LongAdder(), misses = new LongAdder(), rejected = new LongAdder();
+
+    RenderService(long cacheBytes, int maxJobs, int queueSize, int threads) {
+        cache = new Cache(cacheBytes);
+        jobs = new ThreadPoolExecutor(maxJobs, maxJobs, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize));
+        pool = new ForkJoinPool(threads);
+    }
+
+    Built scene(Request r) {
+        synchronized (scenes) {
+            Built b = scenes.get(r.sceneKey());
+            if (b != null) return b;
+            Scene s = new Scene();
+            s.kernel = r.kernel;
+            s.maxBounces = r.maxBounces;
+            s.rouletteDepth = r.rouletteDepth;
+            // Same world as Render builds: scene generation uses the global Rng.
+            Rng.reset();
+            b = new Built(s, s.buildWorld(r.scene));
+            scenes.put(r.sceneKey(), b);
+            if (scenes.size() > MAX_SCENES) scenes.remove(scenes.keySet().iterator().next());
+            return b;
+        }
+    }
+
+    byte[] render(Request r) throws IOException {
+        Built b = scene(r);
+        var img = new BufferedImage(r.width, r.height(), BufferedImage.TYPE_INT_ARGB);
+        Camera camera = Scene.camera(r.width, r.height(), r.from, r.at, r.vfov, r.aperture, r.focus);
+        b.scene.paintParallel(new Render(img), camera, b.world, r.spp, r.tileSize, pool, r.seed);
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(img, "png", png);
+        return png.toByteArray();
+    }
+
+    /** The encoded image for r: cached, already rendering, or queued now. */
+    CompletableFuture<byte[]> image(Request r, String key) {
+        byte[] cached = cache.get(key);
+        if (cached != null) {
+            hits.increment();
+            return CompletableFuture.completedFuture(cached);
+        }
+        CompletableFuture<byte[]> f = new CompletableFuture<>();
+        CompletableFuture<byte[]> running = rendering.putIfAbsent(key, f);
+        if (running != null) {
+            hits.increment();
+            return running;
+        }
+        misses.increment();
+        try {
+            jobs.execute(() -> {
+                    try {
+                        byte[] png = render(r);
+                        cache.put(key, png);
+                        f.complete(png);
+                    } catch (Throwable e) {
+                        f.completeExceptionally(e);
+                    } finally {
+                        rendering.remove(key);
+                    }
+                });
+        } catch (RejectedExecutionException e) {
+            rendering.remove(key);
+            rejected.increment();
+            f.completeExceptionally(e);
+        }
+        return f;
+    }
+
+    void handleRender(HttpExchange ex) throws IOException {
+        long start = System.nanoTime();
+        Request r;
+        try {
+            r = Request.parse(ex.getRequestURI().getRawQuery());
+        } catch (IllegalArgumentException e) {
+            send(ex, 400, "text/plain", (e.getMessage() + "\n").getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        String key = r.key();
+        String etag = '"' + key + '"';
+        if (etag.equals(ex.getRequestHeaders().getFirst("If-None-Match"))) {
+            hits.increment();
+            ex.getResponseHeaders().set("ETag", etag);
+            ex.sendResponseHeaders(304, -1);
+            ex.close();
+            return;
+        }
+        boolean cached = cache.get(key) != null;
+        byte[] png;
+        try {
+            png = image(r, key).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            send(ex, 503, "text/plain", "Interrupted\n".getBytes(StandardCharsets.UTF_8));
+            return;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RejectedExecutionException) {
+                ex.getResponseHeaders().set("Retry-After", "1");
+                send(ex, 503, "text/plain", "Render queue full\n".getBytes(StandardCharsets.UTF_8));
+            } else if (e.getCause() instanceof IllegalArgumentException)
+                send(ex, 400, "text/plain", (e.getCause().getMessage() + "\n").getBytes(StandardCharsets.UTF_8));
+            else
+                send(ex, 500, "text/plain", (e.getCause() + "\n").getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        Headers h = ex.getResponseHeaders();
+        h.set("ETag", etag);
+        h.set("X-Cache", cached ? "hit" : "miss");
+        h.set("X-Render-Micros", Long.toString((System.nanoTime() - start) / 1000));
+        send(ex, 200, "image/png", png);
+    }
+
+    void handleStats(HttpExchange ex) throws IOException {
+        String stats = String.format("cache.entries %d%ncache.bytes %d%ncache.maxBytes %d%nhits %d%nmisses %d%n"
+                                     + "rejected %d%njobs.active %d%njobs.queued %d%n",
+                                     cache.size(), cache.bytes(), cache.maxBytes, hits.sum(), misses.sum(),
+                                     rejected.sum(), jobs.getActiveCount(), jobs.getQueue().size());
+        send(ex, 200, "text/plain", stats.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static void send(HttpExchange ex, int status, String type, byte[] body) throws IOException {
+        ex.getResponseHeaders().set("Content-Type", type);
+        ex.sendResponseHeaders(status, body.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    HttpServer start(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/render", this::handleRender);
+        server.createContext("/stats", this::handleStats);
+        // Handlers mostly wait for renders, so they get their own threads.
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        return server;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        long cacheBytes = Long.getLong("raytracer.cacheMB", 256) << 20;
+        int maxJobs = Integer.getInteger("raytracer.serviceJobs", 1);
+        int queueSize = Integer.getInteger("raytracer.serviceQueue", 16);
+        new RenderService(cacheBytes, maxJobs, queueSize, threads).start(port);
+        System.out.println(String.format("Render service on port %d: threads=%d jobs=%d queue=%d cache=%d MB",
+                                         port, threads, maxJobs, queueSize, cacheBytes >> 20));
+    }
+}
@@ -0,0 +1,154 @@
+package raytracer;
+
+import jdk.jfr.*;
+
+/**
+ * Optional tracing statistics: rays cast, sphere tests, how paths end and a
+ * histogram of path lengths. Each tile counts into its own plain Counters on
+ * the thread rendering it, which are added to the render's totals when the
+ * tile ends, so the hot path never touches shared memory. Tiles and renders
+ * are also recorded as JFR events (raytracer.Tile, raytracer.Render).
+ *
+ * Every render that collects statistics has its own RenderStats, handed
+ * down to its tiles, so concurrent renders of one Scene don't mix counts.
+ * Off unless -Draytracer.stats=true or Scene.collectStats is set when the
+ * render starts. When off, the tiles get no Counters and the kernels only
+ * pay a null check.
+ */
+public class RenderStats {
+
+    static final boolean ENABLED = Boolean.getBoolean("raytracer.stats");
+
+    /** Counts for one tile, or the sum over a render. Not thread-safe. */
+    static final class Counters {
+        // Camera rays, and all rays traced including camera rays.
+        long paths, rays;
+        long sphereTests;
+        // How paths ended.
+        long escaped, absorbed, roulette, bounceLimit;
+        // Paths by number of rays traced.
+        final long[] depth;
+
+        Counters(int maxBounces) {
+            depth = new long[maxBounces + 2];
+        }
+
+        void add(Counters c) {
+            paths += c.paths;
+            rays += c.rays;
+            sphereTests += c.sphereTests;
+            escaped += c.escaped;
+            absorbed += c.absorbed;
+            roulette += c.roulette;
+            bounceLimit += c.bounceLimit;
+            for (int i = 0; i < depth.length; i++) depth[i] += c.depth[i];
+        }
+    }
+
+    @Name("raytracer.Tile")
+    @Label("Tile")
+    @Category("Ray Tracer")
+    static class TileEvent extends Event {
+        @Label("x0") int x0;
+        @Label("y0") int y0;
+        @Label("x1") int x1;
+        @Label("y1") int y1;
+        @Label("Primary Rays") long primaryRays;
+        @Label("Secondary Rays") long secondaryRays;
+        @Label("Sphere Tests") long sphereTests;
+        @Label("Escaped Paths") long escaped;
+        @Label("Absorbed Paths") long absorbed;
+    }
+
+    @Name("raytracer.Render")
+    @Label("Render")
+    @Category("Ray Tracer")
+    static class RenderEvent extends Event {
+        @Label("Width") int width;
+        @Label("Height") int height;
+        @Label("Samples Per Pixel") int samplesPerPixel;
+        @Label("Kernel") String kernel;
+        @Label("Acceleration") String accel;
+        @Label("Primary Rays") long primaryRays;
+        @Label("Secondary Rays") long secondaryRays;
+        @Label("Sphere Tests") long sphereTests;
+        @Label("Rays Per Second") double raysPerSecond;
+    }
+
+    // Counters of the tile being rendered on this thread.
+    static final ThreadLocal<Counters> LOCAL = new ThreadLocal<>();
+
+    final int maxBounces;
+    final Counters total;
+    final RenderEvent event = new RenderEvent();
+    long startNanos, nanos;
+
+    RenderStats(Scene scene, int imageW, int imageH, int samplesPerPixel) {
+        maxBounces = scene.maxBounces;
+        total = new Counters(maxBounces);
+        event.width = imageW;
+        event.height = imageH;
+        event.samplesPerPixel = samplesPerPixel;
+        event.kernel = scene.kernel;
+        event.accel = scene.accel;
+        event.begin();
+        startNanos = System.nanoTime();
+    }
+
+    /** Counters of the tile this thread renders, or null if its render collects no stats. */
+    static Counters current() {
+        return LOCAL.get();
+    }
+
+    /** Start counting a tile on this thread. */
+    Counters begin() {
+        Counters c = new Counters(maxBounces);
+        LOCAL.set(c);
+        return c;
+    }
+
+    void end(Counters c, Tile tile) {
+        LOCAL.remove();
+        synchronized (total) {
+            total.add(c);
+        }
+        TileEvent e = new TileEvent();
+        if (e.shouldCommit()) {
+            e.x0 = tile.x0; e.y0 = tile.y0; e.x1 = tile.x1; e.y1 = tile.y1;
+            e.primaryRays = c.paths;
+            e.secondaryRays = c.rays - c.paths;
+            e.sphereTests = c.sphereTests;
+            e.escaped = c.escaped;
+            e.absorbed = c.absorbed;
+            e.commit();
+        }
+    }
+
+    void finish() {
+        nanos = System.nanoTime() - startNanos;
+        event.primaryRays = total.paths;
+        event.secondaryRays = total.rays - total.paths;
+        event.sphereTests = total.sphereTests;
+        event.raysPerSecond = total.rays / (nanos / 1e9);
+        event.commit();
+    }
+
+    double averagePathLength() {
+        return total.paths == 0 ? 0 : (double)total.rays / total.paths;
+    }
+
+    String summary() {
+        Counters t = total;
+        double paths = Math.max(t.paths, 1);
+        StringBuilder depth = new StringBuilder();
+        for (int d = 1; d < t.depth.length; d++)
+            if (t.depth[d] > 0) depth.append(String.format(" %d:%.1f%%", d, 100 * t.depth[d] / paths));
+        return String.format("Rays: %,d primary + %,d secondary in %.2f s, %.2f Mrays/s, %.1f sphere tests/ray%n"
+                             + "Paths: %.1f%% escaped, %.1f%% absorbed, %.1f%% roulette, %.1f%% bounce limit%n"
+                             + "Path length: %.2f average,%s",
+                             t.paths, t.rays - t.paths, nanos / 1e9, t.rays / (nanos / 1e3),
+                             (double)t.sphereTests / Math.max(t.rays, 1),
+                             100 * t.escaped / paths, 100 * t.absorbed / paths,
+                             100 * t.roulette / paths, 100 * t.bounceLimit / paths, averagePathLength(), depth);
+    }
+}
@@ -0,0 +1,59 @@
+package raytracer;
+
+/**
+ * Checks that RenderService.Request.parse rejects every out-of-range input
+ * with IllegalArgumentException, and accepts the defaults and the bounds
+ * themselves. Prints one line per query and exits with status 1 if any
+ * query is handled wrongly.
+ *
+ *   java -cp target raytracer.RequestCheck
+ */
+public class RequestCheck {
+
+    static final String[] REJECTED = {
+        "width=2", "width=" + (RenderService.MAX_WIDTH + 1),
+        "spp=0", "spp=" + (RenderService.MAX_SPP + 1),
+        "tileSize=0", "width=100&tileSize=101",
+        "maxBounces=-1", "maxBounces=" + (RenderService.MAX_BOUNCES + 1),
+        "rouletteDepth=-2",
+        "kernel=gpu",
+        "scene=cornell", "scene=spheres:0", "scene=spheres:" + (RenderService.MAX_SPHERES + 1),
+        "scene=instances:" + (RenderService.MAX_SPHERES + 1), "scene=file:/etc/passwd",
+    };
+
+    static final String[] ACCEPTED = {
+        "", "width=3", "width=3&tileSize=3", "width=" + RenderService.MAX_WIDTH, "spp=" + RenderService.MAX_SPP,
+        "maxBounces=0", "maxBounces=" + RenderService.MAX_BOUNCES, "rouletteDepth=-1", "rouletteDepth=0",
+        "scene=spheres:" + RenderService.MAX_SPHERES,
+    };
+
+    public static void main(String[] args) {
+        int failures = 0;
+        for (String q : REJECTED) {
+            String result;
+            try {
+                RenderService.Request.parse(q);
+                result = "FAIL accepted";
+                failures++;
+            } catch (IllegalArgumentException e) {
+                result = "ok   " + e.getMessage();
+            }
+            System.out.println(String.format("%-28s %s", q, result));
+        }
+        for (String q : ACCEPTED) {
+            String result;
+            try {
+                RenderService.Request.parse(q);
+                result = "ok   accepted";
+            } catch (IllegalArgumentException e) {
+                result = "FAIL " + e.getMessage();
+                failures++;
+            }
+            System.out.println(String.format("%-28s %s", q.isEmpty() ? "(defaults)" : q, result));
+        }
+        if (failures > 0) {
+            System.out.println(failures + " queries handled wrongly");
+            System.exit(1);
+        }
+    }
+}
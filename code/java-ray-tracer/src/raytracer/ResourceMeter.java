@@ -0,0 +1,164 @@
+package raytracer;
+
+import java.io.*;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+import com.sun.management.ThreadMXBean;
+
+/**
+ * Process-wide resource use of a render, split into phases (build, render,
+ * resolve, encode, write, ...): wall time, CPU time and allocated bytes
+ * summed over all Java threads, and GC count and collection time from the GC
+ * MXBeans. Phases are exclusive: a phase entered inside another one pauses
+ * the outer one, so the phases add up to the whole.
+ *
+ * The per-thread counters die with their threads, so pools made by pool()
+ * and singleThread() hand their totals over as each thread ends. Other
+ * threads count only while they are alive.
+ */
+final class ResourceMeter {
+
+    /** Counters at a point in time, or their difference over an interval. */
+    record Usage(long wallNanos, long cpuNanos, long allocatedBytes, long gcCount, long gcMillis) {
+        Usage minus(Usage o) {
+            return new Usage(wallNanos - o.wallNanos, cpuNanos - o.cpuNanos, allocatedBytes - o.allocatedBytes,
+                             gcCount - o.gcCount, gcMillis - o.gcMillis);
+        }
+
+        Usage plus(Usage o) {
+            return new Usage(wallNanos + o.wallNanos, cpuNanos + o.cpuNanos, allocatedBytes + o.allocatedBytes,
+                             gcCount + o.gcCount, gcMillis + o.gcMillis);
+        }
+
+        String json() {
+            return String.format(Locale.ROOT, "\"wallMillis\": %.3f, \"cpuMillis\": %.3f, \"allocatedBytes\": %d, "
+                                 + "\"gcCount\": %d, \"gcMillis\": %d",
+                                 wallNanos / 1e6, cpuNanos / 1e6, allocatedBytes, gcCount, gcMillis);
+        }
+    }
+
+    static final ThreadMXBean THREADS = (ThreadMXBean)ManagementFactory.getThreadMXBean();
+    // Totals handed over by ended threads, and the ids of threads that have
+    // handed theirs over but may still be alive, so now() doesn't count
+    // them twice. Ids are never reused, so one is dropped as soon as its
+    // thread is gone and the set stays as small as the pools being shut
+    // down. All guarded by RETIRING.
+    private static final Set<Long> RETIRING = new HashSet<>();
+    private static long retiredBytes, retiredCpu;
+
+    static Usage now() {
+        long cpu = 0, allocated = 0;
+        synchronized (RETIRING) {
+            long[] ids = THREADS.getAllThreadIds();
+            long[] bytes = THREADS.getThreadAllocatedBytes(ids);
+            long[] times = THREADS.getThreadCpuTime(ids);
+            Set<Long> alive = new HashSet<>();
+            for (int i = 0; i < ids.length; i++) {
+                if (RETIRING.contains(ids[i])) {
+                    alive.add(ids[i]);
+                    continue;
+                }
+                allocated += Math.max(0, bytes[i]);
+                cpu += Math.max(0, times[i]);
+            }
+            RETIRING.retainAll(alive);
+            allocated += retiredBytes;
+            cpu += retiredCpu;
+        }
+        long gcCount = 0, gcMillis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcCount += Math.max(0, gc.getCollectionCount());
+            gcMillis += Math.max(0, gc.getCollectionTime());
+        }
+        return new Usage(System.nanoTime(), cpu, allocated, gcCount, gcMillis);
+    }
+
+    /** Hand the calling thread's totals over before it ends. */
+    static void retire() {
+        synchronized (RETIRING) {
+            RETIRING.add(Thread.currentThread().getId());
+            retiredBytes += THREADS.getCurrentThreadAllocatedBytes();
+            retiredCpu += THREADS.getCurrentThreadCpuTime();
+        }
+    }
+
+    static ForkJoinPool pool(int threads) {
+        return new ForkJoinPool(threads, p -> new ForkJoinWorkerThread(p) {
+                protected void onTermination(Throwable exception) {
+                    retire();
+                    super.onTermination(exception);
+                }
+            }, null, false);
+    }
+
+    static ExecutorService singleThread() {
+        return Executors.newSingleThreadExecutor(r -> new Thread(() -> {
+                    try {
+                        r.run();
+                    } finally {
+                        retire();
+                    }
+                }));
+    }
+
+    final Usage start = now();
+    final LinkedHashMap<String, Usage> phases = new LinkedHashMap<>();
+    private String current;
+    private Usage mark = start;
+
+    /** Run body as phase name, on the calling thread. */
+    <T> T phase(String name, Supplier<T> body) {
+        String outer = switchTo(name);
+        try {
+            return body.get();
+        } finally {
+            switchTo(outer);
+        }
+    }
+
+    void run(String name, Runnable body) {
+        phase(name, () -> { body.run(); return null; });
+    }
+
+    private synchronized String switchTo(String name) {
+        Usage u = now();
+        if (current != null) phases.merge(current, u.minus(mark), Usage::plus);
+        String outer = current;
+        current = name;
+        mark = u;
+        return outer;
+    }
+
+    /** The phases and their total as JSON, with info's entries (numbers or strings) first. */
+    synchronized String json(Map<String, Object> info) {
+        StringBuilder s = new StringBuilder("{\n");
+        for (Map.Entry<String, Object> e : info.entrySet()) {
+            Object v = e.getValue();
+            s.append("  \"").append(e.getKey()).append("\": ")
+                .append(v instanceof Number ? v.toString() : '"' + escape(String.valueOf(v)) + '"').append(",\n");
+        }
+        Usage total = new Usage(0, 0, 0, 0, 0);
+        s.append("  \"phases\": {\n");
+        int i = 0;
+        for (Map.Entry<String, Usage> e : phases.entrySet()) {
+            total = total.plus(e.getValue());
+            s.append("    \"").append(escape(e.getKey())).append("\": { ").append(e.getValue().json())
+                .append(++i < phases.size() ? " },\n" : " }\n");
+        }
+        s.append("  },\n  \"total\": { ").append(total.json()).append(" }\n}\n");
+        return s.toString();
+    }
+
+    static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    void write(Path file, Map<String, Object> info) throws IOException {
+        Files.writeString(file, json(info), StandardCharsets.UTF_8);
+    }
+}
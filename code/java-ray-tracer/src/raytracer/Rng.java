@@ -1,20 +1,54 @@
 package raytracer;
 
 import java.util.random.*;
+import java.util.random.RandomGenerator.SplittableGenerator;
 
 public class Rng {
 
+    static final long DEFAULT_SEED = 0xDEADBEEF;
+
     public static RandomGenerator SEED;
 
+    // Per-thread stream installed by the tile renderer. When unset, the
+    // global SEED is used, so single-threaded rendering is unchanged.
+    static final ThreadLocal<RandomGenerator> LOCAL = new ThreadLocal<>();
+
     static { reset(); }
 
     static void reset() {
-        SEED = RandomGeneratorFactory.of("Xoroshiro128PlusPlus").create(0xDEADBEEF);
+        SEED = RandomGeneratorFactory.of("Xoroshiro128PlusPlus").create(DEFAULT_SEED);
+    }
+
+    /**
+     * This thread's stream. Hot loops fetch it once per tile and pass it
+     * down, as FlatKernel and the object kernel do; rand() is for cold code.
+     */
+    static RandomGenerator current() {
+        RandomGenerator g = LOCAL.get();
+        return g != null ? g : SEED;
+    }
+
+    static SplittableGenerator splittable(long seed) {
+        return (SplittableGenerator)RandomGeneratorFactory.of("L64X128MixRandom").create(seed);
     }
 
-    static double rand() { return SEED.nextDouble(); }
+    /** Independent stream number index derived from seed, e.g. one per render pass. */
+    static SplittableGenerator stream(long seed, long index) {
+        return splittable(streamSeed(seed, index));
+    }
+
+    /** Seed of stream(seed, index), for APIs that take a seed. */
+    static long streamSeed(long seed, long index) {
+        return seed ^ (0x9E3779B97F4A7C15L * (index + 1));
+    }
+
+    static double rand() { return current().nextDouble(); }
 
     static double rand(double min, double max) {
-        return min + ((max - min) * SEED.nextDouble());
+        return rand(current(), min, max);
+    }
+
+    static double rand(RandomGenerator rng, double min, double max) {
+        return min + ((max - min) * rng.nextDouble());
     }
 }
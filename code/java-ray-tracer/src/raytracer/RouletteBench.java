@@ -0,0 +1,69 @@
+package raytracer;
+
+/**
+ * Compares Russian roulette policies against the fixed bounce cap at equal
+ * time. Renders a high-spp reference, then each policy at the same spp, and
+ * reports rays/sec, average path length and the error it would reach in the
+ * time the fixed cap takes (MSE scales as 1/time for Monte Carlo). Path
+ * lengths come from RenderStats, which is on for every run.
+ *
+ *   java -cp target raytracer.RouletteBench [width] [spp] [referenceSpp] [threads]
+ */
+public class RouletteBench {
+
+    static final int[] DEPTHS = { -1, 5, 3, 2, 1 };
+
+    static class Result {
+        Framebuffer fb;
+        double seconds, pathLength, raysPerSec;
+    }
+
+    static Result run(int width, int spp, int rouletteDepth, int threads) {
+        Scene scene = new Scene();
+        scene.kernel = "flat";
+        scene.rouletteDepth = rouletteDepth;
+        scene.collectStats = true;
+        Result res = new Result();
+        res.fb = new Framebuffer(width, (int)(width / (3./2.)));
+        Rng.reset();
+        long start = System.nanoTime();
+        scene.paintProgressive(res.fb, spp, spp, 16, threads, Rng.DEFAULT_SEED + 1, fb -> {});
+        res.seconds = (System.nanoTime() - start) / 1e9;
+        res.pathLength = scene.averagePathLength();
+        res.raysPerSec = scene.raysTraced() / res.seconds;
+        return res;
+    }
+
+    /** Mean squared error of per-pixel mean radiance. */
+    static double mse(Framebuffer fb, Framebuffer ref) {
+        double se = 0;
+        for (int i = 0; i < fb.rgb.length; i++) {
+            double d = fb.rgb[i] / fb.samples - ref.rgb[i] / ref.samples;
+            se += d * d;
+        }
+        return se / fb.rgb.length;
+    }
+
+    public static void main(String[] args) {
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : 150;
+        int spp = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int refSpp = args.length > 2 ? Integer.parseInt(args[2]) : 512;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+        System.out.println(String.format("Reference: %dpx, %d spp", width, refSpp));
+        Framebuffer ref = run(width, refSpp, -1, threads).fb;
+        for (int depth : DEPTHS) run(width, spp, depth, threads); // warm-up
+
+        System.out.println(String.format("%-10s %10s %12s %12s %14s %14s",
+                                         "policy", "time, s", "path length", "Mrays/s", "MSE", "MSE@equal time"));
+        double baseSeconds = 0;
+        for (int depth : DEPTHS) {
+            Result r = run(width, spp, depth, threads);
+            if (depth < 0) baseSeconds = r.seconds;
+            double mse = mse(r.fb, ref);
+            System.out.println(String.format("%-10s %10.3f %12.2f %12.2f %14.6f %14.6f",
+                                             depth < 0 ? "fixed" : "rr@" + depth, r.seconds, r.pathLength,
+                                             r.raysPerSec / 1e6, mse, mse * r.seconds / baseSeconds));
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package raytracer;
+
+/**
+ * Source of the camera dimensions of each sample, pixel jitter and lens
+ * position, plus a fast Xoroshiro for everything after the camera ray
+ * (scattering, roulette). One instance per tile, seeded from the tile's Rng
+ * stream, so renders stay independent of the number of threads.
+ *
+ * Selected with -Draytracer.sampler:
+ *   random      - the original RandomGenerator streams (default; no Sampler)
+ *   independent - pseudo-random from Xoroshiro, generated in batches
+ *   sobol       - 4D Sobol points with hash-based Owen scrambling per pixel,
+ *                 which cover the pixel and lens far more evenly than
+ *                 independent samples and so converge faster in those
+ *                 dimensions
+ */
+abstract class Sampler {
+
+    final Xoroshiro rng;
+    private double[] samples = new double[64];
+
+    Sampler(long seed) {
+        rng = new Xoroshiro(seed);
+    }
+
+    /** Sampler for name, or null for "random". */
+    static Sampler create(String name, long seed) {
+        switch (name) {
+        case "random": return null;
+        case "independent": return new Independent(seed);
+        case "sobol": return new Sobol(seed);
+        default: throw new IllegalArgumentException("Unknown sampler " + name);
+        }
+    }
+
+    /**
+     * Camera dimensions of samples first .. first+n-1 of pixel (i, j): for
+     * sample k, p[4k], p[4k+1] is the jitter in [0, 1)^2 and p[4k+2],
+     * p[4k+3] a point on the unit disk for the lens. The array is reused by
+     * the next call.
+     */
+    final double[] pixel(int i, int j, int first, int n) {
+        if (samples.length < 4 * n) samples = new double[4 * n];
+        fill(i, j, first, n, samples);
+        return samples;
+    }
+
+    abstract void fill(int i, int j, int first, int n, double[] out);
+
+    /** Map (u, v) in [0, 1)^2 to the unit disk without rejection, keeping strata intact. */
+    static void toDisk(double[] p, int at) {
+        double a = 2 * p[at] - 1, b = 2 * p[at + 1] - 1;
+        double r, phi;
+        if (a == 0 && b == 0) {
+            r = 0; phi = 0;
+        } else if (a * a > b * b) {
+            r = a; phi = (Math.PI / 4) * (b / a);
+        } else {
+            r = b; phi = Math.PI / 2 - (Math.PI / 4) * (a / b);
+        }
+        p[at] = r * Math.cos(phi);
+        p[at + 1] = r * Math.sin(phi);
+    }
+
+    static final class Independent extends Sampler {
+
+        Independent(long seed) {
+            super(seed);
+        }
+
+        @Override
+        void fill(int i, int j, int first, int n, double[] out) {
+            rng.fill(out, 0, 4 * n);
+            for (int k = 0; k < n; k++) toDisk(out, 4 * k + 2);
+        }
+    }
+
+    /**
+     * Shuffled, Owen-scrambled Sobol (Burley, "Practical Hash-based Owen
+     * Scrambling", 2020): the sample index and each dimension are scrambled
+     * with hashes of the pixel, so pixels get decorrelated point sets that
+     * keep the stratification of the Sobol sequence.
+     */
+    static final class Sobol extends Sampler {
+
+        // Direction numbers of the first four Sobol dimensions (Joe and Kuo).
+        static final int[][] V = {
+            directions(1, 0, new int[] { 1 }, true),
+            directions(1, 0, new int[] { 1 }, false),
+            directions(2, 1, new int[] { 1, 3 }, false),
+            directions(3, 1, new int[] { 1, 3, 1 }, false),
+        };
+        // Sobol points by index byte: T[4 * (256 * byte + value) + dim] is
+        // the XOR of the direction numbers of the bits set in value, so a
+        // point takes four table rows instead of a loop over 32 bits.
+        static final int[] T = new int[4 * 4 * 256];
+        static {
+            for (int bt = 0; bt < 4; bt++)
+                for (int value = 0; value < 256; value++)
+                    for (int d = 0; d < 4; d++)
+                        T[4 * (256 * bt + value) + d] = sobol(value << (8 * bt), d);
+        }
+
+        final int seed;
+
+        Sobol(long seed) {
+            super(seed);
+            this.seed = (int)Xoroshiro.splitMix(seed);
+        }
+
+        static int[] directions(int s, int a, int[] m, boolean vanDerCorput) {
+            int[] v = new int[32];
+            for (int k = 0; k < 32; k++) {
+                if (vanDerCorput) v[k] = 1 << (31 - k);
+                else if (k < s) v[k] = m[k] << (31 - k);
+                else {
+                    int x = v[k - s] ^ (v[k - s] >>> s);
+                    for (int l = 1; l < s; l++)
+                        if (((a >>> (s - 1 - l)) & 1) != 0) x ^= v[k - l];
+                    v[k] = x;
+                }
+            }
+            return v;
+        }
+
+        static int sobol(int index, int dim) {
+            int[] v = V[dim];
+            int x = 0;
+            for (int bit = 0; index != 0; bit++, index >>>= 1)
+                if ((index & 1) != 0) x ^= v[bit];
+            return x;
+        }
+
+        static int hash(int x) {
+            x ^= x >>> 16;
+            x *= 0x7feb352d;
+            x ^= x >>> 15;
+            x *= 0x846ca68b;
+            x ^= x >>> 16;
+            return x;
+        }
+
+        /** Random permutation of the binary subintervals at every level. */
+        static int owen(int x, int seed) {
+            x = Integer.reverse(x);
+            x += seed;
+            x ^= x * 0x6c50b47c;
+            x ^= x * 0xb82f1e52;
+            x ^= x * 0xc7afe638;
+            x ^= x * 0x8d22f6e6;
+            return Integer.reverse(x);
+        }
+
+        @Override
+        void fill(int i, int j, int first, int n, double[] out) {
+            int pixelSeed = hash(seed ^ hash(i ^ hash(j)));
+            int s0 = hash(pixelSeed + 1), s1 = hash(pixelSeed + 2), s2 = hash(pixelSeed + 3), s3 = hash(pixelSeed + 4);
+            for (int k = 0; k < n; k++) {
+                int index = owen(first + k, pixelSeed);
+                int r0 = 4 * (index & 0xff), r1 = 4 * (256 + (index >>> 8 & 0xff)),
+                    r2 = 4 * (512 + (index >>> 16 & 0xff)), r3 = 4 * (768 + (index >>> 24));
+                int x0 = T[r0] ^ T[r1] ^ T[r2] ^ T[r3];
+                int x1 = T[r0 + 1] ^ T[r1 + 1] ^ T[r2 + 1] ^ T[r3 + 1];
+                int x2 = T[r0 + 2] ^ T[r1 + 2] ^ T[r2 + 2] ^ T[r3 + 2];
+                int x3 = T[r0 + 3] ^ T[r1 + 3] ^ T[r2 + 3] ^ T[r3 + 3];
+                int o = 4 * k;
+                out[o] = (owen(x0, s0) >>> 8) * 0x1.0p-24;
+                out[o + 1] = (owen(x1, s1) >>> 8) * 0x1.0p-24;
+                out[o + 2] = (owen(x2, s2) >>> 8) * 0x1.0p-24;
+                out[o + 3] = (owen(x3, s3) >>> 8) * 0x1.0p-24;
+                toDisk(out, o + 2);
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package raytracer;
+
+import java.util.*;
+
+/**
+ * Compares samplers at equal quality. Renders a high-spp reference, then
+ * every sampler at spp 1, 2, 3, 4, 6, 8, 12, ... up to maxSpp, and reports
+ * time and error against the reference. Since MSE scales as 1/spp, the
+ * error at maxSpp also gives the spp and time each sampler needs to match
+ * "random" at maxSpp.
+ *
+ *   java -cp target raytracer.SamplerBench [width] [maxSpp] [referenceSpp] [threads]
+ */
+public class SamplerBench {
+
+    static final String[] SAMPLERS = { "random", "independent", "sobol" };
+
+    static Framebuffer render(String sampler, int width, int spp, int threads, double[] seconds) {
+        Scene scene = new Scene();
+        scene.kernel = "flat";
+        scene.sampler = sampler;
+        Framebuffer fb = new Framebuffer(width, (int)(width / (3./2.)));
+        Rng.reset();
+        long start = System.nanoTime();
+        scene.paintProgressive(fb, spp, spp, 16, threads, Rng.DEFAULT_SEED + 1, f -> {});
+        seconds[0] = (System.nanoTime() - start) / 1e9;
+        return fb;
+    }
+
+    public static void main(String[] args) {
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : 150;
+        int maxSpp = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+        int refSpp = args.length > 2 ? Integer.parseInt(args[2]) : 1024;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        double[] seconds = new double[1];
+
+        System.out.println(String.format("Reference: %dpx, %d spp", width, refSpp));
+        Framebuffer ref = render("random", width, refSpp, threads, seconds);
+        for (String s : SAMPLERS) render(s, width, maxSpp, threads, seconds); // warm-up
+
+        List<Integer> spps = new ArrayList<>();
+        for (int p = 1; p <= maxSpp; p *= 2) {
+            spps.add(p);
+            if (p > 1 && p * 3 / 2 <= maxSpp) spps.add(p * 3 / 2);
+        }
+        int steps = spps.size();
+        double[][] mse = new double[SAMPLERS.length][steps], time = new double[SAMPLERS.length][steps];
+        System.out.println(String.format("%-12s %6s %10s %14s", "sampler", "spp", "time, s", "MSE"));
+        for (int k = 0; k < SAMPLERS.length; k++)
+            for (int e = 0; e < steps; e++) {
+                Framebuffer fb = render(SAMPLERS[k], width, spps.get(e), threads, seconds);
+                mse[k][e] = RouletteBench.mse(fb, ref);
+                time[k][e] = seconds[0];
+                System.out.println(String.format("%-12s %6d %10.3f %14.6f", SAMPLERS[k], spps.get(e), seconds[0], mse[k][e]));
+            }
+
+        double target = mse[0][steps - 1];
+        System.out.println(String.format("%nTo match random at %d spp (MSE %.6f):", spps.get(steps - 1), target));
+        for (int k = 0; k < SAMPLERS.length; k++) {
+            double scale = mse[k][steps - 1] / target;
+            System.out.println(String.format("%-12s %6.1f spp %10.3f s", SAMPLERS[k], spps.get(steps - 1) * scale,
+                                             time[k][steps - 1] * scale));
+        }
+    }
+}
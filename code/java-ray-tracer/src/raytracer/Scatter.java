@@ -4,7 +4,7 @@ public class Scatter {
 
     final Ray ray;
     final Vec3 attenuation;
-    boolean absorbed;
+    final boolean absorbed;
 
     final static Scatter ABSORBED
         = new Scatter(new Ray(Vec3.ZERO, Vec3.ZERO), Vec3.ZERO, true);
@@ -3,10 +3,57 @@ package raytracer;
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.awt.Color;
+import java.io.*;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+import java.util.random.RandomGenerator;
+import java.util.random.RandomGenerator.SplittableGenerator;
 
 public class Scene {
 
+    // Acceleration structure used by hitAll: "bvh", "soa" (flat arrays with a
+    // SIMD scan) or "linear" (plain scan of the sphere array, kept for
+    // comparison).
+    String accel = System.getProperty("raytracer.accel", "bvh");
+    Bvh bvh;
+    SphereSoA soa;
+
+    // Top-level BVH of an instanced scene ("instances:<n>"), traced by hitAll
+    // instead of the sphere array. Only the object kernel supports it.
+    Group group;
+
+    // Tracing kernel: "object" (Vec3/Ray/HitRecord per operation), "flat"
+    // (FlatKernel, primitive state and no per-bounce allocation),
+    // "wavefront" (Wavefront, breadth-first over batches of rays) or "float"
+    // (FloatKernel, FlatKernel in single precision for previews).
+    String kernel = System.getProperty("raytracer.kernel", "object");
+
+    // Float copy of the geometry for the "float" kernel, made on first use.
+    private FloatScene floats;
+
+    synchronized FloatScene floatScene(Sphere[] world) {
+        if (floats == null)
+            floats = bvh != null ? new FloatScene(bvh.soa, bvh)
+                : new FloatScene(soa != null ? soa : new SphereSoA(world), null);
+        return floats;
+    }
+
+    /** Per-tile kernel for kernel "flat" or "float". */
+    PixelKernel pixelKernel(Camera camera, Sphere[] world) {
+        return kernel.equals("float") ? new FloatKernel(this, camera, world) : new FlatKernel(this, camera, world);
+    }
+
+    // Source of pixel and lens samples: "random" (the Rng streams),
+    // "independent" or "sobol"; see Sampler.
+    String sampler = System.getProperty("raytracer.sampler", "random");
+
+    /** Sampler for the current tile, seeded from its Rng stream, or null for "random". */
+    Sampler newSampler() {
+        return sampler.equals("random") ? null : Sampler.create(sampler, Rng.current().nextLong());
+    }
+
     private Vec3 white = Vec3.ONE;
     private Vec3 blue = new Vec3(.5, .7, 1.);
 
@@ -17,29 +64,114 @@ public class Scene {
     }
 
     Vec3 rayColor(Ray r, Sphere[] world, int maxBounces) {
+        return rayColor(r, world, maxBounces, null, null, Rng.current());
+    }
+
+    /**
+     * rayColor, adding the path's first-hit Features to feature unless it is
+     * null, and counting the path in c unless it is null. Draws from rng.
+     */
+    Vec3 rayColor(Ray r, Sphere[] world, int maxBounces, double[] feature, RenderStats.Counters c,
+                  RandomGenerator rng) {
+        if (c != null) c.paths++;
+        double[] moment = feature;
+        if (feature != null) feature[Features.SAMPLES]++;
         Vec3 accAttenuation = Vec3.ONE;
+        double distance = 0;
+        int depth = 0;
         while (maxBounces >= 0) {
-            HitRecord hit = hitAll(r, world);
+            HitRecord hit = hitAll(r, world, c);
+            depth++;
             if (!hit.miss) {
                 Material mat = hit.material;
+                if (feature != null) {
+                    distance += hit.t * r.direction.length();
+                    if (!Features.mirror(mat)) {
+                        Vec3 a = mat instanceof Material.Lambertian l ? l.albedo
+                            : mat instanceof Material.Metal m ? m.albedo : Vec3.ONE;
+                        Features.surface(feature, accAttenuation.x * a.x, accAttenuation.y * a.y, accAttenuation.z * a.z,
+                                         hit.normal.x, hit.normal.y, hit.normal.z, distance);
+                        feature = null;
+                    }
+                }
                 Scatter scatter;
                 if (mat instanceof Material.Lambertian)
-                    scatter = ((Material.Lambertian)mat).scatter(r, hit);
+                    scatter = ((Material.Lambertian)mat).scatter(r, hit, rng);
                 else if (mat instanceof Material.Metal)
-                    scatter = ((Material.Metal)mat).scatter(r, hit);
+                    scatter = ((Material.Metal)mat).scatter(r, hit, rng);
                 else
-                    scatter = ((Material.Dielectric)mat).scatter(r, hit);
-                if (scatter.absorbed) { return Vec3.ZERO; }
+                    scatter = ((Material.Dielectric)mat).scatter(r, hit, rng);
+                if (scatter.absorbed) {
+                    if (c != null) { c.absorbed++; c.depth[depth]++; }
+                    return Vec3.ZERO;
+                }
                 accAttenuation = accAttenuation.mul(scatter.attenuation);
                 r = scatter.ray;
                 maxBounces--;
-            } else
-                return sky(r).mul(accAttenuation);
+                if (rouletteDepth >= 0 && depth >= rouletteDepth) {
+                    double p = survival(accAttenuation.x, accAttenuation.y, accAttenuation.z);
+                    if (p < 1) {
+                        if (rng.nextDouble() >= p) {
+                            if (c != null) { c.roulette++; c.depth[depth]++; }
+                            return Vec3.ZERO;
+                        }
+                        accAttenuation = accAttenuation.scale(1 / p);
+                    }
+                }
+            } else {
+                if (c != null) { c.escaped++; c.depth[depth]++; }
+                Vec3 color = sky(r).mul(accAttenuation);
+                if (feature != null) Features.sky(feature, color.x, color.y, color.z);
+                if (moment != null) Features.radiance(moment, color.x, color.y, color.z);
+                return color;
+            }
         }
+        if (c != null) { c.bounceLimit++; c.depth[depth]++; }
         return Vec3.ZERO;
     }
 
-    HitRecord hitAll(Ray r, Sphere[] world) {
+    /**
+     * Russian roulette: probability of continuing a path with the given
+     * throughput. Survivors are divided by it, which keeps the estimate
+     * unbiased while dim paths end early.
+     */
+    static double survival(double ar, double ag, double ab) {
+        return Math.min(1, Math.max(ar, Math.max(ag, ab)));
+    }
+
+    /** Average number of rays traced per camera path by the last render that collected stats. */
+    public double averagePathLength() {
+        RenderStats s = lastStats;
+        return s != null ? s.averagePathLength() : 0;
+    }
+
+    /** Rays traced by the last render that collected stats, one per path segment. */
+    public long raysTraced() {
+        RenderStats s = lastStats;
+        return s != null ? s.total.rays : 0;
+    }
+
+    /** Collect RenderStats in the following renders, as -Draytracer.stats=true does. */
+    public void collectStats(boolean on) {
+        collectStats = on;
+    }
+
+    public HitRecord hitAll(Ray r, Sphere[] world) {
+        return hitAll(r, world, null);
+    }
+
+    /** hitAll, counting the ray and its sphere tests in c unless it is null. */
+    HitRecord hitAll(Ray r, Sphere[] world, RenderStats.Counters c) {
+        if (group != null) {
+            if (c != null) c.rays++;
+            return group.hit(r, HitRecord.MISS.t);
+        }
+        if (c != null) {
+            c.rays++;
+            if (bvh == null) c.sphereTests += soa != null ? soa.size : world.length;
+        }
+        if (bvh != null) return bvh.hit(r, c);
+        if (soa != null) return soa.hit(r);
         HitRecord hit = HitRecord.MISS;
         for (Sphere sphere : world) {
             HitRecord h = sphere.hit(r, hit.t);
@@ -50,7 +182,131 @@ public class Scene {
         return hit;
     }
 
-    Sphere[] buildRandomWorld() {
+    /** Build the scene geometry and whatever acceleration data accel asks for. */
+    Sphere[] buildWorld() {
+        return meter != null ? meter.phase("build", () -> buildWorld(sceneId())) : buildWorld(sceneId());
+    }
+
+    /**
+     * Name of the configured scene: "file:<path>" for -Draytracer.scene,
+     * "spheres:<n>" for -Draytracer.spheres, "instances:<n>" for
+     * -Draytracer.instances, otherwise "random".
+     */
+    static String sceneId() {
+        String file = System.getProperty("raytracer.scene");
+        if (file != null) return "file:" + file;
+        Integer instances = Integer.getInteger("raytracer.instances");
+        if (instances != null) return "instances:" + instances;
+        Integer spheres = Integer.getInteger("raytracer.spheres");
+        return spheres != null ? "spheres:" + spheres : "random";
+    }
+
+    Sphere[] buildWorld(String sceneId) {
+        group = null;
+        if (sceneId.startsWith("file:")) return load(Path.of(sceneId.substring(5)));
+        if (sceneId.startsWith("instances:")) {
+            if (!kernel.equals("object"))
+                throw new IllegalArgumentException("Instanced scenes need the object kernel, not " + kernel);
+            Sphere[] world = new Sphere[0];
+            prepare(world);
+            group = buildInstancedWorld(Integer.parseInt(sceneId.substring(10)));
+            return world;
+        }
+        Sphere[] world;
+        if (sceneId.startsWith("spheres:")) world = buildLargeWorld(Integer.parseInt(sceneId.substring(8)));
+        else if (sceneId.equals("random")) world = buildRandomWorld();
+        else throw new IllegalArgumentException("Unknown scene " + sceneId);
+        prepare(world);
+        return world;
+    }
+
+    public void prepare(Sphere[] world) {
+        floats = null;
+        bvh = accel.equals("bvh") ? new Bvh(world) : null;
+        soa = accel.equals("soa") ? new SphereSoA(world) : null;
+    }
+
+    /**
+     * Use a SceneFile: its BVH if it has one, otherwise a scan of its spheres.
+     * Sphere objects are only created for the object kernel; the others trace
+     * the loaded arrays directly and get an empty world.
+     */
+    Sphere[] load(Path file) {
+        SceneFile scene;
+        try {
+            scene = SceneFile.load(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        floats = null;
+        bvh = scene.bvh;
+        soa = scene.bvh == null ? scene.soa : null;
+        if (!kernel.equals("object")) return new Sphere[0];
+        Sphere[] world = scene.soa.toSpheres();
+        if (bvh != null) bvh.spheres = world;
+        return world;
+    }
+
+    /**
+     * Ground plus n small random spheres scattered over a square that grows
+     * with n, for testing acceleration structures on large scenes.
+     */
+    public Sphere[] buildLargeWorld(int n) {
+        Sphere[] world = new Sphere[n + 1];
+        world[0] = new Sphere(new Vec3(0,-1000,0), 1000, new Material.Lambertian(new Vec3(.5,.5,.5)));
+        double half = Math.sqrt(n) / 2;
+        for (int i = 1; i <= n; i++) {
+            Vec3 center = new Vec3(Rng.rand(-half, half), .2, Rng.rand(-half, half));
+            double choose_mat = Rng.rand();
+            Material mat;
+            if (choose_mat < 0.8)
+                mat = new Material.Lambertian(Vec3.random().mul(Vec3.random()));
+            else if (choose_mat < 0.95)
+                mat = new Material.Metal(Vec3.random(.5, 1), Rng.rand(0, .5));
+            else
+                mat = new Material.Dielectric(1.5);
+            world[i] = new Sphere(center, .2, mat);
+        }
+        return world;
+    }
+
+    /**
+     * Ground, three big shapes and n small ones on a grid over the usual
+     * square, all instances of one sphere and two icosphere meshes: each
+     * placement stores a transform and a material, never geometry.
+     */
+    public Group buildInstancedWorld(int n) {
+        Mesh smooth = Mesh.icosphere(3, null);
+        Mesh faceted = Mesh.icosphere(1, null);
+        Sphere sphere = new Sphere(Vec3.ZERO, 1, null);
+        Hittable[] shapes = { smooth, faceted, sphere };
+        Material[] palette = new Material[16];
+        for (int i = 0; i < palette.length; i++) {
+            double choose_mat = Rng.rand();
+            if (choose_mat < 0.8) palette[i] = new Material.Lambertian(Vec3.random().mul(Vec3.random()));
+            else if (choose_mat < 0.95) palette[i] = new Material.Metal(Vec3.random(.5, 1), Rng.rand(0, .5));
+            else palette[i] = new Material.Dielectric(1.5);
+        }
+
+        Hittable[] items = new Hittable[n + 4];
+        items[0] = new Sphere(new Vec3(0,-1000,0), 1000, new Material.Lambertian(new Vec3(.5,.5,.5)));
+        items[1] = new Instance(sphere, Instance.placement(new Vec3(0,1,0), 0, 0, 1), new Material.Dielectric(1.5));
+        items[2] = new Instance(faceted, Instance.placement(new Vec3(-4,1,0), .3, .2, 1), new Material.Lambertian(new Vec3(.8,0,.2)));
+        items[3] = new Instance(smooth, Instance.placement(new Vec3(4,1,0), 0, 0, 1), new Material.Metal(new Vec3(.7,.6,.5), 0));
+        int side = (int)Math.ceil(Math.sqrt(n));
+        double cell = 22. / side;
+        for (int i = 0; i < n; i++) {
+            double size = .2 * cell * Rng.rand(.6, 1);
+            Vec3 position = new Vec3(-11 + cell * (i % side + .5 + .5 * Rng.rand(-1, 1) * (1 - 2 * size / cell)),
+                                     size,
+                                     -11 + cell * (i / side + .5 + .5 * Rng.rand(-1, 1) * (1 - 2 * size / cell)));
+            double[] toWorld = Instance.placement(position, Rng.rand(0, 2 * Math.PI), Rng.rand(0, Math.PI), size);
+            items[i + 4] = new Instance(shapes[i % shapes.length], toWorld, palette[(int)(Rng.rand() * palette.length)]);
+        }
+        return new Group(items);
+    }
+
+    public Sphere[] buildRandomWorld() {
         Sphere[] world = new Sphere[500];
         int n = 0;
 
@@ -93,35 +349,424 @@ public class Scene {
         return res;
     }
 
+    int maxBounces = Integer.getInteger("raytracer.maxBounces", 10);
+    // Depth (number of bounces) after which paths are subject to Russian
+    // roulette, or -1 to always trace up to maxBounces.
+    int rouletteDepth = Integer.getInteger("raytracer.rouletteDepth", -1);
+
+    // Whether renders collect RenderStats. Each render counts into its own
+    // RenderStats, passed down to its tiles, so renders of one Scene can run
+    // at the same time.
+    boolean collectStats = RenderStats.ENABLED;
+    // Statistics of the last render that collected them, for reports.
+    volatile RenderStats lastStats;
+
+    // First-hit features of the current render, for Denoiser, or null. Set by
+    // the caller; fixed and progressive renders of full images fill it.
+    Features features;
+
+    // Resource use of the current render by phase, or null. Set by the
+    // caller; buildWorld() counts as phase "build".
+    ResourceMeter meter;
+
+    /** Statistics for a new render, or null when they are off. */
+    RenderStats startStats(int imageW, int imageH, int samplesPerPixel) {
+        return collectStats ? new RenderStats(this, imageW, imageH, samplesPerPixel) : null;
+    }
+
+    void finishStats(RenderStats stats) {
+        if (stats == null) return;
+        stats.finish();
+        lastStats = stats;
+    }
+
+    static final Vec3 LOOK_FROM = new Vec3(13,5,5);
+    static final Vec3 LOOK_AT = new Vec3(0,0,0);
+    static final double VFOV = 21, APERTURE = 0.1, FOCUS_DISTANCE = 10;
+
+    public static Camera camera(int imageW, int imageH) {
+        return camera(imageW, imageH, LOOK_FROM, LOOK_AT, VFOV, APERTURE, FOCUS_DISTANCE);
+    }
+
+    static Camera camera(int imageW, int imageH, Vec3 lookFrom, Vec3 lookAt,
+                         double vfov, double aperture, double focusDistance) {
+        double aspectRatio = (double)imageW / imageH;
+        Vec3 cameraUp = new Vec3(0,1,0);
+        return new Camera(aspectRatio, vfov, lookFrom, lookAt,
+                          cameraUp, aperture, focusDistance);
+    }
+
     public void paint(Render render, int samplesPerPixel) {
         // Image
         int imageW = render.img.getWidth();
         int imageH = render.img.getHeight();
-        double aspectRatio = (double)imageW / imageH;
-        int maxBounces = 10;
+        Camera camera = camera(imageW, imageH);
+        Sphere[] world = buildWorld();
+        RenderStats stats = startStats(imageW, imageH, samplesPerPixel);
 
-        Vec3 lookFrom = new Vec3(13,5,5);
-        Vec3 lookAt = new Vec3(0,0,0);
-        double aperture = 0.1;
-        double focusDistance = 10;
-        Vec3 cameraUp = new Vec3(0,1,0);
-        double vfov = 21;
-        Camera camera = new Camera(aspectRatio, vfov, lookFrom, lookAt,
-                                   cameraUp, aperture, focusDistance);
-        Sphere[] world = buildRandomWorld();
+        if (!kernel.equals("object") || !sampler.equals("random")) {
+            paintTile(render, camera, world, new Tile(0, 0, imageW, imageH), samplesPerPixel, stats);
+            finishStats(stats);
+            return;
+        }
 
         // Paint
+        RenderStats.Counters c = stats != null ? stats.begin() : null;
+        RandomGenerator rng = Rng.current();
         for (int i = 0; i < imageW; i++) {
             for (int j = 0; j < imageH; j++) {
                 Vec3 pixel = Vec3.ZERO;
                 for (int s = 0; s < samplesPerPixel; s++) {
-                    double u = ((double)i + Rng.rand()) / (imageW - 1);
-                    double v = ((double)j + Rng.rand()) / (imageH - 1);
-                    Ray r = camera.getRay(u, v);
-                    pixel = pixel.add(rayColor(r, world, maxBounces));
+                    double u = ((double)i + rng.nextDouble()) / (imageW - 1);
+                    double v = ((double)j + rng.nextDouble()) / (imageH - 1);
+                    Ray r = camera.getRay(rng, u, v);
+                    pixel = pixel.add(rayColor(r, world, maxBounces, null, c, rng));
                     render.putPixel(i, imageH-j-1, pixel, samplesPerPixel);
                 }
             }
         }
+        if (c != null) stats.end(c, new Tile(0, 0, imageW, imageH));
+        finishStats(stats);
+    }
+
+    /** Sum of samplesPerPixel radiance samples for pixel (i, j). */
+    Vec3 samplePixel(Camera camera, Sphere[] world, int i, int j,
+                     int imageW, int imageH, int samplesPerPixel) {
+        return samplePixel(camera, world, i, j, imageW, imageH, samplesPerPixel, null, null, Rng.current());
+    }
+
+    /**
+     * samplePixel, drawing from rng, also summing the samples' Features into
+     * feature unless it is null, and counting the paths in c unless it is
+     * null.
+     */
+    Vec3 samplePixel(Camera camera, Sphere[] world, int i, int j, int imageW, int imageH,
+                     int samplesPerPixel, double[] feature, RenderStats.Counters c, RandomGenerator rng) {
+        Vec3 pixel = Vec3.ZERO;
+        for (int s = 0; s < samplesPerPixel; s++) {
+            double u = ((double)i + rng.nextDouble()) / (imageW - 1);
+            double v = ((double)j + rng.nextDouble()) / (imageH - 1);
+            Ray r = camera.getRay(rng, u, v);
+            pixel = pixel.add(rayColor(r, world, maxBounces, feature, c, rng));
+        }
+        return pixel;
+    }
+
+    /**
+     * samplePixel with the camera dimensions of samples first ..
+     * first+samplesPerPixel-1 from smp, whose rng scattering draws from, or
+     * from rng when smp is null. Features go to feature and paths are
+     * counted in c unless they are null.
+     */
+    Vec3 samplePixel(Camera camera, Sphere[] world, int i, int j, int imageW, int imageH, int samplesPerPixel,
+                     Sampler smp, int first, double[] feature, RenderStats.Counters c, RandomGenerator rng) {
+        if (smp == null) return samplePixel(camera, world, i, j, imageW, imageH, samplesPerPixel, feature, c, rng);
+        double[] p = smp.pixel(i, j, first, samplesPerPixel);
+        Vec3 pixel = Vec3.ZERO;
+        for (int s = 0; s < samplesPerPixel; s++) {
+            double u = ((double)i + p[4*s]) / (imageW - 1);
+            double v = ((double)j + p[4*s+1]) / (imageH - 1);
+            Ray r = camera.getRay(u, v, p[4*s+2], p[4*s+3]);
+            pixel = pixel.add(rayColor(r, world, maxBounces, feature, c, smp.rng));
+        }
+        return pixel;
+    }
+
+    /** Receives the sum of a pixel's samples; (i, j) are scene coordinates (y up). */
+    interface PixelSink {
+        void put(int i, int j, double r, double g, double b);
+    }
+
+    /**
+     * Take samplesPerPixel samples for every pixel of tile with the configured
+     * kernel, and record their Features if the scene collects them. Counts
+     * into stats unless it is null.
+     */
+    void sampleTile(Camera camera, Sphere[] world, Tile tile, int imageW, int imageH,
+                    int samplesPerPixel, PixelSink out, RenderStats stats) {
+        RenderStats.Counters c = stats != null ? stats.begin() : null;
+        if (kernel.equals("wavefront")) {
+            if (features != null) throw new IllegalArgumentException("The wavefront kernel records no denoising features");
+            Wavefront.sampleTile(this, camera, world, tile, imageW, imageH, samplesPerPixel, out);
+        } else if (!kernel.equals("object")) {
+            PixelKernel k = pixelKernel(camera, world);
+            for (int i = tile.x0; i < tile.x1; i++) {
+                for (int j = tile.y0; j < tile.y1; j++) {
+                    k.samplePixel(i, j, imageW, imageH, samplesPerPixel, 0);
+                    out.put(i, j, k.r(), k.g(), k.b());
+                    if (features != null) features.add(i, imageH-j-1, k.feature());
+                }
+            }
+            k.flushStats();
+        } else {
+            Sampler smp = newSampler();
+            RandomGenerator rng = Rng.current();
+            double[] feature = features != null ? new double[Features.SIZE] : null;
+            for (int i = tile.x0; i < tile.x1; i++) {
+                for (int j = tile.y0; j < tile.y1; j++) {
+                    Vec3 pixel = samplePixel(camera, world, i, j, imageW, imageH, samplesPerPixel, smp, 0, feature, c, rng);
+                    out.put(i, j, pixel.x, pixel.y, pixel.z);
+                    if (feature != null) features.add(i, imageH-j-1, feature);
+                }
+            }
+        }
+        if (c != null) stats.end(c, tile);
+    }
+
+    void paintTile(Render render, Camera camera, Sphere[] world, Tile tile, int samplesPerPixel, RenderStats stats) {
+        int imageH = render.img.getHeight();
+        sampleTile(camera, world, tile, render.img.getWidth(), imageH, samplesPerPixel,
+                   (i, j, r, g, b) -> render.putPixel(i, imageH-j-1, r, g, b, samplesPerPixel), stats);
+    }
+
+    /**
+     * Render the image in tiles on a pool of {@code threads} workers. Every
+     * tile gets its own RNG stream split from {@code seed} in tile order, so
+     * the output depends only on the seed and tile size, not on the number of
+     * threads or on scheduling.
+     */
+    public void paintParallel(Render render, int samplesPerPixel, int tileSize, int threads, long seed) {
+        int imageW = render.img.getWidth();
+        int imageH = render.img.getHeight();
+        Camera camera = camera(imageW, imageH);
+        Sphere[] world = buildWorld();
+
+        ForkJoinPool pool = ResourceMeter.pool(threads);
+        try {
+            paintParallel(render, camera, world, samplesPerPixel, tileSize, pool, seed);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** paintParallel with a given camera and world, on an existing pool. */
+    public void paintParallel(Render render, Camera camera, Sphere[] world, int samplesPerPixel,
+                       int tileSize, ForkJoinPool pool, long seed) {
+        List<Tile> tiles = Tile.split(render.img.getWidth(), render.img.getHeight(), tileSize);
+        RenderStats stats = startStats(render.img.getWidth(), render.img.getHeight(), samplesPerPixel);
+        forEachTile(pool, tiles, Rng.splittable(seed),
+                    tile -> paintTile(render, camera, world, tile, samplesPerPixel, stats));
+        finishStats(stats);
+    }
+
+    /**
+     * Add samplesPerPass samples to every pixel of fb until it holds
+     * samplesPerPixel, one pass over the whole image at a time. Pass p draws
+     * from Rng.stream(seed, p), split per tile, so a render resumed from a
+     * checkpoint continues exactly as if it had never stopped. afterPass is
+     * called after every pass, e.g. to checkpoint or resolve the image.
+     */
+    public void paintProgressive(Framebuffer fb, int samplesPerPixel, int samplesPerPass,
+                                 int tileSize, int threads, long seed, Consumer<Framebuffer> afterPass) {
+        Camera camera = camera(fb.width, fb.height);
+        Sphere[] world = buildWorld();
+        List<Tile> tiles = Tile.split(fb.width, fb.height, tileSize);
+        RenderStats stats = startStats(fb.width, fb.height, samplesPerPixel - fb.samples);
+        ForkJoinPool pool = ResourceMeter.pool(threads);
+        try {
+            while (fb.samples < samplesPerPixel) {
+                int spp = Math.min(samplesPerPass, samplesPerPixel - fb.samples);
+                forEachTile(pool, tiles, Rng.stream(seed, fb.passes),
+                            tile -> accumulateTile(fb, camera, world, tile, spp, stats));
+                fb.passes++;
+                fb.samples += spp;
+                afterPass.accept(fb);
+            }
+            finishStats(stats);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Progressive render into a fresh fb that stops at the budget's deadline,
+     * when the budget is cancelled, or at maxSamples per pixel, whichever
+     * comes first. Passes are scheduled like paintProgressive's, but a pass
+     * that the last one's duration says won't fit into the remaining time
+     * isn't started, so the image usually ends with the same spp everywhere.
+     * If a pass runs over anyway, its remaining tiles are skipped; the
+     * samples per pixel end up in fb.pixelSamples.
+     */
+    public RenderBudget.Result paintWithin(Framebuffer fb, RenderBudget budget, int maxSamples, int samplesPerPass,
+                                           int tileSize, int threads, long seed) {
+        Camera camera = camera(fb.width, fb.height);
+        Sphere[] world = buildWorld();
+        List<Tile> tiles = Tile.split(fb.width, fb.height, tileSize);
+        fb.pixelSamples = new int[fb.width * fb.height];
+        RenderStats stats = startStats(fb.width, fb.height, maxSamples);
+        ForkJoinPool pool = ResourceMeter.pool(threads);
+        try {
+            long passNanos = 0;
+            while (fb.samples < maxSamples && !budget.shouldStop() && passNanos < budget.remainingNanos()) {
+                int spp = Math.min(samplesPerPass, maxSamples - fb.samples);
+                long start = System.nanoTime();
+                forEachTile(pool, tiles, Rng.stream(seed, fb.passes), tile -> {
+                        if (budget.shouldStop()) return;
+                        accumulateTile(fb, camera, world, tile, spp, stats);
+                        for (int j = tile.y0; j < tile.y1; j++)
+                            for (int i = tile.x0; i < tile.x1; i++)
+                                fb.pixelSamples[(fb.height-j-1) * fb.width + i] += spp;
+                    });
+                passNanos = System.nanoTime() - start;
+                fb.passes++;
+                fb.samples += spp;
+            }
+            finishStats(stats);
+        } finally {
+            pool.shutdown();
+        }
+        fb.samples = 0;
+        for (int c : fb.pixelSamples) fb.samples = Math.max(fb.samples, c);
+        return new RenderBudget.Result(fb, maxSamples, System.nanoTime() - budget.start, budget.isCancelled());
+    }
+
+    /**
+     * Render the image in bands of bandRows rows, top to bottom, and hand each
+     * finished band to sink on a separate encoder thread while the next band
+     * renders. At most two finished bands wait for the encoder, so memory use
+     * grows with the band height, not with the image size.
+     */
+    public void paintStreaming(ImageSink sink, int imageW, int imageH, int samplesPerPixel,
+                               int bandRows, int tileSize, int threads, long seed) {
+        Camera camera = camera(imageW, imageH);
+        Sphere[] world = buildWorld();
+        RenderStats stats = startStats(imageW, imageH, samplesPerPixel);
+        ForkJoinPool pool = ResourceMeter.pool(threads);
+        ExecutorService encoder = ResourceMeter.singleThread();
+        ArrayDeque<Future<?>> pending = new ArrayDeque<>();
+        try {
+            for (int band = 0, y0 = 0; y0 < imageH; band++, y0 += bandRows) {
+                int rows = Math.min(bandRows, imageH - y0);
+                Framebuffer fb = Framebuffer.band(imageW, imageH, y0, rows);
+                fb.samples = samplesPerPixel;
+                // Image rows [y0, y0+rows) are scene rows [imageH-y0-rows, imageH-y0).
+                Tile area = new Tile(0, imageH - y0 - rows, imageW, imageH - y0);
+                forEachTile(pool, Tile.split(area, tileSize), Rng.stream(seed, band),
+                            tile -> accumulateTile(fb, camera, world, tile, samplesPerPixel, stats));
+                if (pending.size() >= 2) pending.removeFirst().get();
+                pending.add(encoder.submit(() -> { sink.write(fb); return null; }));
+            }
+            while (!pending.isEmpty()) pending.removeFirst().get();
+            finishStats(stats);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdown();
+            encoder.shutdown();
+        }
+    }
+
+    void accumulateTile(Framebuffer fb, Camera camera, Sphere[] world, Tile tile, int samplesPerPixel,
+                        RenderStats stats) {
+        sampleTile(camera, world, tile, fb.width, fb.height, samplesPerPixel,
+                   (i, j, r, g, b) -> fb.add(i, fb.height-j-1, r, g, b), stats);
+    }
+
+    /**
+     * Adaptive sampling: each pixel takes at least minSamples and at most
+     * maxSamples samples, and stops as soon as the 95% confidence interval of
+     * its mean luminance, mapped through the output gamma, is narrower than
+     * threshold (on the 0..1 display scale). Mean and variance are tracked
+     * with Welford's algorithm. Per-pixel sample counts end up in
+     * fb.pixelSamples.
+     */
+    public void paintAdaptive(Framebuffer fb, int minSamples, int maxSamples, double threshold,
+                              int tileSize, int threads, long seed) {
+        Camera camera = camera(fb.width, fb.height);
+        Sphere[] world = buildWorld();
+        fb.pixelSamples = new int[fb.width * fb.height];
+        RenderStats stats = startStats(fb.width, fb.height, maxSamples);
+        ForkJoinPool pool = ResourceMeter.pool(threads);
+        try {
+            forEachTile(pool, Tile.split(fb.width, fb.height, tileSize), Rng.splittable(seed),
+                        tile -> adaptiveTile(fb, camera, world, tile, minSamples, maxSamples, threshold, stats));
+        } finally {
+            pool.shutdown();
+        }
+        finishStats(stats);
+        fb.samples = maxSamples;
+        fb.passes = 1;
+    }
+
+    void adaptiveTile(Framebuffer fb, Camera camera, Sphere[] world, Tile tile,
+                      int minSamples, int maxSamples, double threshold, RenderStats stats) {
+        RenderStats.Counters c = stats != null ? stats.begin() : null;
+        // Samples one at a time, so the wavefront kernel falls back to FlatKernel.
+        PixelKernel k = !kernel.equals("object") ? pixelKernel(camera, world) : null;
+        Sampler smp = k == null ? newSampler() : null;
+        adaptivePixels(fb, camera, world, tile, minSamples, maxSamples, threshold, k, smp, c);
+        if (k != null) k.flushStats();
+        if (c != null) stats.end(c, tile);
+    }
+
+    void adaptivePixels(Framebuffer fb, Camera camera, Sphere[] world, Tile tile, int minSamples,
+                        int maxSamples, double threshold, PixelKernel k, Sampler smp, RenderStats.Counters c) {
+        int imageW = fb.width;
+        int imageH = fb.height;
+        RandomGenerator rng = Rng.current();
+        for (int i = tile.x0; i < tile.x1; i++) {
+            for (int j = tile.y0; j < tile.y1; j++) {
+                double sr = 0, sg = 0, sb = 0;
+                double mean = 0, m2 = 0;
+                int n = 0;
+                while (n < maxSamples) {
+                    double r, g, b;
+                    if (k != null) {
+                        k.samplePixel(i, j, imageW, imageH, 1, n);
+                        r = k.r(); g = k.g(); b = k.b();
+                    } else {
+                        Vec3 p = samplePixel(camera, world, i, j, imageW, imageH, 1, smp, n, null, c, rng);
+                        r = p.x; g = p.y; b = p.z;
+                    }
+                    sr += r; sg += g; sb += b;
+                    double lum = 0.2126 * r + 0.7152 * g + 0.0722 * b;
+                    n++;
+                    double delta = lum - mean;
+                    mean += delta / n;
+                    m2 += delta * (lum - mean);
+                    if (n >= minSamples) {
+                        double halfWidth = 1.96 * Math.sqrt(m2 / (n - 1) / n);
+                        // d sqrt(x)/dx = 1/(2 sqrt(x)): error as seen after gamma.
+                        if (halfWidth / (2 * Math.sqrt(Math.max(mean, 1e-4))) < threshold) break;
+                    }
+                }
+                int y = imageH-j-1;
+                fb.add(i, y, sr, sg, sb);
+                fb.pixelSamples[y * imageW + i] = n;
+            }
+        }
+    }
+
+    /**
+     * Run job for every tile on pool, with each tile's Rng stream split from
+     * root in tile order. The output then depends only on root and the tile
+     * list, not on the number of threads or on scheduling.
+     */
+    static void forEachTile(ForkJoinPool pool, List<Tile> tiles, SplittableGenerator root, Consumer<Tile> job) {
+        List<Callable<Void>> jobs = new ArrayList<>(tiles.size());
+        for (Tile tile : tiles) {
+            RandomGenerator rng = root.split();
+            jobs.add(() -> {
+                    Rng.LOCAL.set(rng);
+                    try {
+                        job.accept(tile);
+                    } finally {
+                        Rng.LOCAL.remove();
+                    }
+                    return null;
+                });
+        }
+        try {
+            for (Future<Void> f : pool.invokeAll(jobs))
+                f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
     }
 }
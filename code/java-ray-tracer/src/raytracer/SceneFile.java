@@ -0,0 +1,216 @@
+package raytracer;
+
+import java.io.IOException;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.*;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Binary scene format that loads straight into SphereSoA and Bvh arrays, with
+ * no Sphere, Vec3 or Material objects and no per-sphere parsing. Every array
+ * is a little-endian section of the file, mapped and copied in bulk:
+ *
+ *   header    64 bytes: magic, version, flags, sphere, material and node counts
+ *   materials kind int[m], albedoR, albedoG, albedoB, param double[m]
+ *   spheres   cx, cy, cz, radius double[n], material int[n]
+ *   bvh       bounds double[6 * nodes], first int[nodes], count int[nodes]
+ *
+ * Sections start at multiples of 8 bytes. The BVH is optional; when present
+ * the spheres are stored in BVH order.
+ *
+ *   java -cp target raytracer.SceneFile out.rtsc [spheres]
+ */
+public class SceneFile {
+
+    static final int MAGIC = 0x52545343; // "RTSC"
+    static final int VERSION = 1;
+    static final int HEADER = 64;
+    static final int HAS_BVH = 1;
+
+    final SphereSoA soa;
+    final Bvh bvh;
+
+    private SceneFile(SphereSoA soa, Bvh bvh) {
+        this.soa = soa;
+        this.bvh = bvh;
+    }
+
+    /** Write world, with a BVH built over it if withBvh. Written atomically. */
+    public static void write(Path file, Sphere[] world, boolean withBvh) throws IOException {
+        Bvh bvh = withBvh ? new Bvh(world) : null;
+        SphereSoA s = bvh != null ? bvh.soa : new SphereSoA(world, false);
+        int nodes = bvh != null ? bvh.nodeCount : 0;
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, CREATE, TRUNCATE_EXISTING, READ, WRITE)) {
+            ByteBuffer h = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+            h.putInt(MAGIC).putInt(VERSION).putInt(bvh != null ? HAS_BVH : 0)
+             .putInt(s.size).putInt(s.kind.length).putInt(nodes);
+            h.clear();
+            ch.write(h, 0);
+
+            Sections out = new Sections(ch, MapMode.READ_WRITE);
+            out.put(s.kind, s.kind.length);
+            out.put(s.albedoR, s.kind.length);
+            out.put(s.albedoG, s.kind.length);
+            out.put(s.albedoB, s.kind.length);
+            out.put(s.param, s.kind.length);
+            out.put(s.cx, s.size);
+            out.put(s.cy, s.size);
+            out.put(s.cz, s.size);
+            out.put(s.radius, s.size);
+            out.put(s.material, s.size);
+            if (bvh != null) {
+                out.put(bvh.bounds, 6 * nodes);
+                out.put(bvh.first, nodes);
+                out.put(bvh.count, nodes);
+            }
+            ch.force(false);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static SceneFile load(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, READ)) {
+            ByteBuffer h = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+            ch.read(h, 0);
+            h.flip();
+            if (h.remaining() < HEADER || h.getInt() != MAGIC) throw new IOException("Not a scene file: " + file);
+            int version = h.getInt();
+            if (version != VERSION) throw new IOException("Unsupported scene file version " + version);
+            int flags = h.getInt(), n = h.getInt(), m = h.getInt(), nodes = h.getInt();
+            boolean hasBvh = (flags & HAS_BVH) != 0;
+            if (n < 0 || m < 0 || nodes < 0 || (hasBvh && nodes == 0))
+                throw new IOException("Bad counts in " + file + ": " + n + " spheres, " + m + " materials, " + nodes + " nodes");
+            long length = length(n, m, hasBvh ? nodes : 0);
+            if (ch.size() != length)
+                throw new IOException(file + " is " + ch.size() + " bytes, its header says " + length);
+
+            Sections in = new Sections(ch, MapMode.READ_ONLY);
+            int[] kind = in.ints(m);
+            double[] albedoR = in.doubles(m), albedoG = in.doubles(m), albedoB = in.doubles(m);
+            double[] param = in.doubles(m);
+            double[] cx = in.doubles(n), cy = in.doubles(n), cz = in.doubles(n), radius = in.doubles(n);
+            int[] material = in.ints(n);
+            for (int i = 0; i < m; i++)
+                if (kind[i] < FlatKernel.LAMBERTIAN || kind[i] > FlatKernel.DIELECTRIC)
+                    throw new IOException("Material " + i + " in " + file + " has unknown kind " + kind[i]);
+            for (int i = 0; i < n; i++)
+                if (material[i] < 0 || material[i] >= m)
+                    throw new IOException("Sphere " + i + " in " + file + " has material " + material[i] + " of " + m);
+            // The BVH tests a few spheres per leaf, where the scalar loop is faster.
+            boolean simd = !hasBvh && Boolean.parseBoolean(System.getProperty("raytracer.simd", "true"));
+            SphereSoA soa = new SphereSoA(cx, cy, cz, radius, material,
+                                          kind, albedoR, albedoG, albedoB, param, simd);
+            Bvh bvh = null;
+            if (hasBvh) {
+                double[] bounds = in.doubles(6 * nodes);
+                int[] first = in.ints(nodes), count = in.ints(nodes);
+                checkTree(file, first, count, n);
+                bvh = new Bvh(soa, bounds, first, count);
+            }
+            return new SceneFile(soa, bvh);
+        }
+    }
+
+    /** File length for the given counts: the header and every section, each but the last padded to 8 bytes. */
+    static long length(int n, int m, int nodes) {
+        long[] sections = { 4L * m, 8L * m, 8L * m, 8L * m, 8L * m,
+                            8L * n, 8L * n, 8L * n, 8L * n, 4L * n,
+                            48L * nodes, 4L * nodes, 4L * nodes };
+        long end = HEADER, offset = HEADER;
+        for (long bytes : sections) {
+            if (bytes == 0) continue;
+            end = offset + bytes;
+            offset += (bytes + 7) & ~7L;
+        }
+        return end;
+    }
+
+    /**
+     * Check that the BVH is a tree the traversals can walk: interior nodes
+     * point forward to two nodes in range, leaves to spheres in range, and no
+     * leaf is deeper than Bvh.MAX_DEPTH, so the fixed-size stacks suffice.
+     * The traversals never walk the tree over no spheres.
+     */
+    static void checkTree(Path file, int[] first, int[] count, int n) throws IOException {
+        if (n == 0) return;
+        int nodes = first.length;
+        int[] depth = new int[nodes];
+        for (int node = 0; node < nodes; node++) {
+            if (count[node] > 0) {
+                if (first[node] < 0 || (long)first[node] + count[node] > n)
+                    throw new IOException("BVH leaf " + node + " in " + file + " holds spheres outside 0.." + n);
+            } else if (count[node] == 0) {
+                int left = first[node];
+                if (left <= node || left >= nodes - 1)
+                    throw new IOException("BVH node " + node + " in " + file + " has children out of range");
+                if (depth[node] == Bvh.MAX_DEPTH)
+                    throw new IOException("BVH in " + file + " is deeper than " + Bvh.MAX_DEPTH);
+                depth[left] = Math.max(depth[left], depth[node] + 1);
+                depth[left + 1] = Math.max(depth[left + 1], depth[node] + 1);
+            } else {
+                throw new IOException("BVH node " + node + " in " + file + " has count " + count[node]);
+            }
+        }
+    }
+
+    /** Consecutive 8-byte aligned sections after the header, one mapping each. */
+    static final class Sections {
+        final FileChannel ch;
+        final MapMode mode;
+        long offset = HEADER;
+
+        Sections(FileChannel ch, MapMode mode) {
+            this.ch = ch;
+            this.mode = mode;
+        }
+
+        ByteBuffer map(long bytes) throws IOException {
+            ByteBuffer b = ch.map(mode, offset, bytes).order(ByteOrder.LITTLE_ENDIAN);
+            offset += (bytes + 7) & ~7L;
+            return b;
+        }
+
+        void put(double[] a, int n) throws IOException {
+            map(8L * n).asDoubleBuffer().put(a, 0, n);
+        }
+
+        void put(int[] a, int n) throws IOException {
+            map(4L * n).asIntBuffer().put(a, 0, n);
+        }
+
+        double[] doubles(int n) throws IOException {
+            double[] a = new double[n];
+            map(8L * n).asDoubleBuffer().get(a);
+            return a;
+        }
+
+        int[] ints(int n) throws IOException {
+            int[] a = new int[n];
+            map(4L * n).asIntBuffer().get(a);
+            return a;
+        }
+    }
+
+    /**
+     * Convert the default random scene, or Scene.buildLargeWorld(spheres), to
+     * a scene file. The BVH is included unless -Draytracer.accel is not bvh.
+     */
+    public static void main(String[] args) throws IOException {
+        Path out = Path.of(args.length > 0 ? args[0] : "scene.rtsc");
+        Scene scene = new Scene();
+        Sphere[] world = args.length > 1 ? scene.buildLargeWorld(Integer.parseInt(args[1])) : scene.buildRandomWorld();
+
+        long start = System.nanoTime();
+        write(out, world, scene.accel.equals("bvh"));
+        double writeMs = (System.nanoTime() - start) / 1e6;
+        start = System.nanoTime();
+        SceneFile loaded = load(out);
+        double loadMs = (System.nanoTime() - start) / 1e6;
+        System.out.println(String.format("%s: %d spheres, %s, %.1f MB; written in %.0f ms, loads in %.1f ms",
+                                         out, loaded.soa.size, loaded.bvh != null ? loaded.bvh.nodeCount + " BVH nodes" : "no BVH",
+                                         Files.size(out) / 1e6, writeMs, loadMs));
+    }
+}
@@ -0,0 +1,42 @@
+package raytracer;
+
+import jdk.incubator.vector.*;
+
+/**
+ * Vector API kernel for SphereSoA. Only loaded when jdk.incubator.vector is
+ * in the boot layer (run with --add-modules jdk.incubator.vector). Uses plain
+ * mul/add/sqrt/div lane-wise, never fma, so every lane rounds exactly like the
+ * scalar code.
+ */
+class SimdIntersect implements SphereSoA.Kernel {
+
+    static final VectorSpecies<Double> S = DoubleVector.SPECIES_PREFERRED;
+
+    public int closest(SphereSoA s, double ox, double oy, double oz,
+                       double dx, double dy, double dz, double tMax) {
+        double a = dx*dx + dy*dy + dz*dz;
+        double best = tMax;
+        int bestIdx = -1;
+        int i = 0;
+        for (int upper = S.loopBound(s.size); i < upper; i += S.length()) {
+            DoubleVector ocx = DoubleVector.broadcast(S, ox).sub(DoubleVector.fromArray(S, s.cx, i));
+            DoubleVector ocy = DoubleVector.broadcast(S, oy).sub(DoubleVector.fromArray(S, s.cy, i));
+            DoubleVector ocz = DoubleVector.broadcast(S, oz).sub(DoubleVector.fromArray(S, s.cz, i));
+            DoubleVector halfB = ocx.mul(dx).add(ocy.mul(dy)).add(ocz.mul(dz));
+            DoubleVector c = ocx.mul(ocx).add(ocy.mul(ocy)).add(ocz.mul(ocz))
+                .sub(DoubleVector.fromArray(S, s.radius2, i));
+            DoubleVector disc = halfB.mul(halfB).sub(c.mul(a));
+            VectorMask<Double> valid = disc.compare(VectorOperators.GE, 0);
+            if (!valid.anyTrue()) continue;
+            DoubleVector root = halfB.neg().sub(disc.sqrt()).div(a);
+            valid = valid.and(root.compare(VectorOperators.GE, SphereSoA.T_MIN))
+                .and(root.compare(VectorOperators.LE, best));
+            if (!valid.anyTrue()) continue;
+            // The scalar scan keeps the last sphere among equal closest roots.
+            double m = root.reduceLanes(VectorOperators.MIN, valid);
+            best = m;
+            bestIdx = i + root.compare(VectorOperators.EQ, m).and(valid).lastTrue();
+        }
+        return s.closestScalar(i, s.size, ox, oy, oz, dx, dy, dz, best, bestIdx);
+    }
+}
@@ -1,18 +1,18 @@
 package raytracer;
 
-public class Sphere {
+public class Sphere implements Hittable {
 
     final Vec3 center;
     final double radius;
     final Material material;
 
-    Sphere(Vec3 center, double radius, Material material) {
+    public Sphere(Vec3 center, double radius, Material material) {
         this.center = center;
         this.radius = radius;
         this.material = material;
     }
 
-    HitRecord hit(Ray ray, double t_max) {
+    public HitRecord hit(Ray ray, double t_max) {
         double t_min = 0.01;
         Vec3 oc = ray.origin.sub(center);
         double a = ray.direction.lengthSquared();
@@ -30,6 +30,15 @@ public class Sphere {
             if (root < t_min || root > t_max) return HitRecord.MISS;
         }
 
+        return record(ray, root, center, radius, material);
+    }
+
+    public double[] box() {
+        return new double[] { center.x - radius, center.y - radius, center.z - radius,
+                              center.x + radius, center.y + radius, center.z + radius };
+    }
+
+    static HitRecord record(Ray ray, double root, Vec3 center, double radius, Material material) {
         Vec3 intersection = ray.at(root);
         Vec3 outwardNormal = intersection.sub(center).div(radius);
         boolean frontFace = ray.direction.dot(outwardNormal) < 0;
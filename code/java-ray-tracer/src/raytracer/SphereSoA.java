@@ -0,0 +1,174 @@
+package raytracer;
+
+import java.util.*;
+
+/**
+ * Compiled form of a sphere array: centers and radii in flat double[] columns
+ * and materials as indices into a shared table of primitive material
+ * parameters. Closest-hit search runs either
+ * a scalar loop or, when jdk.incubator.vector is available, a SIMD kernel
+ * that tests one ray against a whole vector of spheres at once. Both produce
+ * the same hits as calling Sphere.hit on every sphere in order.
+ */
+public class SphereSoA {
+
+    static final double T_MIN = 0.01;
+
+    interface Kernel {
+        /** Index of the closest sphere hit in [T_MIN, tMax], or -1. */
+        int closest(SphereSoA s, double ox, double oy, double oz,
+                    double dx, double dy, double dz, double tMax);
+    }
+
+    static final Kernel SCALAR = SphereSoA::closestScalar;
+    static final Kernel SIMD = loadSimd();
+
+    final int size;
+    final double[] cx, cy, cz, radius, radius2;
+    final int[] material;
+    final Kernel kernel;
+
+    // Material table: kind (FlatKernel.LAMBERTIAN etc.), albedo, and fuzz or
+    // refraction index.
+    final int[] kind;
+    final double[] albedoR, albedoG, albedoB, param;
+    // Material objects for the object kernel; created on demand for scenes
+    // loaded from a file.
+    Material[] materials;
+
+    public SphereSoA(Sphere[] world) {
+        this(world, Boolean.parseBoolean(System.getProperty("raytracer.simd", "true")));
+    }
+
+    public SphereSoA(Sphere[] world, boolean simd) {
+        size = world.length;
+        cx = new double[size]; cy = new double[size]; cz = new double[size];
+        radius = new double[size]; radius2 = new double[size];
+        material = new int[size];
+        Map<Material, Integer> table = new IdentityHashMap<>();
+        for (int i = 0; i < size; i++) {
+            Sphere s = world[i];
+            cx[i] = s.center.x; cy[i] = s.center.y; cz[i] = s.center.z;
+            radius[i] = s.radius;
+            radius2[i] = s.radius * s.radius;
+            Integer m = table.get(s.material);
+            if (m == null) table.put(s.material, m = table.size());
+            material[i] = m;
+        }
+        materials = new Material[table.size()];
+        table.forEach((m, i) -> materials[i] = m);
+        int n = materials.length;
+        kind = new int[n];
+        albedoR = new double[n]; albedoG = new double[n]; albedoB = new double[n];
+        param = new double[n];
+        for (int i = 0; i < n; i++) {
+            Material m = materials[i];
+            if (m instanceof Material.Lambertian) {
+                Vec3 a = ((Material.Lambertian)m).albedo;
+                kind[i] = FlatKernel.LAMBERTIAN;
+                albedoR[i] = a.x; albedoG[i] = a.y; albedoB[i] = a.z;
+            } else if (m instanceof Material.Metal) {
+                Vec3 a = ((Material.Metal)m).albedo;
+                kind[i] = FlatKernel.METAL;
+                albedoR[i] = a.x; albedoG[i] = a.y; albedoB[i] = a.z;
+                param[i] = ((Material.Metal)m).fuzz;
+            } else {
+                kind[i] = FlatKernel.DIELECTRIC;
+                albedoR[i] = albedoG[i] = albedoB[i] = 1;
+                param[i] = ((Material.Dielectric)m).refractionIndex;
+            }
+        }
+        kernel = (simd && SIMD != null) ? SIMD : SCALAR;
+    }
+
+    /** Wrap arrays as they are, e.g. loaded from a SceneFile. */
+    SphereSoA(double[] cx, double[] cy, double[] cz, double[] radius, int[] material,
+              int[] kind, double[] albedoR, double[] albedoG, double[] albedoB, double[] param, boolean simd) {
+        this.size = cx.length;
+        this.cx = cx; this.cy = cy; this.cz = cz;
+        this.radius = radius;
+        this.radius2 = new double[size];
+        for (int i = 0; i < size; i++) radius2[i] = radius[i] * radius[i];
+        this.material = material;
+        this.kind = kind;
+        this.albedoR = albedoR; this.albedoG = albedoG; this.albedoB = albedoB;
+        this.param = param;
+        this.kernel = (simd && SIMD != null) ? SIMD : SCALAR;
+    }
+
+    /** Sphere objects for the object kernel, creating Material objects if needed. */
+    Sphere[] toSpheres() {
+        if (materials == null) {
+            Material[] ms = new Material[kind.length];
+            for (int i = 0; i < ms.length; i++) {
+                Vec3 albedo = new Vec3(albedoR[i], albedoG[i], albedoB[i]);
+                ms[i] = kind[i] == FlatKernel.LAMBERTIAN ? new Material.Lambertian(albedo)
+                    : kind[i] == FlatKernel.METAL ? new Material.Metal(albedo, param[i])
+                    : new Material.Dielectric(param[i]);
+            }
+            materials = ms;
+        }
+        Sphere[] spheres = new Sphere[size];
+        for (int i = 0; i < size; i++)
+            spheres[i] = new Sphere(new Vec3(cx[i], cy[i], cz[i]), radius[i], materials[material[i]]);
+        return spheres;
+    }
+
+    static Kernel loadSimd() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) return null;
+        try {
+            return (Kernel)Class.forName("raytracer.SimdIntersect").getDeclaredConstructor().newInstance();
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+    boolean isSimd() { return kernel != SCALAR; }
+
+    public int closest(Ray r) {
+        Vec3 o = r.origin, d = r.direction;
+        return kernel.closest(this, o.x, o.y, o.z, d.x, d.y, d.z, HitRecord.MISS.t);
+    }
+
+    HitRecord hit(Ray r) {
+        int i = closest(r);
+        if (i < 0) return HitRecord.MISS;
+        Vec3 o = r.origin, d = r.direction;
+        double root = root(i, o.x, o.y, o.z, d.x, d.y, d.z, d.x*d.x + d.y*d.y + d.z*d.z);
+        return Sphere.record(r, root, new Vec3(cx[i], cy[i], cz[i]), radius[i], materials[material[i]]);
+    }
+
+    /**
+     * Same arithmetic as Sphere.hit, in the same order, so results are
+     * bit-identical. NaN is returned when the ray misses the sphere.
+     */
+    double root(int i, double ox, double oy, double oz,
+                double dx, double dy, double dz, double a) {
+        double ocx = ox - cx[i], ocy = oy - cy[i], ocz = oz - cz[i];
+        double half_b = ocx * dx + ocy * dy + ocz * dz;
+        double c = ocx*ocx + ocy*ocy + ocz*ocz - radius2[i];
+        double discriminant = half_b*half_b - a*c;
+        if (discriminant < 0) return Double.NaN;
+        return (-half_b - Math.sqrt(discriminant)) / a;
+    }
+
+    static int closestScalar(SphereSoA s, double ox, double oy, double oz,
+                             double dx, double dy, double dz, double tMax) {
+        return s.closestScalar(0, s.size, ox, oy, oz, dx, dy, dz, tMax, -1);
+    }
+
+    /** Scalar search over [from, to), continuing from a best hit found so far. */
+    int closestScalar(int from, int to, double ox, double oy, double oz,
+                      double dx, double dy, double dz, double best, int bestIdx) {
+        double a = dx*dx + dy*dy + dz*dz;
+        for (int i = from; i < to; i++) {
+            double root = root(i, ox, oy, oz, dx, dy, dz, a);
+            // Ties go to the later sphere, like the linear scan in hitAll.
+            if (root >= T_MIN && root <= best) {
+                best = root;
+                bestIdx = i;
+            }
+        }
+        return bestIdx;
+    }
+}
@@ -0,0 +1,34 @@
+package raytracer;
+
+import java.util.*;
+
+/** Rectangular block of pixels [x0, x1) x [y0, y1) in scene coordinates. */
+public class Tile {
+
+    final int x0, y0, x1, y1;
+
+    Tile(int x0, int y0, int x1, int y1) {
+        this.x0 = x0;
+        this.y0 = y0;
+        this.x1 = x1;
+        this.y1 = y1;
+    }
+
+    int width() { return x1 - x0; }
+
+    int height() { return y1 - y0; }
+
+    static List<Tile> split(int imageW, int imageH, int tileSize) {
+        return split(new Tile(0, 0, imageW, imageH), tileSize);
+    }
+
+    static List<Tile> split(Tile area, int tileSize) {
+        List<Tile> tiles = new ArrayList<>();
+        for (int y = area.y0; y < area.y1; y += tileSize)
+            for (int x = area.x0; x < area.x1; x += tileSize)
+                tiles.add(new Tile(x, y, Math.min(x + tileSize, area.x1), Math.min(y + tileSize, area.y1)));
+        return tiles;
+    }
+
+    public String toString() { return String.format("[%d,%d)x[%d,%d)", x0, x1, y0, y1); }
+}
@@ -0,0 +1,83 @@
+package raytracer;
+
+import java.io.*;
+
+/**
+ * One tile of a distributed render, as sent from Coordinator to Worker.
+ * Carries everything that affects the tile's pixels, so any worker renders
+ * it identically: the scene (see Scene.sceneId), tracing settings, camera,
+ * seed and the tile's position in Tile.split order, whose Rng stream is the
+ * index-th split of the seed, exactly as in Scene.paintParallel.
+ *
+ * The reply is the tile's ARGB pixels, row by row from y0 in scene
+ * coordinates.
+ */
+final class TileJob {
+
+    // Sent instead of a job when the coordinator has no more work.
+    static final int STOP = -1;
+
+    final String sceneId;
+    final String kernel, sampler;
+    final int maxBounces, rouletteDepth;
+    final long seed;
+    final int index;
+    final Tile tile;
+    final int imageW, imageH, samplesPerPixel;
+    final Camera camera;
+
+    TileJob(String sceneId, String kernel, String sampler, int maxBounces, int rouletteDepth, long seed, int index,
+            Tile tile, int imageW, int imageH, int samplesPerPixel, Camera camera) {
+        this.sceneId = sceneId;
+        this.kernel = kernel;
+        this.sampler = sampler;
+        this.maxBounces = maxBounces;
+        this.rouletteDepth = rouletteDepth;
+        this.seed = seed;
+        this.index = index;
+        this.tile = tile;
+        this.imageW = imageW;
+        this.imageH = imageH;
+        this.samplesPerPixel = samplesPerPixel;
+        this.camera = camera;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(index);
+        out.writeUTF(sceneId);
+        out.writeUTF(kernel);
+        out.writeUTF(sampler);
+        out.writeInt(maxBounces);
+        out.writeInt(rouletteDepth);
+        out.writeLong(seed);
+        out.writeInt(tile.x0);
+        out.writeInt(tile.y0);
+        out.writeInt(tile.x1);
+        out.writeInt(tile.y1);
+        out.writeInt(imageW);
+        out.writeInt(imageH);
+        out.writeInt(samplesPerPixel);
+        camera.write(out);
+    }
+
+    /** The next job, or null on STOP. */
+    static TileJob read(DataInputStream in) throws IOException {
+        int index = in.readInt();
+        if (index == STOP) return null;
+        String sceneId = in.readUTF();
+        String kernel = in.readUTF();
+        String sampler = in.readUTF();
+        int maxBounces = in.readInt(), rouletteDepth = in.readInt();
+        long seed = in.readLong();
+        Tile tile = new Tile(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+        int imageW = in.readInt(), imageH = in.readInt(), spp = in.readInt();
+        return new TileJob(sceneId, kernel, sampler, maxBounces, rouletteDepth, seed, index,
+                           tile, imageW, imageH, spp, Camera.read(in));
+    }
+
+    static void writeResult(DataOutputStream out, int index, int[] argb) throws IOException {
+        out.writeInt(index);
+        out.writeInt(argb.length);
+        for (int c : argb) out.writeInt(c);
+    }
+}
@@ -0,0 +1,93 @@
+package raytracer;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * A/B comparison of the identity-class build (target) and the value-class
+ * build (target-valhalla/classes, see build.clj). Renders the same image
+ * in a fresh JVM per run, alternating between the builds. Uses the serial
+ * object kernel, the path that allocates a Vec3, Ray, HitRecord or Scatter
+ * per operation. Reports the median elapsed time and allocated bytes as
+ * printed by Render.measure, and whether the images match.
+ *
+ * Both builds run on the same java binary, so only the class shapes
+ * differ: by default this JVM's, or -Dab.java=<Valhalla JDK>/bin/java.
+ * -Dab.identity and -Dab.value override the class paths, and
+ * -Dab.valueFlags the JVM flags for the value build (default
+ * -XX:+EnablePrimitiveClasses). raytracer.* properties are passed on to
+ * both.
+ *
+ *   java -cp target raytracer.ValueClassAB [width] [spp] [runs]
+ */
+public class ValueClassAB {
+
+    record Run(long millis, long megabytes, byte[] image) {}
+
+    static Run run(String java, String classPath, List<String> flags, int width, int spp) throws IOException {
+        Path out = Files.createTempFile("ab", ".png");
+        try {
+            List<String> cmd = new ArrayList<>(List.of(java, "-cp", classPath));
+            cmd.addAll(flags);
+            cmd.add("--add-modules=jdk.incubator.vector");
+            for (String name : System.getProperties().stringPropertyNames())
+                if (name.startsWith("raytracer.")) cmd.add("-D" + name + "=" + System.getProperty(name));
+            cmd.addAll(List.of("raytracer.Render", "" + width, "" + spp, out.toString()));
+            Process p = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+            long millis = -1, megabytes = -1;
+            StringBuilder log = new StringBuilder();
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
+                for (String line; (line = in.readLine()) != null; ) {
+                    log.append(line).append('\n');
+                    if (line.startsWith("Elapsed:")) millis = number(line);
+                    else if (line.startsWith("Allocated:")) megabytes = number(line);
+                }
+            }
+            int status = p.waitFor();
+            if (status != 0 || millis < 0)
+                throw new IOException("Render on " + classPath + " failed with status " + status + ":\n" + log);
+            return new Run(millis, megabytes, Files.readAllBytes(out));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            Files.deleteIfExists(out);
+        }
+    }
+
+    /** The digits of a Render.measure line, whatever the locale's grouping. */
+    static long number(String line) {
+        return Long.parseLong(line.replaceAll("[^0-9]", ""));
+    }
+
+    static long median(List<Run> runs, boolean time) {
+        long[] v = runs.stream().mapToLong(r -> time ? r.millis : r.megabytes).sorted().toArray();
+        return v[v.length / 2];
+    }
+
+    public static void main(String[] args) throws IOException {
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int spp = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        String java = System.getProperty("ab.java",
+            ProcessHandle.current().info().command().orElse(Path.of(System.getProperty("java.home"), "bin", "java").toString()));
+        String identity = System.getProperty("ab.identity", "target");
+        String value = System.getProperty("ab.value", "target-valhalla/classes");
+        String flags = System.getProperty("ab.valueFlags", "-XX:+EnablePrimitiveClasses").trim();
+        List<String> valueFlags = flags.isEmpty() ? List.of() : List.of(flags.split("\\s+"));
+
+        List<Run> a = new ArrayList<>(), b = new ArrayList<>();
+        for (int i = 0; i < runs; i++) {
+            a.add(run(java, identity, List.of(), width, spp));
+            b.add(run(java, value, valueFlags, width, spp));
+        }
+        long ta = median(a, true), tb = median(b, true), ma = median(a, false), mb = median(b, false);
+        System.out.printf("%dx%d %d spp, %d runs each, %s%n", width, (int)(width / (3./2.)), spp, runs, java);
+        System.out.printf("identity classes  %,8d ms  %,8d MB allocated%n", ta, ma);
+        System.out.printf("value classes     %,8d ms  %,8d MB allocated%n", tb, mb);
+        System.out.printf("speedup %.2fx, allocation %.1f%% of identity, images %s%n",
+                          (double)ta / tb, 100. * mb / Math.max(1, ma),
+                          Arrays.equals(a.get(0).image, b.get(0).image) ? "identical" : "differ");
+    }
+}
@@ -1,5 +1,7 @@
 package raytracer;
 
+import java.util.random.RandomGenerator;
+
 public class Vec3 {
 
     static final Vec3 ZERO = new Vec3(0, 0, 0);
@@ -9,53 +11,53 @@ public class Vec3 {
     final double y;
     final double z;
 
-    Vec3(double x, double y, double z) {
+    public Vec3(double x, double y, double z) {
         this.x = x;
         this.y = y;
         this.z = z;
     }
 
-    Vec3 neg() {
+    public Vec3 neg() {
         return new Vec3(-x, -y, -z);
     }
 
-    Vec3 add(Vec3 o) {
+    public Vec3 add(Vec3 o) {
         return new Vec3(x + o.x, y + o.y, z + o.z);
     }
 
-    Vec3 sub(Vec3 o) {
+    public Vec3 sub(Vec3 o) {
         return new Vec3(x - o.x, y - o.y, z - o.z);
     }
 
-    Vec3 mul(Vec3 o) {
+    public Vec3 mul(Vec3 o) {
         return new Vec3(x * o.x, y * o.y, z * o.z);
     }
 
-    Vec3 scale(double t) {
+    public Vec3 scale(double t) {
         return new Vec3(x * t, y * t, z * t);
     }
 
-    Vec3 div(double t) {
+    public Vec3 div(double t) {
         return new Vec3(x / t, y / t, z / t);
     }
 
-    double dot(Vec3 o) {
+    public double dot(Vec3 o) {
         return x * o.x + y * o.y + z * o.z;
     }
 
-    Vec3 cross(Vec3 o) {
+    public Vec3 cross(Vec3 o) {
         return new Vec3(y * o.z - z * o.y, z * o.x - x * o.z, x * o.y - y * o.x);
     }
 
-    double lengthSquared() {
+    public double lengthSquared() {
         return x*x + y*y + z*z;
     }
 
-    double length() {
+    public double length() {
         return Math.sqrt(lengthSquared());
     }
 
-    Vec3 normalize() {
+    public Vec3 normalize() {
         return div(length());
     }
 
@@ -69,21 +71,38 @@ public class Vec3 {
     }
 
     static Vec3 random(double min, double max) {
-        return new Vec3(Rng.rand(min, max),
-                        Rng.rand(min, max),
-                        Rng.rand(min, max));
+        return random(Rng.current(), min, max);
+    }
+
+    static Vec3 random(RandomGenerator rng, double min, double max) {
+        return new Vec3(Rng.rand(rng, min, max),
+                        Rng.rand(rng, min, max),
+                        Rng.rand(rng, min, max));
     }
 
-    static Vec3 randomInUnitSphere() {
+    static Vec3 randomInUnitSphere(RandomGenerator rng) {
         while (true) {
-            Vec3 p = random(-1, 1);
+            Vec3 p = random(rng, -1, 1);
             if (p.lengthSquared() < 1) return p;
         }
     }
 
+    static Vec3 randomUnitVector() {
+        return randomUnitVector(Rng.current());
+    }
+
+    /** Unit vector uniform on the sphere, by rejection or in closed form; see Directions. */
+    static Vec3 randomUnitVector(RandomGenerator rng) {
+        return Directions.unitVector(rng, Directions.closedForm);
+    }
+
     static Vec3 randomInUnitDisk() {
+        return randomInUnitDisk(Rng.current());
+    }
+
+    static Vec3 randomInUnitDisk(RandomGenerator rng) {
         while (true) {
-            Vec3 p = new Vec3(Rng.rand(-1, 1), Rng.rand(-1, 1), 0);
+            Vec3 p = new Vec3(Rng.rand(rng, -1, 1), Rng.rand(rng, -1, 1), 0);
             if (p.lengthSquared() < 1) return p;
         }
     }
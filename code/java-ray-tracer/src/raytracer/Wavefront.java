@@ -0,0 +1,247 @@
+package raytracer;
+
+import java.util.Arrays;
+import java.util.random.RandomGenerator;
+
+/**
+ * Breadth-first (wavefront) path tracer. Instead of following one path to
+ * the end, it advances a whole batch of rays one bounce at a time through
+ * separate stages, each a tight loop over flat per-ray arrays:
+ *
+ *   generate  - camera rays for every sample of every pixel in the tile
+ *   intersect - closest hit for every live ray; misses add sky radiance
+ *   sort      - counting sort of hit rays by material kind
+ *   shade     - one loop per material kind, so each loop runs one code path
+ *   compact   - drop absorbed rays and rays out of bounces
+ *
+ * The per-ray math comes from FlatKernel. Random numbers are consumed in a
+ * different order than in the depth-first kernels, so images are
+ * statistically equivalent rather than identical.
+ */
+public class Wavefront {
+
+    static final int BATCH = 1 << 14;
+
+    /** Per-ray state, one array per field. */
+    static final class Rays {
+        final double[] ox, oy, oz, dx, dy, dz, ar, ag, ab, px, py, pz, nx, ny, nz;
+        final int[] pixel, bounces, mat;
+        final boolean[] front;
+        int size;
+
+        Rays(int n) {
+            ox = new double[n]; oy = new double[n]; oz = new double[n];
+            dx = new double[n]; dy = new double[n]; dz = new double[n];
+            ar = new double[n]; ag = new double[n]; ab = new double[n];
+            px = new double[n]; py = new double[n]; pz = new double[n];
+            nx = new double[n]; ny = new double[n]; nz = new double[n];
+            pixel = new int[n]; bounces = new int[n]; mat = new int[n];
+            front = new boolean[n];
+        }
+
+        void copy(int i, Rays to, int j) {
+            to.ox[j] = ox[i]; to.oy[j] = oy[i]; to.oz[j] = oz[i];
+            to.dx[j] = dx[i]; to.dy[j] = dy[i]; to.dz[j] = dz[i];
+            to.ar[j] = ar[i]; to.ag[j] = ag[i]; to.ab[j] = ab[i];
+            to.px[j] = px[i]; to.py[j] = py[i]; to.pz[j] = pz[i];
+            to.nx[j] = nx[i]; to.ny[j] = ny[i]; to.nz[j] = nz[i];
+            to.pixel[j] = pixel[i]; to.bounces[j] = bounces[i]; to.mat[j] = mat[i];
+            to.front[j] = front[i];
+        }
+    }
+
+    /**
+     * One per worker thread, so the ray batches and the accumulator are
+     * allocated once per thread rather than once per tile.
+     */
+    static final ThreadLocal<Wavefront> LOCAL = ThreadLocal.withInitial(Wavefront::new);
+
+    // Kernel of the current tile, null between tiles.
+    FlatKernel k;
+    Rays cur, next;
+    double[] acc;
+    final int[] kindStart = new int[3], kindEnd = new int[3], kindAt = new int[3];
+
+    /** sampleTile on this thread's Wavefront, with a fresh kernel for the tile. */
+    static void sampleTile(Scene scene, Camera camera, Sphere[] world, Tile tile, int imageW, int imageH,
+                           int samplesPerPixel, Scene.PixelSink out) {
+        Wavefront wf = LOCAL.get();
+        wf.k = new FlatKernel(scene, camera, world);
+        try {
+            wf.sampleTile(tile, imageW, imageH, samplesPerPixel, out);
+        } finally {
+            wf.k = null;
+        }
+    }
+
+    void sampleTile(Tile tile, int imageW, int imageH, int samplesPerPixel, Scene.PixelSink out) {
+        RandomGenerator rng = k.sampler != null ? k.sampler.rng : Rng.current();
+        int w = tile.width(), pixels = w * tile.height();
+        int samplesPerBatch = Math.max(1, Math.min(samplesPerPixel, BATCH / pixels));
+        int capacity = pixels * samplesPerBatch;
+        if (cur == null || cur.pixel.length < capacity) {
+            cur = new Rays(capacity);
+            next = new Rays(capacity);
+        }
+        if (acc == null || acc.length < 3 * pixels) acc = new double[3 * pixels];
+        else Arrays.fill(acc, 0, 3 * pixels, 0);
+
+        for (int s0 = 0; s0 < samplesPerPixel; s0 += samplesPerBatch) {
+            generate(rng, tile, imageW, imageH, s0, Math.min(samplesPerBatch, samplesPerPixel - s0));
+            while (cur.size > 0) {
+                intersect();
+                sortByMaterial();
+                shade(rng);
+                compact();
+            }
+        }
+
+        for (int i = tile.x0; i < tile.x1; i++)
+            for (int j = tile.y0; j < tile.y1; j++) {
+                int p = 3 * ((j - tile.y0) * w + (i - tile.x0));
+                out.put(i, j, acc[p], acc[p+1], acc[p+2]);
+            }
+        k.flushStats();
+    }
+
+    /** Camera rays for samples first .. first+samples-1 of every pixel in tile. */
+    void generate(RandomGenerator rng, Tile tile, int imageW, int imageH, int first, int samples) {
+        Rays c = cur;
+        Sampler sampler = k.sampler;
+        int n = 0, w = tile.width();
+        for (int i = tile.x0; i < tile.x1; i++)
+            for (int j = tile.y0; j < tile.y1; j++) {
+                double[] p = sampler != null ? sampler.pixel(i, j, first, samples) : null;
+                for (int s = 0; s < samples; s++, n++) {
+                    if (p != null) {
+                        k.lensRay(p[4*s+2], p[4*s+3], ((double)i + p[4*s]) / (imageW - 1),
+                                  ((double)j + p[4*s+1]) / (imageH - 1));
+                    } else {
+                        double u = ((double)i + rng.nextDouble()) / (imageW - 1);
+                        double v = ((double)j + rng.nextDouble()) / (imageH - 1);
+                        k.getRay(rng, u, v);
+                    }
+                    c.ox[n] = k.ox; c.oy[n] = k.oy; c.oz[n] = k.oz;
+                    c.dx[n] = k.dx; c.dy[n] = k.dy; c.dz[n] = k.dz;
+                    c.ar[n] = 1; c.ag[n] = 1; c.ab[n] = 1;
+                    c.pixel[n] = (j - tile.y0) * w + (i - tile.x0);
+                    c.bounces[n] = k.maxBounces;
+                }
+            }
+        c.size = n;
+        k.paths += n;
+    }
+
+    void intersect() {
+        Rays c = cur;
+        k.segments += c.size;
+        for (int r = 0; r < c.size; r++) {
+            k.ox = c.ox[r]; k.oy = c.oy[r]; k.oz = c.oz[r];
+            k.dx = c.dx[r]; k.dy = c.dy[r]; k.dz = c.dz[r];
+            int m = k.hit();
+            c.mat[r] = m;
+            if (m < 0) {
+                double len = Math.sqrt(k.dx*k.dx + k.dy*k.dy + k.dz*k.dz);
+                double t = .5 * (k.dy / len + 1.);
+                int p = 3 * c.pixel[r];
+                acc[p]   += (1 * (1-t) + .5 * t) * c.ar[r];
+                acc[p+1] += (1 * (1-t) + .7 * t) * c.ag[r];
+                acc[p+2] += (1 * (1-t) + 1. * t) * c.ab[r];
+                if (k.counters != null) { k.counters.escaped++; k.counters.depth[k.maxBounces - c.bounces[r] + 1]++; }
+            } else {
+                c.px[r] = k.px; c.py[r] = k.py; c.pz[r] = k.pz;
+                c.nx[r] = k.nx; c.ny[r] = k.ny; c.nz[r] = k.nz;
+                c.front[r] = k.frontFace;
+            }
+        }
+    }
+
+    /** Counting sort of the rays that hit something into next, grouped by material kind. */
+    void sortByMaterial() {
+        Rays c = cur;
+        int[] at = kindAt;
+        java.util.Arrays.fill(at, 0);
+        for (int r = 0; r < c.size; r++)
+            if (c.mat[r] >= 0) at[k.kind[c.mat[r]]]++;
+        for (int kind = 0, start = 0; kind < 3; kind++) {
+            int count = at[kind];
+            kindStart[kind] = at[kind] = start;
+            start += count;
+            kindEnd[kind] = start;
+        }
+        for (int r = 0; r < c.size; r++)
+            if (c.mat[r] >= 0) c.copy(r, next, at[k.kind[c.mat[r]]]++);
+        next.size = kindEnd[2];
+        swap();
+    }
+
+    void shade(RandomGenerator rng) {
+        Rays c = cur;
+        for (int r = kindStart[FlatKernel.LAMBERTIAN]; r < kindEnd[FlatKernel.LAMBERTIAN]; r++) {
+            load(r);
+            k.scatterLambertian(rng);
+            store(r, rng);
+        }
+        for (int r = kindStart[FlatKernel.METAL]; r < kindEnd[FlatKernel.METAL]; r++) {
+            load(r);
+            if (k.scatterMetal(rng, k.param[c.mat[r]])) store(r, rng);
+            else {
+                if (k.counters != null) { k.counters.absorbed++; k.counters.depth[k.maxBounces - c.bounces[r] + 1]++; }
+                c.bounces[r] = -1;
+            }
+        }
+        for (int r = kindStart[FlatKernel.DIELECTRIC]; r < kindEnd[FlatKernel.DIELECTRIC]; r++) {
+            load(r);
+            k.scatterDielectric(rng, k.param[c.mat[r]]);
+            store(r, rng);
+        }
+    }
+
+    void load(int r) {
+        Rays c = cur;
+        k.dx = c.dx[r]; k.dy = c.dy[r]; k.dz = c.dz[r];
+        k.px = c.px[r]; k.py = c.py[r]; k.pz = c.pz[r];
+        k.nx = c.nx[r]; k.ny = c.ny[r]; k.nz = c.nz[r];
+        k.frontFace = c.front[r];
+    }
+
+    /** Take the scattered ray from the kernel and attenuate by the material. */
+    void store(int r, RandomGenerator rng) {
+        Rays c = cur;
+        int m = c.mat[r];
+        c.ox[r] = k.ox; c.oy[r] = k.oy; c.oz[r] = k.oz;
+        c.dx[r] = k.dx; c.dy[r] = k.dy; c.dz[r] = k.dz;
+        c.ar[r] = c.ar[r] * k.albedoR[m];
+        c.ag[r] = c.ag[r] * k.albedoG[m];
+        c.ab[r] = c.ab[r] * k.albedoB[m];
+        c.bounces[r]--;
+        if (k.rouletteDepth >= 0 && k.maxBounces - c.bounces[r] >= k.rouletteDepth) {
+            double p = Scene.survival(c.ar[r], c.ag[r], c.ab[r]);
+            if (p < 1) {
+                if (rng.nextDouble() >= p) {
+                    if (k.counters != null) { k.counters.roulette++; k.counters.depth[k.maxBounces - c.bounces[r]]++; }
+                    c.bounces[r] = -1;
+                    return;
+                }
+                c.ar[r] = c.ar[r] * (1 / p); c.ag[r] = c.ag[r] * (1 / p); c.ab[r] = c.ab[r] * (1 / p);
+            }
+        }
+        if (c.bounces[r] < 0 && k.counters != null) { k.counters.bounceLimit++; k.counters.depth[k.maxBounces + 1]++; }
+    }
+
+    /** Keep only rays that can still bounce; the rest contribute nothing. */
+    void compact() {
+        Rays c = cur;
+        int n = 0;
+        for (int r = 0; r < c.size; r++)
+            if (c.bounces[r] >= 0) c.copy(r, next, n++);
+        next.size = n;
+        swap();
+    }
+
+    void swap() {
+        Rays t = cur;
+        cur = next;
+        next = t;
+    }
+}
@@ -0,0 +1,146 @@
+package raytracer;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.random.RandomGenerator;
+import java.util.random.RandomGenerator.SplittableGenerator;
+
+/**
+ * Render node for distributed rendering. Opens one connection to the
+ * Coordinator per thread and renders the tiles it is sent until the
+ * coordinator says STOP or goes away. The scene is built once per JVM and
+ * shared by all connections.
+ *
+ *   java -cp target raytracer.Worker [host:port] [threads]
+ */
+public class Worker {
+
+    static final long CONNECT_TIMEOUT_MILLIS = 30_000;
+
+    /** A built scene and its world. */
+    static final class Built {
+        final String key;
+        final Scene scene;
+        final Sphere[] world;
+
+        Built(String key, Scene scene, Sphere[] world) {
+            this.key = key;
+            this.scene = scene;
+            this.world = world;
+        }
+    }
+
+    // The last scene built, shared by all connections.
+    private static Built built;
+
+    static synchronized Built scene(TileJob job) {
+        String key = job.sceneId + " " + job.kernel + " " + job.sampler + " " + job.maxBounces + " " + job.rouletteDepth;
+        if (built != null && built.key.equals(key)) return built;
+        Scene s = new Scene();
+        s.kernel = job.kernel;
+        s.sampler = job.sampler;
+        s.maxBounces = job.maxBounces;
+        s.rouletteDepth = job.rouletteDepth;
+        // Same Rng state as a single-process render when it builds the world.
+        Rng.reset();
+        return built = new Built(key, s, s.buildWorld(job.sceneId));
+    }
+
+    final String host;
+    final int port;
+
+    // Splits of the current seed taken so far. Tiles mostly arrive in
+    // increasing order, so reaching the next tile's stream takes a few splits.
+    private SplittableGenerator root;
+    private long rootSeed;
+    private int splits;
+
+    Worker(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    /** Rng stream of tile index under seed, as Scene.forEachTile assigns it. */
+    RandomGenerator tileStream(long seed, int index) {
+        if (root == null || seed != rootSeed || index < splits) {
+            root = Rng.splittable(seed);
+            rootSeed = seed;
+            splits = 0;
+        }
+        RandomGenerator rng;
+        do {
+            rng = root.split();
+            splits++;
+        } while (splits <= index);
+        return rng;
+    }
+
+    int[] render(TileJob job) {
+        Built s = scene(job);
+        Tile tile = job.tile;
+        int tw = tile.width();
+        int[] argb = new int[tw * tile.height()];
+        Rng.LOCAL.set(tileStream(job.seed, job.index));
+        try {
+            s.scene.sampleTile(job.camera, s.world, tile, job.imageW, job.imageH, job.samplesPerPixel,
+                               (i, j, r, g, b) -> argb[(j - tile.y0) * tw + (i - tile.x0)]
+                                   = Render.color(r, g, b, job.samplesPerPixel), null);
+        } finally {
+            Rng.LOCAL.remove();
+        }
+        return argb;
+    }
+
+    /** Serve one connection until STOP or until the coordinator disconnects. */
+    void run() throws IOException, InterruptedException {
+        try (Socket socket = connect()) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            TileJob job;
+            while ((job = TileJob.read(in)) != null) {
+                TileJob.writeResult(out, job.index, render(job));
+                out.flush();
+            }
+        } catch (EOFException e) {
+            // Coordinator finished or died; nothing left to do.
+        }
+    }
+
+    /** Connect, retrying while the coordinator starts up. */
+    Socket connect() throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MILLIS;
+        while (true) {
+            try {
+                return new Socket(host, port);
+            } catch (ConnectException e) {
+                if (System.currentTimeMillis() > deadline) throw e;
+                Thread.sleep(200);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String address = args.length > 0 ? args[0] : "localhost:" + Coordinator.DEFAULT_PORT;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int colon = address.lastIndexOf(':');
+        String host = address.substring(0, colon);
+        int port = Integer.parseInt(address.substring(colon + 1));
+
+        List<Thread> connections = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Worker worker = new Worker(host, port);
+            Thread thread = new Thread(() -> {
+                    try {
+                        worker.run();
+                    } catch (Exception e) {
+                        System.err.println("Worker connection failed: " + e);
+                    }
+                }, "worker-" + t);
+            thread.start();
+            connections.add(thread);
+        }
+        for (Thread thread : connections) thread.join();
+    }
+}
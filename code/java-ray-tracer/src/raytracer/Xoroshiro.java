@@ -0,0 +1,52 @@
+package raytracer;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * xoroshiro128++ as a final class, so calls through it are monomorphic and
+ * inline into the tracing loops, unlike the RandomGenerator streams from
+ * RandomGeneratorFactory. Not thread-safe: each thread or tile owns one.
+ */
+final class Xoroshiro implements RandomGenerator {
+
+    private long s0, s1;
+
+    Xoroshiro(long seed) {
+        s0 = splitMix(seed += 0x9E3779B97F4A7C15L);
+        s1 = splitMix(seed + 0x9E3779B97F4A7C15L);
+    }
+
+    static long splitMix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    @Override
+    public long nextLong() {
+        long a = s0, b = s1;
+        long result = Long.rotateLeft(a + b, 17) + a;
+        b ^= a;
+        s0 = Long.rotateLeft(a, 49) ^ b ^ (b << 21);
+        s1 = Long.rotateLeft(b, 28);
+        return result;
+    }
+
+    @Override
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    /** Fill out[from, to) with uniform doubles in [0, 1). */
+    void fill(double[] out, int from, int to) {
+        long a = s0, b = s1;
+        for (int i = from; i < to; i++) {
+            out[i] = ((Long.rotateLeft(a + b, 17) + a) >>> 11) * 0x1.0p-53;
+            b ^= a;
+            a = Long.rotateLeft(a, 49) ^ b ^ (b << 21);
+            b = Long.rotateLeft(b, 28);
+        }
+        s0 = a;
+        s1 = b;
+    }
+}